@@ -0,0 +1,85 @@
+package io.eion.security.passkeeper.benchmark;
+
+import io.eion.security.passkeeper.service.SecureAccountService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency percentiles (p99 included) of authenticating users, with the password verifiers and
+ * with every authentication unlocking the user's KeyStore. The KeyStore cache is switched off so users beyond
+ * its size don't hide behind it. A wrong password always pays the full cost of the verifier.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(8)
+@Fork(1)
+public class AuthenticationBenchmark {
+
+    private static final String MASTER_PASSWORD = "masterPassword";
+
+    @Param({"100"})
+    private int users;
+
+    @Param({"true", "false"})
+    private boolean verifier;
+
+    private BenchmarkContext benchmarkContext;
+
+    private SecureAccountService secureAccountService;
+
+
+    @Setup(Level.Trial)
+    public void createUsers() throws Exception {
+        this.benchmarkContext = new BenchmarkContext(
+                "security.auth.verifier.enabled=" + this.verifier,
+                "security.keystore.cache.size=0");
+        this.secureAccountService = this.benchmarkContext.getBean(SecureAccountService.class);
+
+        for (int i = 0; i < this.users; i++) {
+            this.secureAccountService.createUser(username(i), MASTER_PASSWORD);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        this.benchmarkContext.close();
+    }
+
+    @Benchmark
+    public boolean authenticate() {
+        return this.secureAccountService.authenticateUser(this.randomUsername(), MASTER_PASSWORD);
+    }
+
+    @Benchmark
+    public boolean authenticateWrongPassword() {
+        return this.secureAccountService.authenticateUser(this.randomUsername(), "wrong" + MASTER_PASSWORD);
+    }
+
+    private String randomUsername() {
+        return username(ThreadLocalRandom.current().nextInt(this.users));
+    }
+
+    private static String username(final int i) {
+        return "user-" + i;
+    }
+}
@@ -0,0 +1,69 @@
+package io.eion.security.passkeeper.benchmark;
+
+import io.eion.security.PasskeeperApplication;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Starts the application with its HTTP ports switched off on top of a temporary keystore location, so benchmarks run
+ * against the same beans and proxies as the service without touching the keystores of the host. Additional
+ * properties override these defaults, e.g. server.port=0 to run with a random HTTP port.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+class BenchmarkContext implements AutoCloseable {
+
+    private final File keystoreLocation;
+
+    private final ConfigurableApplicationContext applicationContext;
+
+
+    /**
+     * @param properties additional properties in key=value form
+     */
+    BenchmarkContext(final String... properties) throws IOException {
+        this.keystoreLocation = Files.createTempDirectory("passkeeper-benchmark").toFile();
+
+        final Map<String, String> args = new LinkedHashMap<>();
+        args.put("security.keystore.location", this.keystoreLocation.getAbsolutePath());
+        args.put("server.port", "-1");
+        args.put("management.port", "-1");
+        args.put("logging.level.root", "WARN");
+
+        for (String property : properties) {
+            final int separator = property.indexOf('=');
+            args.put(property.substring(0, separator), property.substring(separator + 1));
+        }
+
+        // passed as command line arguments, default properties would be overridden by application.properties
+        this.applicationContext = new SpringApplicationBuilder(PasskeeperApplication.class)
+                .bannerMode(Banner.Mode.OFF)
+                .run(args.entrySet().stream().map(arg -> "--" + arg.getKey() + "=" + arg.getValue()).toArray(String[]::new));
+    }
+
+    <T> T getBean(final Class<T> beanType) {
+        return this.applicationContext.getBean(beanType);
+    }
+
+    String getProperty(final String key) {
+        return this.applicationContext.getEnvironment().getProperty(key);
+    }
+
+    File getKeystoreLocation() {
+        return this.keystoreLocation;
+    }
+
+    @Override
+    public void close() {
+        this.applicationContext.close();
+        FileSystemUtils.deleteRecursively(this.keystoreLocation);
+    }
+}
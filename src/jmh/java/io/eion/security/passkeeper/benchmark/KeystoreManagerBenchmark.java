@@ -0,0 +1,86 @@
+package io.eion.security.passkeeper.benchmark;
+
+import io.eion.security.passkeeper.service.KeystoreManager;
+import io.eion.security.passkeeper.service.SecureAccountService;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a user's KeyStore and resolving an account secret key from it, with the unlocked KeyStore cache
+ * disabled (every call reads and decrypts the JCEKS file) and enabled.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KeystoreManagerBenchmark {
+
+    private static final String USER_NAME = "benchmark";
+
+    private static final String MASTER_PASSWORD = "masterPassword";
+
+    @Param({"0", "1000"})
+    private int cacheSize;
+
+    private BenchmarkContext benchmarkContext;
+
+    private KeystoreManager keystoreManager;
+
+    private SecureAccountRequest secureAccountRequest;
+
+    private KeyStore keyStore;
+
+
+    @Setup(Level.Trial)
+    public void createUser() throws Exception {
+        this.benchmarkContext = new BenchmarkContext("security.keystore.cache.size=" + this.cacheSize);
+        this.keystoreManager = this.benchmarkContext.getBean(KeystoreManager.class);
+        this.benchmarkContext.getBean(SecureAccountService.class).createUser(USER_NAME, MASTER_PASSWORD);
+
+        this.secureAccountRequest = SecureAccountRequest.builder()
+                .username(USER_NAME)
+                .masterPassword(MASTER_PASSWORD)
+                .accountAlias("default").build();
+        this.keyStore = this.keystoreManager.getKeyStore(this.secureAccountRequest);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        this.benchmarkContext.close();
+    }
+
+    @Benchmark
+    public KeyStore getKeyStore() throws Exception {
+        return this.keystoreManager.getKeyStore(this.secureAccountRequest);
+    }
+
+    @Benchmark
+    public byte[] getSecretKey() throws Exception {
+        return this.keystoreManager.getSecretKey(this.keyStore, this.secureAccountRequest);
+    }
+
+    @Benchmark
+    public byte[] getKeyStoreAndSecretKey() throws Exception {
+        final KeyStore keyStore = this.keystoreManager.getKeyStore(this.secureAccountRequest);
+        return this.keystoreManager.getSecretKey(keyStore, this.secureAccountRequest);
+    }
+}
@@ -0,0 +1,119 @@
+package io.eion.security.passkeeper.benchmark;
+
+import io.eion.security.passkeeper.service.cache.DerivedKeyCache;
+import io.eion.security.passkeeper.service.util.PasswordEncryptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.security.crypto.codec.Utf8;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.crypto.keygen.KeyGenerators;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decrypting a stored password the way the service did before (a new Encryptors.text per call with the hex
+ * encoded secret key) against the cached key and per-thread Cipher of the PasswordEncryptor, through the
+ * String, byte[] and ByteBuffer methods. Run with -prof gc to compare the allocation rate:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="PasswordEncryptorBenchmark -prof gc"
+ * </pre>
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PasswordEncryptorBenchmark {
+
+    private static final String MASTER_PASSWORD = "masterPassword";
+
+    private final String encodedSecretKey = KeyGenerators.string().generateKey();
+
+    private final byte[] secretKey = Hex.decode(this.encodedSecretKey);
+
+    private final PasswordEncryptor passwordEncryptor = new PasswordEncryptor();
+
+    private String encryptedPassword;
+
+    private byte[] encryptedPasswordBytes;
+
+    @Setup(Level.Trial)
+    public void createEncryptedPassword() {
+        final DerivedKeyCache derivedKeyCache = new DerivedKeyCache();
+        ReflectionTestUtils.setField(derivedKeyCache, "maxSize", 1000);
+        ReflectionTestUtils.setField(derivedKeyCache, "ttl", 3600);
+        ReflectionTestUtils.setField(this.passwordEncryptor, "derivedKeyCache", derivedKeyCache);
+
+        this.encryptedPassword = Encryptors.text(MASTER_PASSWORD, this.encodedSecretKey).encrypt("dummyPassword");
+        this.encryptedPasswordBytes = Hex.decode(this.encryptedPassword);
+    }
+
+    @State(Scope.Thread)
+    public static class Buffers {
+
+        private final ByteBuffer input = ByteBuffer.allocate(64);
+
+        private final ByteBuffer output = ByteBuffer.allocate(64);
+    }
+
+    @Benchmark
+    public String decryptWithSpringEncryptors() {
+        return Encryptors.text(MASTER_PASSWORD, this.encodedSecretKey).decrypt(this.encryptedPassword);
+    }
+
+    @Benchmark
+    public String decryptPassword() {
+        return this.passwordEncryptor.decryptPassword(this.secretKey, MASTER_PASSWORD, this.encryptedPassword);
+    }
+
+    @Benchmark
+    public byte[] decryptBytes() {
+        return this.passwordEncryptor.decrypt(this.secretKey, MASTER_PASSWORD, this.encryptedPasswordBytes);
+    }
+
+    @Benchmark
+    public int decryptBuffers(final Buffers buffers) {
+        buffers.input.clear();
+        buffers.input.put(this.encryptedPasswordBytes).flip();
+        buffers.output.clear();
+
+        return this.passwordEncryptor.decrypt(this.secretKey, MASTER_PASSWORD, buffers.input, buffers.output);
+    }
+
+    @Benchmark
+    public String encryptWithSpringEncryptors() {
+        return Encryptors.text(MASTER_PASSWORD, this.encodedSecretKey).encrypt("dummyPassword");
+    }
+
+    @Benchmark
+    public byte[] encryptBytes() {
+        return this.passwordEncryptor.encrypt(this.secretKey, MASTER_PASSWORD, Utf8.encode("dummyPassword"));
+    }
+
+    @Benchmark
+    public String roundTripWithSpringEncryptors() {
+        final String encrypted = Encryptors.text(MASTER_PASSWORD, this.encodedSecretKey).encrypt("dummyPassword");
+        return Encryptors.text(MASTER_PASSWORD, this.encodedSecretKey).decrypt(encrypted);
+    }
+
+    @Benchmark
+    public String roundTrip() {
+        final String encrypted = this.passwordEncryptor.encryptPassword(this.secretKey, MASTER_PASSWORD, "dummyPassword");
+        return this.passwordEncryptor.decryptPassword(this.secretKey, MASTER_PASSWORD, encrypted);
+    }
+}
@@ -0,0 +1,153 @@
+package io.eion.security.passkeeper.benchmark;
+
+import io.eion.security.passkeeper.service.SecureAccountService;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the HTTP API with 64 concurrent connections against a small pool of Tomcat request threads, in
+ * both executor modes: request-thread holds a request thread for the whole service call, executor hands the call
+ * to the crypto executor and releases the request thread. Every connection reads an account of its own user.
+ * <p>
+ * Besides the overall throughput, the secondary results break the responses down by status, unavailable being the
+ * 503 responses of a saturated crypto executor. All connections come from one address, so the rate limiter is
+ * switched off:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="RequestHandlingBenchmark"
+ * </pre>
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(RequestHandlingBenchmark.CONNECTIONS)
+public class RequestHandlingBenchmark {
+
+    static final int CONNECTIONS = 64;
+
+    private static final String MASTER_PASSWORD = "masterPassword";
+
+    @Param({"request-thread", "executor"})
+    private String mode;
+
+    @Param({"8"})
+    private int requestThreads;
+
+    private BenchmarkContext benchmarkContext;
+
+    private String baseUrl;
+
+    private int threadIndex;
+
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        this.benchmarkContext = new BenchmarkContext(
+                "server.port=0",
+                "server.ssl.enabled=false",
+                "server.tomcat.max-threads=" + this.requestThreads,
+                "security.executor.mode=" + this.mode,
+                "security.ratelimit.enabled=false");
+        this.baseUrl = "http://localhost:" + this.benchmarkContext.getProperty("local.server.port") + "/secure/users/";
+
+        final SecureAccountService secureAccountService = this.benchmarkContext.getBean(SecureAccountService.class);
+
+        for (int i = 0; i < CONNECTIONS; i++) {
+            secureAccountService.createUser(createUsername(i), MASTER_PASSWORD);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        this.benchmarkContext.close();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Connection {
+
+        private URL accountUrl;
+
+        public int ok;
+
+        public int unavailable;
+
+        public int failed;
+
+        @Setup(Level.Trial)
+        public void createUrl(final RequestHandlingBenchmark benchmark) throws IOException {
+            final int userIndex;
+
+            synchronized (benchmark) {
+                userIndex = benchmark.threadIndex++;
+            }
+
+            this.accountUrl = new URL(benchmark.baseUrl + createUsername(userIndex) + "/accounts/default");
+        }
+
+        @Setup(Level.Iteration)
+        public void resetCounters() {
+            this.ok = 0;
+            this.unavailable = 0;
+            this.failed = 0;
+        }
+    }
+
+    @Benchmark
+    public int getSecureAccount(final Connection connection, final Blackhole blackhole) throws IOException {
+
+        final HttpURLConnection urlConnection = (HttpURLConnection) connection.accountUrl.openConnection();
+        urlConnection.setRequestProperty("x-pk-master-password", MASTER_PASSWORD);
+
+        final int status = urlConnection.getResponseCode();
+
+        // drain the body so the connection is kept alive
+        try (InputStream body = status < 400 ? urlConnection.getInputStream() : urlConnection.getErrorStream()) {
+            if (body != null) {
+                final byte[] buffer = new byte[1024];
+
+                for (int read = body.read(buffer); read != -1; read = body.read(buffer)) {
+                    blackhole.consume(read);
+                }
+            }
+        }
+
+        if (status == HttpURLConnection.HTTP_OK) {
+            connection.ok++;
+        } else if (status == HttpURLConnection.HTTP_UNAVAILABLE) {
+            connection.unavailable++;
+        } else {
+            connection.failed++;
+        }
+
+        return status;
+    }
+
+    private static String createUsername(final int userIndex) {
+        return "benchmark-" + userIndex;
+    }
+}
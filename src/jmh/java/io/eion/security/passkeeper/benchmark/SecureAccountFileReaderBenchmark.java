@@ -0,0 +1,113 @@
+package io.eion.security.passkeeper.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.util.SecureAccountFileReader;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading an account file into a String before parsing it with the memory mapped streaming reader,
+ * both for loading every account and for looking up a single alias in the middle of the file.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SecureAccountFileReaderBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    private int aliases;
+
+    private final Gson gson = new Gson();
+
+    private final SecureAccountFileReader secureAccountFileReader = new SecureAccountFileReader(this.gson);
+
+    private File secureAccountFile;
+
+    private String lookupAlias;
+
+
+    @Setup(Level.Trial)
+    public void createSecureAccountFile() throws Exception {
+
+        final Map<String, SecureAccount> secureAccounts = new HashMap<>();
+
+        for (int i = 0; i < this.aliases; i++) {
+            final String accountAlias = "account-" + i;
+            secureAccounts.put(accountAlias, SecureAccount.builder()
+                    .accountAlias(accountAlias)
+                    .accountUsername("user-" + i + "@gmail.com")
+                    .encryptedPassword("a1f0e2d3c4b5a69788796a5b4c3d2e1f00112233445566778899aabbccddeeff").build());
+        }
+
+        this.lookupAlias = "account-" + this.aliases / 2;
+        this.secureAccountFile = File.createTempFile("benchmark", ".account");
+        Files.write(this.secureAccountFile.toPath(), this.gson.toJson(secureAccounts).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteSecureAccountFile() {
+        this.secureAccountFile.delete();
+    }
+
+    @Benchmark
+    public Map<String, SecureAccount> readAllFromString() throws Exception {
+        return this.readFromString();
+    }
+
+    @Benchmark
+    public Map<String, SecureAccount> readAllMapped() throws Exception {
+        return this.secureAccountFileReader.readSecureAccounts(this.secureAccountFile);
+    }
+
+    @Benchmark
+    public SecureAccount lookupFromString() throws Exception {
+        return this.readFromString().get(this.lookupAlias);
+    }
+
+    @Benchmark
+    public Optional<SecureAccount> lookupMapped() throws Exception {
+        return this.secureAccountFileReader.findSecureAccount(this.secureAccountFile, this.lookupAlias);
+    }
+
+    /**
+     * The read path of DefaultSecureAccountStore before the streaming reader.
+     */
+    private Map<String, SecureAccount> readFromString() throws Exception {
+
+        try (final InputStream is = new FileSystemResource(this.secureAccountFile).getInputStream()) {
+            final String secureAccountJSON = IOUtils.toString(is);
+            final Type mapType = new TypeToken<Map<String, SecureAccount>>() { }.getType();
+            return this.gson.fromJson(secureAccountJSON, mapType);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package io.eion.security.passkeeper.benchmark;
+
+import io.eion.security.passkeeper.service.SecureAccountService;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End to end account lookup through the SecureAccountService proxy, i.e. the SynchronizedServiceAspect locking,
+ * the KeyStore, the account store and the decryption, under 1, 8 and 64 threads. The threads either share a
+ * single user or each use their own, to tell lock contention apart from the cost of the work itself.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SecureAccountServiceBenchmark {
+
+    private static final String MASTER_PASSWORD = "masterPassword";
+
+    private static final int MAX_THREADS = 64;
+
+    @Param({"1", "64"})
+    private int users;
+
+    private BenchmarkContext benchmarkContext;
+
+    private SecureAccountService secureAccountService;
+
+    private final AtomicInteger threadIndex = new AtomicInteger();
+
+
+    @Setup(Level.Trial)
+    public void createUsers() throws Exception {
+        this.benchmarkContext = new BenchmarkContext();
+        this.secureAccountService = this.benchmarkContext.getBean(SecureAccountService.class);
+
+        for (int i = 0; i < this.users; i++) {
+            this.secureAccountService.createUser(createUsername(i), MASTER_PASSWORD);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        this.benchmarkContext.close();
+    }
+
+    @State(Scope.Thread)
+    public static class UserRequest {
+
+        private SecureAccountRequest secureAccountRequest;
+
+        @Setup(Level.Trial)
+        public void createRequest(final SecureAccountServiceBenchmark benchmark) {
+            final int userIndex = benchmark.threadIndex.getAndIncrement() % Math.min(benchmark.users, MAX_THREADS);
+
+            this.secureAccountRequest = SecureAccountRequest.builder()
+                    .username(createUsername(userIndex))
+                    .masterPassword(MASTER_PASSWORD)
+                    .accountAlias("default").build();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Optional<SecureAccount> getSecureAccount1Thread(final UserRequest userRequest) {
+        return this.secureAccountService.getSecureAccount(userRequest.secureAccountRequest);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Optional<SecureAccount> getSecureAccount8Threads(final UserRequest userRequest) {
+        return this.secureAccountService.getSecureAccount(userRequest.secureAccountRequest);
+    }
+
+    @Benchmark
+    @Threads(MAX_THREADS)
+    public Optional<SecureAccount> getSecureAccount64Threads(final UserRequest userRequest) {
+        return this.secureAccountService.getSecureAccount(userRequest.secureAccountRequest);
+    }
+
+    private static String createUsername(final int userIndex) {
+        return "benchmark-" + userIndex;
+    }
+}
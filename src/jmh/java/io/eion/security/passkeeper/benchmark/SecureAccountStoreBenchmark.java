@@ -0,0 +1,91 @@
+package io.eion.security.passkeeper.benchmark;
+
+import io.eion.security.passkeeper.service.SecureAccountStore;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up and overwriting a random account of a user holding a given number of accounts, for every
+ * secure account store implementation.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SecureAccountStoreBenchmark {
+
+    private static final String USER_NAME = "benchmark";
+
+    private static final String ENCRYPTED_PASSWORD = "a1f0e2d3c4b5a69788796a5b4c3d2e1f00112233445566778899aabbccddeeff";
+
+    @Param({"default", "log", "single-file"})
+    private String store;
+
+    @Param({"10", "1000", "10000"})
+    private int accounts;
+
+    private BenchmarkContext benchmarkContext;
+
+    private SecureAccountStore secureAccountStore;
+
+
+    @Setup(Level.Trial)
+    public void createSecureAccounts() throws Exception {
+        this.benchmarkContext = new BenchmarkContext("security.account.store=" + this.store);
+        this.secureAccountStore = this.benchmarkContext.getBean(SecureAccountStore.class);
+
+        for (int i = 0; i < this.accounts; i++) {
+            this.secureAccountStore.storeSecureAccount(this.createSecureAccount("account-" + i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        this.benchmarkContext.close();
+    }
+
+    @Benchmark
+    public Optional<SecureAccount> getSecureAccount() throws Exception {
+        return this.secureAccountStore.getSecureAccount(SecureAccountRequest.builder()
+                .username(USER_NAME)
+                .accountAlias(this.randomAlias()).build());
+    }
+
+    @Benchmark
+    public void storeSecureAccount() throws Exception {
+        this.secureAccountStore.storeSecureAccount(this.createSecureAccount(this.randomAlias()));
+    }
+
+    private String randomAlias() {
+        return "account-" + ThreadLocalRandom.current().nextInt(this.accounts);
+    }
+
+    private SecureAccount createSecureAccount(final String accountAlias) {
+        return SecureAccount.builder()
+                .username(USER_NAME)
+                .accountAlias(accountAlias)
+                .accountUsername("dummy@gmail.com")
+                .encryptedPassword(ENCRYPTED_PASSWORD).build();
+    }
+}
@@ -0,0 +1,80 @@
+package io.eion.security.passkeeper.benchmark;
+
+import io.eion.security.passkeeper.service.SecureAccountService;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of the stage timers: the same service calls with security.metrics.stages.enabled on and off.
+ * authenticateUser is answered by the verifiers in microseconds, which is where timing costs the most relative
+ * to the work.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(4)
+@Fork(1)
+public class StageTimersBenchmark {
+
+    private static final String USERNAME = "benchmark";
+
+    private static final String MASTER_PASSWORD = "masterPassword";
+
+    @Param({"true", "false"})
+    private boolean stages;
+
+    private BenchmarkContext benchmarkContext;
+
+    private SecureAccountService secureAccountService;
+
+    private SecureAccountRequest secureAccountRequest;
+
+
+    @Setup(Level.Trial)
+    public void createUser() throws Exception {
+        this.benchmarkContext = new BenchmarkContext("security.metrics.stages.enabled=" + this.stages);
+        this.secureAccountService = this.benchmarkContext.getBean(SecureAccountService.class);
+        this.secureAccountService.createUser(USERNAME, MASTER_PASSWORD);
+
+        this.secureAccountRequest = SecureAccountRequest.builder()
+                .username(USERNAME)
+                .masterPassword(MASTER_PASSWORD)
+                .accountAlias("default").build();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        this.benchmarkContext.close();
+    }
+
+    @Benchmark
+    public Optional<SecureAccount> getSecureAccount() {
+        return this.secureAccountService.getSecureAccount(this.secureAccountRequest);
+    }
+
+    @Benchmark
+    public boolean authenticateUser() {
+        return this.secureAccountService.authenticateUser(USERNAME, MASTER_PASSWORD);
+    }
+}
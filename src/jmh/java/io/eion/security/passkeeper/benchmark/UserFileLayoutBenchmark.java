@@ -0,0 +1,99 @@
+package io.eion.security.passkeeper.benchmark;
+
+import io.eion.security.passkeeper.service.DefaultKeystoreManager;
+import io.eion.security.passkeeper.service.storage.UserFileLayout;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Latency of looking up and opening a user's KeyStore file against the number of users in the keystore location,
+ * in the flat and the fan-out layout. Looking up a user that doesn't exist is what every user creation does.
+ * <p>
+ * Directory caches hide most of the difference once the directories are hot, drop the page cache between runs
+ * (echo 3 > /proc/sys/vm/drop_caches) to see the cold numbers.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UserFileLayoutBenchmark {
+
+    @Param({"1000", "100000"})
+    private int users;
+
+    @Param({"FLAT", "FANOUT"})
+    private UserFileLayout.Layout layout;
+
+    private File root;
+
+    private UserFileLayout userFileLayout;
+
+
+    @Setup(Level.Trial)
+    public void createFiles() throws Exception {
+        this.root = Files.createTempDirectory("layout-benchmark").toFile();
+        this.userFileLayout = new UserFileLayout(this.root, this.layout);
+
+        for (int i = 0; i < this.users; i++) {
+            this.userFileLayout.getFile(username(i), DefaultKeystoreManager.KEYSTORE_EXT).createNewFile();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws Exception {
+
+        try (Stream<Path> paths = Files.walk(this.root.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public boolean exists() {
+        return this.userFileLayout.getFile(this.randomUsername(), DefaultKeystoreManager.KEYSTORE_EXT).exists();
+    }
+
+    @Benchmark
+    public boolean existsMissing() {
+        return this.userFileLayout.getFile("missing-" + this.randomUsername(), DefaultKeystoreManager.KEYSTORE_EXT).exists();
+    }
+
+    @Benchmark
+    public int open() throws Exception {
+
+        try (FileInputStream stream = new FileInputStream(this.userFileLayout.getFile(this.randomUsername(), DefaultKeystoreManager.KEYSTORE_EXT))) {
+            return stream.read();
+        }
+    }
+
+    private String randomUsername() {
+        return username(ThreadLocalRandom.current().nextInt(this.users));
+    }
+
+    private static String username(final int i) {
+        return "user-" + i;
+    }
+}
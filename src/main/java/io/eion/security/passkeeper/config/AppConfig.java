@@ -1,6 +1,14 @@
 package io.eion.security.passkeeper.config;
 
 import com.google.gson.Gson;
+import io.eion.security.passkeeper.service.concurrent.InstrumentedExecutor;
+import io.eion.security.passkeeper.service.storage.DurableFileWriter;
+import io.eion.security.passkeeper.service.storage.UserFileLayout;
+import io.eion.security.passkeeper.service.storage.UsernameFilter;
+import io.eion.security.passkeeper.service.storage.VaultFile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
@@ -8,6 +16,10 @@ import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
 /**
  * Created by vagrant on 9/14/16.
  */
@@ -16,9 +28,41 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 @EnableAspectJAutoProxy(proxyTargetClass = true)
 public class AppConfig {
 
+    /**
+     * Runs the write-behind flushes, log compactions, idle evictions and mark delete timers. More than one
+     * thread keeps a slow flush or compaction from holding up the others.
+     */
     @Bean
-    public TaskScheduler taskScheduler() {
-        return new ThreadPoolTaskScheduler();
+    public TaskScheduler taskScheduler(@Value("${security.scheduler.pool.size}") final int poolSize) {
+
+        final ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setPoolSize(poolSize);
+        taskScheduler.setThreadNamePrefix("scheduler-");
+
+        return taskScheduler;
+    }
+
+    /**
+     * Runs the calls of the AsyncSecureAccountService, i.e. KeyStore loads, key derivation and file I/O, off the
+     * request threads.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public InstrumentedExecutor cryptoExecutor(@Value("${security.executor.pool.size}") final int poolSize,
+                                               @Value("${security.executor.queue.capacity}") final int queueCapacity) {
+
+        return new InstrumentedExecutor("crypto", poolSize, queueCapacity);
+    }
+
+    /**
+     * Runs the helpers that decrypt and encrypt the accounts of batch calls next to the calling thread. Kept apart
+     * from the cryptoExecutor so large batches can't fill its queue and get single calls rejected, a rejected
+     * helper only leaves its share to the caller.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public InstrumentedExecutor batchExecutor(@Value("${security.executor.batch.pool.size}") final int poolSize,
+                                              @Value("${security.executor.batch.queue.capacity}") final int queueCapacity) {
+
+        return new InstrumentedExecutor("batch", poolSize, queueCapacity);
     }
 
     @Bean
@@ -26,4 +70,51 @@ public class AppConfig {
         return new Gson();
     }
 
+    /**
+     * Where the files of a user live under the keystore location when keystores or secure accounts are kept in
+     * a file per user.
+     */
+    @Bean
+    public UserFileLayout userFileLayout(@Value("${security.keystore.location}") final String keystoreLocation,
+                                         @Value("${security.keystore.layout}") final String layout) {
+
+        return new UserFileLayout(new File(keystoreLocation), UserFileLayout.Layout.valueOf(layout.toUpperCase(Locale.ROOT)));
+    }
+
+    /**
+     * Usernames that have a KeyStore file, lets lookups of unknown users skip the file system.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "security.keystore.store", havingValue = "default", matchIfMissing = true)
+    public UsernameFilter usernameFilter(@Value("${security.keystore.filter.expected-users}") final int expectedUsers,
+                                         @Value("${security.keystore.filter.false-positive-rate}") final double falsePositiveRate) {
+
+        return new UsernameFilter(expectedUsers, falsePositiveRate);
+    }
+
+    /**
+     * Replaces KeyStore and account files atomically, fsyncs them according to security.storage.file.sync.
+     */
+    @Bean(destroyMethod = "close")
+    public DurableFileWriter durableFileWriter(@Value("${security.storage.file.sync}") final String syncMode,
+                                               @Value("${security.storage.file.sync.window}") final long groupWindow) {
+
+        return new DurableFileWriter(DurableFileWriter.SyncMode.valueOf(syncMode.toUpperCase(Locale.ROOT)), groupWindow);
+    }
+
+    /**
+     * Shared vault file used when keystores or secure accounts are kept in a single file.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnExpression("'${security.keystore.store}' == 'single-file' or '${security.account.store}' == 'single-file'")
+    public VaultFile vaultFile(@Value("${security.storage.file}") final String storageFile,
+                               @Value("${security.storage.sync}") final boolean sync,
+                               @Value("${security.storage.compaction.threshold}") final double compactionThreshold) throws IOException {
+
+        final File vaultFile = new File(storageFile);
+        vaultFile.getParentFile().mkdirs();
+
+        return new VaultFile(vaultFile, sync, compactionThreshold);
+    }
+
 }
@@ -1,13 +1,12 @@
 package io.eion.security.passkeeper.config;
 
-import io.eion.security.passkeeper.service.SecureAccountService;
-import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.MasterRegistrationQueue;
+import io.eion.security.passkeeper.service.MasterRegistry;
 import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
 import io.eion.security.passkeeper.service.event.UserCreationEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
@@ -20,44 +19,40 @@ public class MasterKeyStoreListener {
 
     private static final Logger logger = LoggerFactory.getLogger(MasterKeyStoreListener.class);
 
-    private final SecureAccountService secureAccountService;
+    private final MasterRegistry masterRegistry;
 
-    @Value("${security.master.username}")
-    private String username;
+    private final MasterRegistrationQueue masterRegistrationQueue;
 
-    @Value("${security.master.password}")
-    private String password;
 
-
-    public MasterKeyStoreListener(@Autowired final SecureAccountService secureAccountService) {
-        this.secureAccountService = secureAccountService;
+    public MasterKeyStoreListener(@Autowired final MasterRegistry masterRegistry,
+                                  @Autowired final MasterRegistrationQueue masterRegistrationQueue) {
+        this.masterRegistry = masterRegistry;
+        this.masterRegistrationQueue = masterRegistrationQueue;
     }
 
     @EventListener(ContextRefreshedEvent.class)
     public void provision(final ContextRefreshedEvent event) {
 
         try {
-            this.secureAccountService.createUser(this.username, this.password);
+            this.masterRegistry.provision();
         } catch (Exception e) {
-            // ignored
+            logger.error("Unable to provision the master shards, users are only queued until restart: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Only queues the registration, see MasterRegistrationQueue, so creating a user doesn't wait for the master.
+     */
     @EventListener(UserCreationEvent.class)
     public void storeUser(final UserCreationEvent userCreationEvent) {
 
         final SecureAccountRequest createdUserAccountRequest = userCreationEvent.getSecureAccountRequest();
-        logger.info("Adding user [{}] to master", createdUserAccountRequest.getUsername());
-
 
-        SecureAccountRequest masterAccountRequest = SecureAccountRequest.builder()
-                .username(this.username)
-                .masterPassword(this.password)
-                .accountAlias(createdUserAccountRequest.getUsername())
-                .accountUsername(createdUserAccountRequest.getUsername())
-                .password(createdUserAccountRequest.getMasterPassword()).build();
+        if (this.masterRegistry.isRegistryUser(createdUserAccountRequest.getUsername())) {
+            return;
+        }
 
-        final SecureAccount secureAccount = this.secureAccountService.createSecureAccount(masterAccountRequest);
-        logger.info("User [{}] is added to master", secureAccount.getAccountAlias());
+        this.masterRegistrationQueue.register(createdUserAccountRequest);
+        logger.info("Queued user [{}] to be added to master", createdUserAccountRequest.getUsername());
     }
 }
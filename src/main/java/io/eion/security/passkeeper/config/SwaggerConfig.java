@@ -2,6 +2,7 @@ package io.eion.security.passkeeper.config;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.request.async.DeferredResult;
 import springfox.documentation.builders.PathSelectors;
 import springfox.documentation.builders.RequestHandlerSelectors;
 import springfox.documentation.service.ApiInfo;
@@ -24,6 +25,7 @@ public class SwaggerConfig {
                 .apis(RequestHandlerSelectors.basePackage("io.eion.security.passkeeper.web"))
                 .paths(PathSelectors.any())
                 .build()
+                .genericModelSubstitutes(DeferredResult.class)
                 .apiInfo(this.apiInfo());
     }
 
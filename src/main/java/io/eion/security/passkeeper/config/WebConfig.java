@@ -1,8 +1,11 @@
 package io.eion.security.passkeeper.config;
 
+import io.eion.security.passkeeper.web.ratelimit.RateLimitInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 
@@ -12,6 +15,10 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter
 @Configuration
 public class WebConfig {
 
+    @Autowired
+    private RateLimitInterceptor rateLimitInterceptor;
+
+
     @Bean
     public WebMvcConfigurer corsConfigurer() {
         return new WebMvcConfigurerAdapter() {
@@ -19,6 +26,11 @@ public class WebConfig {
             public void addCorsMappings(final CorsRegistry registry) {
                 registry.addMapping("/**");
             }
+
+            @Override
+            public void addInterceptors(final InterceptorRegistry registry) {
+                registry.addInterceptor(WebConfig.this.rateLimitInterceptor).addPathPatterns("/secure/**");
+            }
         };
     }
 }
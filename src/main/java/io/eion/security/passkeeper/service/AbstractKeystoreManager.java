@@ -0,0 +1,237 @@
+package io.eion.security.passkeeper.service;
+
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.cache.KeyStoreCache;
+import io.eion.security.passkeeper.service.exception.InvalidMasterPasswordException;
+import io.eion.security.passkeeper.service.exception.SecureAccountException;
+import io.eion.security.passkeeper.service.exception.SecureAccountNotFoundException;
+import io.eion.security.passkeeper.service.metrics.StageTimers;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.util.Assert;
+import org.springframework.util.StreamUtils;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.UnrecoverableKeyException;
+import java.util.Optional;
+
+/**
+ * KeyStore handling shared by the KeystoreManager implementations, subclasses only decide where the
+ * serialized JCEKS KeyStore of a user lives.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public abstract class AbstractKeystoreManager implements KeystoreManager {
+
+    @Autowired
+    private KeyStoreCache keyStoreCache;
+
+    @Autowired
+    private StageTimers stageTimers;
+
+    /**
+     * Creates KeyStore using username as the file name and master password as the store password.
+     *
+     * @param secureAccountRequest
+     * @return
+     * @throws Exception
+     */
+    @Override
+    public KeyStore createKeyStore(final SecureAccountRequest secureAccountRequest) throws Exception {
+        Assert.notNull(secureAccountRequest);
+        Assert.notNull(secureAccountRequest.getUsername());
+        Assert.notNull(secureAccountRequest.getMasterPassword());
+
+        final String username = secureAccountRequest.getUsername();
+
+        if (this.keyStoreExists(username)) {
+            throw new SecureAccountException("User already exists: " + username);
+        }
+
+        final KeyStore keyStore = KeyStore.getInstance("JCEKS");
+        keyStore.load(null, null);
+        this.timedWriteKeyStore(username, keyStore, secureAccountRequest.getMasterPassword().toCharArray());
+
+        final long generation = this.keyStoreCache.invalidate(username);
+        this.keyStoreCache.put(username, secureAccountRequest.getMasterPassword(), keyStore, generation);
+        return keyStore;
+    }
+
+    /**
+     * Loads KeyStore using username and master password. Unlocked KeyStore is served from cache when
+     * the same master password has been used to load it recently, as a copy of its own the caller may change
+     * until it saves it. The KeyStore is read into memory before it is
+     * loaded, so the I/O and the key derivation that checks the master password are timed as separate stages.
+     *
+     * @param secureAccountRequest
+     * @return
+     * @throws InvalidMasterPasswordException if the master password doesn't unlock the KeyStore
+     * @throws Exception
+     */
+    @Override
+    public KeyStore getKeyStore(final SecureAccountRequest secureAccountRequest) throws Exception {
+        Assert.notNull(secureAccountRequest);
+        Assert.notNull(secureAccountRequest.getUsername());
+        Assert.notNull(secureAccountRequest.getMasterPassword());
+
+        final String username = secureAccountRequest.getUsername();
+        final Optional<KeyStore> cachedKeyStore = this.keyStoreCache.get(username, secureAccountRequest.getMasterPassword());
+
+        if (cachedKeyStore.isPresent()) {
+            return cachedKeyStore.get();
+        }
+
+        // read before the file, a save in between fails the put below instead of being overwritten by it
+        final long generation = this.keyStoreCache.getGeneration(username);
+
+        if (!this.keyStoreExists(username)) {
+            throw new SecureAccountNotFoundException("User does not exist: " + username);
+        }
+
+        long start = this.stageTimers.start();
+        final byte[] keyStoreBytes;
+
+        try (final InputStream is = this.readKeyStore(username)) {
+            keyStoreBytes = StreamUtils.copyToByteArray(is);
+        }
+
+        this.stageTimers.stop(StageTimers.KEYSTORE_READ, start);
+        start = this.stageTimers.start();
+
+        final KeyStore keyStore = KeyStore.getInstance("JCEKS");
+        final char[] masterPasswordArr = secureAccountRequest.getMasterPassword().toCharArray();
+
+        try {
+            keyStore.load(new ByteArrayInputStream(keyStoreBytes), masterPasswordArr);
+
+        } catch (IOException e) {
+            if (e.getCause() instanceof UnrecoverableKeyException) {
+                throw new InvalidMasterPasswordException("Invalid master password of user: " + username, e);
+            }
+
+            throw e;
+        }
+
+        this.stageTimers.stop(StageTimers.KEYSTORE_LOAD, start);
+
+        this.keyStoreCache.put(username, secureAccountRequest.getMasterPassword(), keyStore, generation);
+        return keyStore;
+    }
+
+    @Override
+    public void saveKeyStore(final SecureAccountRequest secureAccountRequest, final KeyStore keyStore) throws Exception {
+        Assert.notNull(secureAccountRequest);
+        Assert.notNull(secureAccountRequest.getUsername());
+        Assert.notNull(keyStore);
+
+        final String username = secureAccountRequest.getUsername();
+        this.keyStoreCache.invalidate(username);
+
+        this.timedWriteKeyStore(username, keyStore, secureAccountRequest.getMasterPassword().toCharArray());
+
+        // readers that read the file before it was replaced hold an older generation now
+        final long generation = this.keyStoreCache.invalidate(username);
+        this.keyStoreCache.put(username, secureAccountRequest.getMasterPassword(), keyStore, generation);
+    }
+
+    @Override
+    public void deleteKeyStore(final SecureAccountRequest secureAccountRequest) throws Exception {
+
+        this.getKeyStore(secureAccountRequest);
+        final String username = secureAccountRequest.getUsername();
+        this.keyStoreCache.invalidate(username);
+
+        final boolean deleted = this.removeKeyStore(username);
+
+        if (!deleted) {
+            throw new SecureAccountException("Delete user failed: " + username);
+        }
+    }
+
+    @Override
+    public boolean purgeKeyStore(final String username) throws Exception {
+        Assert.notNull(username);
+
+        this.keyStoreCache.invalidate(username);
+        return this.keyStoreExists(username) && this.removeKeyStore(username);
+    }
+
+    @Override
+    public boolean hasKeyStore(final String username) throws Exception {
+        Assert.notNull(username);
+        return this.keyStoreExists(username);
+    }
+
+    @Override
+    public void evictKeyStore(final String username) {
+        this.keyStoreCache.invalidate(username);
+    }
+
+    /**
+     * Load or create a secret key for an user on a given account alias found in SecureAccountRequest.
+     * The raw key bytes are returned and used as salt as is, they used to be hex encoded and decoded again by
+     * the encryptor.
+     *
+     * @param secureAccountRequest
+     * @return
+     * @throws Exception
+     */
+    @Override
+    public byte[] getSecretKey(final KeyStore keyStore, final SecureAccountRequest secureAccountRequest) throws Exception {
+
+        final Optional<byte[]> secretKey = this.findSecretKey(keyStore, secureAccountRequest);
+
+        if (secretKey.isPresent()) {
+            return secretKey.get();
+        }
+
+        final byte[] createdSecretKey = this.createSecretKey(keyStore, secureAccountRequest);
+        this.saveKeyStore(secureAccountRequest, keyStore);
+
+        return createdSecretKey;
+    }
+
+    @Override
+    public Optional<byte[]> findSecretKey(final KeyStore keyStore, final SecureAccountRequest secureAccountRequest) throws Exception {
+        Assert.notNull(keyStore);
+        Assert.notNull(secureAccountRequest);
+
+        final long start = this.stageTimers.start();
+        final KeyStore.PasswordProtection keyPassword = new KeyStore.PasswordProtection(secureAccountRequest.getMasterPassword().toCharArray());
+        final KeyStore.Entry secretKeyEntry = keyStore.getEntry(secureAccountRequest.getAccountAlias(), keyPassword);
+        this.stageTimers.stop(StageTimers.KEYSTORE_KEY, start);
+
+        return Optional.ofNullable(secretKeyEntry).map(entry -> ((KeyStore.SecretKeyEntry) entry).getSecretKey().getEncoded());
+    }
+
+    @Override
+    public byte[] createSecretKey(final KeyStore keyStore, final SecureAccountRequest secureAccountRequest) throws Exception {
+        Assert.notNull(keyStore);
+        Assert.notNull(secureAccountRequest);
+
+        final KeyStore.PasswordProtection keyPassword = new KeyStore.PasswordProtection(secureAccountRequest.getMasterPassword().toCharArray());
+        final SecretKey secretKey = KeyGenerator.getInstance("AES").generateKey();
+        keyStore.setEntry(secureAccountRequest.getAccountAlias(), new KeyStore.SecretKeyEntry(secretKey), keyPassword);
+
+        return secretKey.getEncoded();
+    }
+
+    private void timedWriteKeyStore(final String username, final KeyStore keyStore, final char[] masterPassword) throws Exception {
+
+        final long start = this.stageTimers.start();
+        this.writeKeyStore(username, keyStore, masterPassword);
+        this.stageTimers.stop(StageTimers.KEYSTORE_WRITE, start);
+    }
+
+    protected abstract boolean keyStoreExists(String username) throws Exception;
+
+    protected abstract InputStream readKeyStore(String username) throws Exception;
+
+    protected abstract void writeKeyStore(String username, KeyStore keyStore, char[] masterPassword) throws Exception;
+
+    protected abstract boolean removeKeyStore(String username) throws Exception;
+}
@@ -0,0 +1,43 @@
+package io.eion.security.passkeeper.service;
+
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.bean.SecureAccountResult;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking variant of SecureAccountService. Every call runs on a bounded executor so KeyStore loads, key
+ * derivation and file I/O don't hold the calling thread. A SecureAccountException thrown by the service
+ * completes the future exceptionally.
+ * <p>
+ * Every method throws a RejectedExecutionException right away when the executor is saturated.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public interface AsyncSecureAccountService {
+
+    CompletableFuture<Boolean> authenticateUser(String username, String masterPassword);
+
+    CompletableFuture<SecureAccount> createUser(String username, String masterPassword);
+
+    CompletableFuture<Void> markDeleteUser(String username, String masterPassword);
+
+    CompletableFuture<Void> deleteUser(String username, String masterPassword);
+
+    CompletableFuture<SecureAccount> createSecureAccount(SecureAccountRequest secureAccountRequest);
+
+    CompletableFuture<Optional<SecureAccount>> getSecureAccount(SecureAccountRequest secureAccountRequest);
+
+    CompletableFuture<List<SecureAccount>> getSecureAccounts(SecureAccountRequest secureAccountRequest, List<String> accountAliases);
+
+    CompletableFuture<List<String>> getSecureAccountAliases(SecureAccountRequest secureAccountRequest);
+
+    CompletableFuture<SecureAccount> updateSecureAccount(SecureAccountRequest secureAccountRequest);
+
+    CompletableFuture<List<SecureAccountResult>> updateSecureAccounts(SecureAccountRequest secureAccountRequest, List<SecureAccountRequest> secureAccountRequests);
+
+    CompletableFuture<Optional<SecureAccount>> deleteSecureAccount(SecureAccountRequest secureAccountRequest);
+}
@@ -0,0 +1,112 @@
+package io.eion.security.passkeeper.service;
+
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.bean.SecureAccountResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs every call of the SecureAccountService on the crypto executor. The calls go through the service proxy,
+ * so the user is locked by the executor thread and not by the caller.
+ * <p>
+ * With security.executor.mode=request-thread the calls run on the calling thread instead and the returned
+ * future is already completed, i.e. a request thread is held for the whole call like before the service
+ * became asynchronous. Meant to compare both modes under load.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Service
+public class DefaultAsyncSecureAccountService implements AsyncSecureAccountService {
+
+    @Autowired
+    private SecureAccountService secureAccountService;
+
+    static final String EXECUTOR_MODE = "executor";
+
+    static final String REQUEST_THREAD_MODE = "request-thread";
+
+    @Value("${security.executor.mode}")
+    private String executorMode;
+
+    @Autowired
+    @Qualifier("cryptoExecutor")
+    private Executor executor;
+
+
+    @PostConstruct
+    public void selectExecutor() {
+        Assert.isTrue(EXECUTOR_MODE.equals(this.executorMode) || REQUEST_THREAD_MODE.equals(this.executorMode),
+                "security.executor.mode must be " + EXECUTOR_MODE + " or " + REQUEST_THREAD_MODE + ": " + this.executorMode);
+
+        if (REQUEST_THREAD_MODE.equals(this.executorMode)) {
+            this.executor = Runnable::run;
+        }
+    }
+
+
+    @Override
+    public CompletableFuture<Boolean> authenticateUser(final String username, final String masterPassword) {
+        return CompletableFuture.supplyAsync(() -> this.secureAccountService.authenticateUser(username, masterPassword), this.executor);
+    }
+
+    @Override
+    public CompletableFuture<SecureAccount> createUser(final String username, final String masterPassword) {
+        return CompletableFuture.supplyAsync(() -> this.secureAccountService.createUser(username, masterPassword), this.executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> markDeleteUser(final String username, final String masterPassword) {
+        return CompletableFuture.runAsync(() -> this.secureAccountService.markDeleteUser(username, masterPassword), this.executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteUser(final String username, final String masterPassword) {
+        return CompletableFuture.runAsync(() -> this.secureAccountService.deleteUser(username, masterPassword), this.executor);
+    }
+
+    @Override
+    public CompletableFuture<SecureAccount> createSecureAccount(final SecureAccountRequest secureAccountRequest) {
+        return CompletableFuture.supplyAsync(() -> this.secureAccountService.createSecureAccount(secureAccountRequest), this.executor);
+    }
+
+    @Override
+    public CompletableFuture<Optional<SecureAccount>> getSecureAccount(final SecureAccountRequest secureAccountRequest) {
+        return CompletableFuture.supplyAsync(() -> this.secureAccountService.getSecureAccount(secureAccountRequest), this.executor);
+    }
+
+    @Override
+    public CompletableFuture<List<SecureAccount>> getSecureAccounts(final SecureAccountRequest secureAccountRequest, final List<String> accountAliases) {
+        return CompletableFuture.supplyAsync(() -> this.secureAccountService.getSecureAccounts(secureAccountRequest, accountAliases), this.executor);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getSecureAccountAliases(final SecureAccountRequest secureAccountRequest) {
+        return CompletableFuture.supplyAsync(() -> this.secureAccountService.getSecureAccountAliases(secureAccountRequest), this.executor);
+    }
+
+    @Override
+    public CompletableFuture<SecureAccount> updateSecureAccount(final SecureAccountRequest secureAccountRequest) {
+        return CompletableFuture.supplyAsync(() -> this.secureAccountService.updateSecureAccount(secureAccountRequest), this.executor);
+    }
+
+    @Override
+    public CompletableFuture<List<SecureAccountResult>> updateSecureAccounts(final SecureAccountRequest secureAccountRequest,
+                                                                             final List<SecureAccountRequest> secureAccountRequests) {
+        return CompletableFuture.supplyAsync(() -> this.secureAccountService.updateSecureAccounts(secureAccountRequest, secureAccountRequests), this.executor);
+    }
+
+    @Override
+    public CompletableFuture<Optional<SecureAccount>> deleteSecureAccount(final SecureAccountRequest secureAccountRequest) {
+        return CompletableFuture.supplyAsync(() -> this.secureAccountService.deleteSecureAccount(secureAccountRequest), this.executor);
+    }
+}
@@ -1,152 +1,140 @@
 package io.eion.security.passkeeper.service;
 
 import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
-import io.eion.security.passkeeper.service.exception.SecureAccountException;
-import io.eion.security.passkeeper.service.exception.SecureAccountNotFoundException;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.security.crypto.codec.Hex;
+import io.eion.security.passkeeper.service.storage.DurableFileWriter;
+import io.eion.security.passkeeper.service.storage.UserFileLayout;
+import io.eion.security.passkeeper.service.storage.UsernameFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
-import javax.crypto.KeyGenerator;
-import javax.crypto.SecretKey;
+import javax.annotation.PostConstruct;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.KeyStore;
+import java.util.stream.Stream;
 
 /**
+ * Keeps the KeyStore of every user in its own JCEKS file under security.keystore.location, see UserFileLayout.
+ * <p>
+ * A KeyStore is written to a temporary file that is renamed over the previous one, so a reader that doesn't
+ * hold the lock of the user, or a restart after a crash, loads either the old or the new KeyStore, never a
+ * partially written one, see DurableFileWriter.
+ * <p>
+ * The usernames that have a KeyStore file are kept in a UsernameFilter, which is built by walking the keystore
+ * location on startup, so a lookup of a user that doesn't exist doesn't need to hit the file system.
+ *
  * @author <a href="joelin@digitalriver.com">Joe Lin</a>
  */
 @Service
-public class DefaultKeystoreManager implements KeystoreManager {
+@ConditionalOnProperty(name = "security.keystore.store", havingValue = "default", matchIfMissing = true)
+public class DefaultKeystoreManager extends AbstractKeystoreManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(DefaultKeystoreManager.class);
 
     public static final String KEYSTORE_EXT = ".jceks";
 
-    @Value("${security.keystore.location}")
-    private String keystoreLocation;
+    @Autowired
+    private UserFileLayout userFileLayout;
 
+    @Autowired
+    private DurableFileWriter durableFileWriter;
 
-    /**
-     * Creates KeyStore using username as the file name and master password as the store password.
-     *
-     * @param secureAccountRequest
-     * @return
-     * @throws Exception
-     */
-    @Override
-    public KeyStore createKeyStore(final SecureAccountRequest secureAccountRequest) throws Exception {
-        Assert.notNull(secureAccountRequest);
-        Assert.notNull(secureAccountRequest.getUsername());
-        Assert.notNull(secureAccountRequest.getMasterPassword());
+    @Autowired
+    private UsernameFilter usernameFilter;
 
-        final String username = secureAccountRequest.getUsername();
-        final File keyStoreFile = this.createKeyStoreFile(username);
 
-        if (keyStoreFile.exists()) {
-            throw new SecureAccountException("User already exists: " + username);
+    @PostConstruct
+    public void loadUsernames() throws IOException {
+
+        if (!this.usernameFilter.isEnabled() || !this.userFileLayout.getRoot().isDirectory()) {
+            return;
         }
 
-        final KeyStore keyStore = KeyStore.getInstance("JCEKS");
-        final char[] masterPasswordArr = secureAccountRequest.getMasterPassword().toCharArray();
-        try (final FileOutputStream fos = new FileOutputStream(keyStoreFile)) {
-            keyStore.load(null, null);
-            keyStore.store(fos, masterPasswordArr);
+        final long start = System.currentTimeMillis();
+        int users = 0;
+
+        try (Stream<Path> paths = Files.walk(this.userFileLayout.getRoot().toPath(), UserFileLayout.FANOUT_DEPTH)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                final String fileName = path.getFileName().toString();
+
+                if (fileName.endsWith(KEYSTORE_EXT) && Files.isRegularFile(path)) {
+                    this.usernameFilter.add(fileName.substring(0, fileName.length() - KEYSTORE_EXT.length()));
+                    users++;
+                }
+            }
         }
 
-        return keyStore;
+        logger.info("Loaded {} usernames into the username filter in {} ms", users, System.currentTimeMillis() - start);
     }
 
     /**
-     * Loads KeyStore using username and master password.
-     *
-     * @param secureAccountRequest
-     * @return
-     * @throws Exception
+     * The user is added to the UsernameFilter before its KeyStore file is written, so a concurrent lookup never
+     * misses a file that exists, and removed again if the KeyStore can't be created.
      */
     @Override
-    public KeyStore getKeyStore(final SecureAccountRequest secureAccountRequest) throws Exception {
+    public KeyStore createKeyStore(final SecureAccountRequest secureAccountRequest) throws Exception {
         Assert.notNull(secureAccountRequest);
         Assert.notNull(secureAccountRequest.getUsername());
-        Assert.notNull(secureAccountRequest.getMasterPassword());
 
-        final String username = secureAccountRequest.getUsername();
-        final File keyStoreFile = this.createKeyStoreFile(username);
+        this.usernameFilter.add(secureAccountRequest.getUsername());
 
-        if (!keyStoreFile.exists()) {
-            throw new SecureAccountNotFoundException("User does not exist: " + username);
-        }
+        try {
+            return super.createKeyStore(secureAccountRequest);
 
-        final KeyStore keyStore = KeyStore.getInstance("JCEKS");
-        final char[] masterPasswordArr = secureAccountRequest.getMasterPassword().toCharArray();
-        try (final FileInputStream fis = new FileInputStream(keyStoreFile)) {
-            keyStore.load(fis, masterPasswordArr);
+        } catch (Exception e) {
+            this.usernameFilter.remove(secureAccountRequest.getUsername());
+            throw e;
         }
-
-        return keyStore;
     }
 
     @Override
-    public void saveKeyStore(final SecureAccountRequest secureAccountRequest, final KeyStore keyStore) throws Exception {
-        Assert.notNull(secureAccountRequest);
-        Assert.notNull(secureAccountRequest.getUsername());
-        Assert.notNull(keyStore);
+    protected boolean keyStoreExists(final String username) {
 
-        final File keyStoreFile = this.createKeyStoreFile(secureAccountRequest.getUsername());
-        try (final FileOutputStream stream = new FileOutputStream(keyStoreFile)) {
-            keyStore.store(stream, secureAccountRequest.getMasterPassword().toCharArray());
+        if (!this.usernameFilter.mightContain(username)) {
+            return false;
         }
+
+        final boolean exists = this.createKeyStoreFile(username).exists();
+
+        if (!exists) {
+            this.usernameFilter.falsePositive();
+        }
+
+        return exists;
     }
 
     @Override
-    public void deleteKeyStore(final SecureAccountRequest secureAccountRequest) throws Exception {
+    protected InputStream readKeyStore(final String username) throws Exception {
+        return new FileInputStream(this.createKeyStoreFile(username));
+    }
 
-        this.getKeyStore(secureAccountRequest);
-        final String username = secureAccountRequest.getUsername();
-        final File keyStoreFile = this.createKeyStoreFile(username);
-        final boolean deleted = keyStoreFile.delete();
+    @Override
+    protected void writeKeyStore(final String username, final KeyStore keyStore, final char[] masterPassword) throws Exception {
 
-        if (!deleted) {
-            throw new SecureAccountException("Delete user failed: " + username);
-        }
+        this.durableFileWriter.write(this.createKeyStoreFile(username), stream -> keyStore.store(stream, masterPassword));
     }
 
-    /**
-     * Load or create a secret key for an user on a given account alias found in SecureAccountRequest.
-     * <p>
-     * Reference on Base64 vs Hex encoding since we use hex encoding for secret key:
-     * http://stackoverflow.com/questions/3183841/base64-vs-hex-for-sending-binary-content-over-the-internet-in-xml-doc
-     *
-     * @param secureAccountRequest
-     * @return
-     * @throws Exception
-     */
     @Override
-    public String getSecretKey(final KeyStore keyStore, final SecureAccountRequest secureAccountRequest) throws Exception {
-
-        Assert.notNull(keyStore);
-        Assert.notNull(secureAccountRequest);
+    protected boolean removeKeyStore(final String username) {
 
-        final String masterPassword = secureAccountRequest.getMasterPassword();
-        final KeyStore.PasswordProtection keyPassword = new KeyStore.PasswordProtection(masterPassword.toCharArray());
-        final String accountAlias = secureAccountRequest.getAccountAlias();
-        KeyStore.Entry secretKeyEntry = keyStore.getEntry(accountAlias, keyPassword);
-        SecretKey secretKey;
-
-        if (secretKeyEntry == null) {
-            secretKey = KeyGenerator.getInstance("AES").generateKey();
-            secretKeyEntry = new KeyStore.SecretKeyEntry(secretKey);
-            keyStore.setEntry(secureAccountRequest.getAccountAlias(), secretKeyEntry, keyPassword);
-            this.saveKeyStore(secureAccountRequest, keyStore);
-        } else {
-            secretKey = ((KeyStore.SecretKeyEntry) secretKeyEntry).getSecretKey();
+        if (!this.createKeyStoreFile(username).delete()) {
+            return false;
         }
 
-        return new String(Hex.encode(secretKey.getEncoded()));
+        this.usernameFilter.remove(username);
+        return true;
     }
 
     private File createKeyStoreFile(final String username) {
         Assert.notNull(username);
-        return new File(this.keystoreLocation, username + KEYSTORE_EXT);
+        return this.userFileLayout.getFile(username, KEYSTORE_EXT);
     }
 }
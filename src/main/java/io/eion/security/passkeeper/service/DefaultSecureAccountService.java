@@ -1,28 +1,40 @@
 package io.eion.security.passkeeper.service;
 
+import io.eion.security.passkeeper.service.auth.UserVerifiers;
 import io.eion.security.passkeeper.service.bean.SecureAccount;
 import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.bean.SecureAccountResult;
+import io.eion.security.passkeeper.service.cache.SecureAccountSnapshots;
+import io.eion.security.passkeeper.service.concurrent.ParallelMapper;
 import io.eion.security.passkeeper.service.event.UserCreationEvent;
 import io.eion.security.passkeeper.service.exception.SecureAccountException;
+import io.eion.security.passkeeper.service.exception.SecureAccountNotFoundException;
+import io.eion.security.passkeeper.service.metrics.StageTimers;
 import io.eion.security.passkeeper.service.util.PasswordEncryptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.scheduling.TaskScheduler;
-import org.springframework.scheduling.support.PeriodicTrigger;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
 import java.security.KeyStore;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Reference to create keystore and create secret key entry:
@@ -34,6 +46,11 @@ import java.util.concurrent.TimeUnit;
  * Type of keystore to use:
  * http://stackoverflow.com/questions/11536848/keystore-type-which-one-to-use
  * <p>
+ * Reads don't take a lock, accounts are read from the SecureAccountSnapshots and their secret keys are only
+ * looked up, never created. Writers publish a new snapshot once the stores are written and delete an account
+ * from the account store before its secret key, so a reader holding an older snapshot either still finds the
+ * key or treats the account as gone.
+ * <p>
  * Created by vagrant on 9/13/16.
  */
 @Service
@@ -47,8 +64,7 @@ public class DefaultSecureAccountService implements SecureAccountService {
 
     static final String DEFAULT_PASSWORD = "password";
 
-    @Value("${security.delete.delay}")
-    private int deleteDelay;
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
 
     @Autowired
     private KeystoreManager keystoreManager;
@@ -56,27 +72,62 @@ public class DefaultSecureAccountService implements SecureAccountService {
     @Autowired
     private SecureAccountStore secureAccountStore;
 
+    @Autowired
+    private SecureAccountSnapshots secureAccountSnapshots;
+
     @Autowired
     private PasswordEncryptor passwordEncryptor;
 
     @Autowired
-    private TaskScheduler taskScheduler;
+    private PendingDeletions pendingDeletions;
 
     @Autowired
-    private ApplicationEventPublisher publisher;
+    private PurgeWorker purgeWorker;
 
-    private ConcurrentHashMap<String, ScheduledFuture> usersMarkDeleted = new ConcurrentHashMap<>();
+    @Autowired
+    private UserVerifiers userVerifiers;
 
+    /**
+     * Decrypts and encrypts the accounts of batch calls in parallel, next to the calling thread. Not the
+     * cryptoExecutor single calls are queued on, so batches don't take its queue from them.
+     */
+    @Autowired
+    @Qualifier("batchExecutor")
+    private Executor batchExecutor;
 
+    @Autowired
+    private StageTimers stageTimers;
+
+    @Autowired
+    private ApplicationEventPublisher publisher;
+
+
+    /**
+     * Checks the password against the user's verifier, the KeyStore is only loaded for users that don't have one
+     * yet, who are enrolled once the KeyStore accepts their password.
+     */
     @Override
     public boolean authenticateUser(final String username, final String masterPassword) {
 
+        if (this.pendingDeletions.isConfirmed(username)) {
+            return false;
+        }
+
+        final long start = this.stageTimers.start();
+        final Optional<Boolean> verified = this.userVerifiers.verify(username, masterPassword);
+        this.stageTimers.stop(StageTimers.VERIFY, start);
+
+        if (verified.isPresent()) {
+            return verified.get();
+        }
+
         final SecureAccountRequest secureAccountRequest = SecureAccountRequest.builder()
                 .username(username)
                 .masterPassword(masterPassword).build();
 
         try {
-            this.keystoreManager.getKeyStore(secureAccountRequest);
+            this.getKeyStore(secureAccountRequest);
+            this.userVerifiers.enroll(username, masterPassword, () -> this.isEnrollable(username));
             return true;
 
         } catch (Exception e) {
@@ -94,7 +145,11 @@ public class DefaultSecureAccountService implements SecureAccountService {
                 .accountAlias(DEFAULT_ACCOUNT)
                 .password(DEFAULT_PASSWORD).build();
         try {
+            // the files of a deleted user may not have been purged yet
+            this.purgeWorker.purge(username);
+
             final KeyStore keyStore = this.keystoreManager.createKeyStore(secureAccountRequest);
+            this.userVerifiers.enroll(username, masterPassword);
             this.addToMaster(secureAccountRequest);
             return this.createSecureAccount(secureAccountRequest);
 
@@ -109,6 +164,19 @@ public class DefaultSecureAccountService implements SecureAccountService {
         }
     }
 
+    /**
+     * A user deleted or purged since its KeyStore was loaded has had its verifier removed already, the deletion
+     * is confirmed before the verifier is removed and the KeyStore purged before it is removed again.
+     */
+    private boolean isEnrollable(final String username) {
+
+        try {
+            return !this.pendingDeletions.isConfirmed(username) && this.keystoreManager.hasKeyStore(username);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
     private void addToMaster(final SecureAccountRequest secureAccountRequest) {
         Assert.notNull(secureAccountRequest);
 
@@ -124,30 +192,18 @@ public class DefaultSecureAccountService implements SecureAccountService {
     @Override
     public void markDeleteUser(final String username, final String masterPassword) {
 
-        if (this.usersMarkDeleted.containsKey(username)) {
+        if (!this.pendingDeletions.mark(username)) {
             return;
         }
 
-        final long delay = TimeUnit.SECONDS.toMillis(this.deleteDelay);
-        final PeriodicTrigger trigger = new PeriodicTrigger(delay);
-        trigger.setInitialDelay(delay);
-
-        final ScheduledFuture<?> future = this.taskScheduler.schedule(() -> {
-            logger.info("Remove user from the mark deletion list: {}", username);
-            final ScheduledFuture retrievedFuture = this.usersMarkDeleted.remove(username);
-
-            if (retrievedFuture != null) {
-                retrievedFuture.cancel(true);
-            }
-
-        }, trigger);
-
-        this.usersMarkDeleted.putIfAbsent(username, future);
+        this.keystoreManager.evictKeyStore(username);
+        this.secureAccountSnapshots.invalidate(username);
     }
 
     /**
      * Deletes the user by first check if keystore exists, and verify the password by
-     * loading the store with the master password.
+     * loading the store with the master password. The user is gone once the deletion is confirmed, its files
+     * are removed later by the PurgeWorker.
      *
      * @param username
      * @param masterPassword
@@ -155,9 +211,7 @@ public class DefaultSecureAccountService implements SecureAccountService {
     @Override
     public void deleteUser(final String username, final String masterPassword) {
 
-        final ScheduledFuture userFuture = this.usersMarkDeleted.get(username);
-
-        if (userFuture == null) {
+        if (!this.pendingDeletions.isMarked(username)) {
             throw new SecureAccountException("You need to mark delete this user before you can actually delete the user: " + username);
         }
 
@@ -165,8 +219,15 @@ public class DefaultSecureAccountService implements SecureAccountService {
             final SecureAccountRequest secureAccountRequest = SecureAccountRequest.builder()
                     .username(username)
                     .masterPassword(masterPassword).build();
-            this.keystoreManager.deleteKeyStore(secureAccountRequest);
-            this.secureAccountStore.deleteSecureAccountStore(username);
+            this.getKeyStore(secureAccountRequest);
+
+            if (!this.pendingDeletions.confirm(username)) {
+                throw new SecureAccountException("You need to mark delete this user before you can actually delete the user: " + username);
+            }
+
+            this.userVerifiers.remove(username);
+            this.keystoreManager.evictKeyStore(username);
+            this.secureAccountSnapshots.invalidate(username);
 
         } catch (Exception e) {
             logger.error("Unexpected error while deleting user: " + e.getMessage(), e);
@@ -199,25 +260,18 @@ public class DefaultSecureAccountService implements SecureAccountService {
     public Optional<SecureAccount> getSecureAccount(final SecureAccountRequest secureAccountRequest) {
         Assert.notNull(secureAccountRequest);
 
+        if (this.pendingDeletions.isConfirmed(secureAccountRequest.getUsername())) {
+            return Optional.empty();
+        }
+
         try {
-            final Optional<SecureAccount> nullableSecureAccount = this.secureAccountStore.getSecureAccount(secureAccountRequest);
+            final Optional<SecureAccount> nullableSecureAccount = this.secureAccountSnapshots.get(secureAccountRequest.getUsername())
+                    .getSecureAccount(secureAccountRequest.getAccountAlias());
             SecureAccount secureAccount = null;
 
             if (nullableSecureAccount.isPresent()) {
-                final SecureAccount retrievedSecureAccount = nullableSecureAccount.get();
-
-                final String username = secureAccountRequest.getUsername();
-                final KeyStore keyStore = this.keystoreManager.getKeyStore(secureAccountRequest);
-                final String secretKey = this.keystoreManager.getSecretKey(keyStore, secureAccountRequest);
-
-                final String encryptedPassword = retrievedSecureAccount.getEncryptedPassword();
-                final String decryptedPassword = this.passwordEncryptor.decryptPassword(secretKey, secureAccountRequest.getMasterPassword(), encryptedPassword);
-                secureAccount = SecureAccount.builder()
-                        .username(username)
-                        .accountAlias(retrievedSecureAccount.getAccountAlias())
-                        .accountUsername(retrievedSecureAccount.getAccountUsername())
-                        .encryptedPassword(encryptedPassword)
-                        .password(decryptedPassword).build();
+                final KeyStore keyStore = this.getKeyStore(secureAccountRequest);
+                secureAccount = this.decryptSecureAccount(keyStore, secureAccountRequest, nullableSecureAccount.get());
             }
 
             return Optional.ofNullable(secureAccount);
@@ -228,12 +282,43 @@ public class DefaultSecureAccountService implements SecureAccountService {
         }
     }
 
+    @Override
+    public List<SecureAccount> getSecureAccounts(final SecureAccountRequest secureAccountRequest, final List<String> accountAliases) {
+        Assert.notNull(secureAccountRequest);
+
+        try {
+            final KeyStore keyStore = this.getKeyStore(secureAccountRequest);
+            final Map<String, SecureAccount> retrievedSecureAccounts = this.secureAccountSnapshots.get(secureAccountRequest.getUsername()).getSecureAccounts();
+            final Collection<String> aliases = accountAliases != null ? accountAliases : new TreeSet<>(retrievedSecureAccounts.keySet());
+
+            final List<SecureAccount> secureAccounts = aliases.stream()
+                    .distinct()
+                    .map(retrievedSecureAccounts::get)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+
+            return ParallelMapper.map(this.batchExecutor, PARALLELISM, secureAccounts, this.stageTimers.withOperation(
+                    retrievedSecureAccount -> this.decryptSecureAccount(keyStore, secureAccountRequest, retrievedSecureAccount))).stream()
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+
+            if (SecureAccountException.class.isAssignableFrom(e.getClass())) {
+                throw SecureAccountException.class.cast(e);
+            }
+
+            throw new SecureAccountException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public List<String> getSecureAccountAliases(final SecureAccountRequest secureAccountRequest) {
 
         final KeyStore keyStore;
         try {
-            keyStore = this.keystoreManager.getKeyStore(secureAccountRequest);
+            keyStore = this.getKeyStore(secureAccountRequest);
             final List<String> aliasList = new ArrayList<>();
             final Enumeration<String> aliases = keyStore.aliases();
 
@@ -257,14 +342,14 @@ public class DefaultSecureAccountService implements SecureAccountService {
     public SecureAccount updateSecureAccount(final SecureAccountRequest secureAccountRequest) {
 
         try {
-            final KeyStore keyStore = this.keystoreManager.getKeyStore(secureAccountRequest);
-            final String encodedSecretKey = this.keystoreManager.getSecretKey(keyStore, secureAccountRequest);
-            logger.info("Resolved secret key: {}", encodedSecretKey);
+            final KeyStore keyStore = this.getKeyStore(secureAccountRequest);
+            final byte[] secretKey = this.keystoreManager.getSecretKey(keyStore, secureAccountRequest);
 
             final String masterPassword = secureAccountRequest.getMasterPassword();
             final String password = secureAccountRequest.getPassword();
-            final String encryptPassword = this.passwordEncryptor.encryptPassword(encodedSecretKey, masterPassword, password);
-            logger.info("Encrypted password: {}", encryptPassword);
+            final long start = this.stageTimers.start();
+            final String encryptPassword = this.passwordEncryptor.encryptPassword(secretKey, masterPassword, password);
+            this.stageTimers.stop(StageTimers.ENCRYPT, start);
 
             final SecureAccount secureAccount = SecureAccount.builder()
                     .username(secureAccountRequest.getUsername())
@@ -273,6 +358,8 @@ public class DefaultSecureAccountService implements SecureAccountService {
                     .encryptedPassword(encryptPassword)
                     .password(password).build();
             this.secureAccountStore.storeSecureAccount(secureAccount);
+            this.secureAccountSnapshots.publish(secureAccount.getUsername(),
+                    secureAccounts -> secureAccounts.put(secureAccount.getAccountAlias(), secureAccount.withoutPassword()));
 
             return secureAccount;
 
@@ -282,6 +369,217 @@ public class DefaultSecureAccountService implements SecureAccountService {
         }
     }
 
+    @Override
+    public List<SecureAccountResult> updateSecureAccounts(final SecureAccountRequest secureAccountRequest, final List<SecureAccountRequest> secureAccountRequests) {
+        Assert.notNull(secureAccountRequest);
+        Assert.notNull(secureAccountRequests);
+
+        final String username = secureAccountRequest.getUsername();
+        final String masterPassword = secureAccountRequest.getMasterPassword();
+        final List<SecureAccountResult> results = new ArrayList<>();
+        final List<SecureAccountRequest> accountRequests = new ArrayList<>();
+        final Set<String> accountAliases = new HashSet<>();
+
+        for (SecureAccountRequest entry : secureAccountRequests) {
+            final String rejection = this.validateEntry(entry, accountAliases);
+
+            if (rejection != null) {
+                results.add(SecureAccountResult.builder()
+                        .accountAlias(entry.getAccountAlias())
+                        .status(SecureAccountResult.Status.REJECTED)
+                        .message(rejection).build());
+                continue;
+            }
+
+            accountAliases.add(entry.getAccountAlias());
+            accountRequests.add(SecureAccountRequest.builder()
+                    .username(username)
+                    .masterPassword(masterPassword)
+                    .accountAlias(entry.getAccountAlias())
+                    .accountUsername(entry.getAccountUsername())
+                    .password(entry.getPassword()).build());
+            results.add(null);
+        }
+
+        final List<String> createdSecretKeys = new ArrayList<>();
+        KeyStore keyStore = null;
+        boolean stored = false;
+
+        try {
+            keyStore = this.getKeyStore(secureAccountRequest);
+            final Map<String, SecureAccount> existingSecureAccounts = this.secureAccountStore.getSecureAccounts(username);
+            final List<byte[]> secretKeys = new ArrayList<>();
+
+            // KeyStore entries are set one at a time, only the encryption runs in parallel
+            for (SecureAccountRequest accountRequest : accountRequests) {
+                final Optional<byte[]> secretKey = this.keystoreManager.findSecretKey(keyStore, accountRequest);
+
+                if (secretKey.isPresent()) {
+                    secretKeys.add(secretKey.get());
+                } else {
+                    secretKeys.add(this.keystoreManager.createSecretKey(keyStore, accountRequest));
+                    createdSecretKeys.add(accountRequest.getAccountAlias());
+                }
+            }
+
+            final List<SecureAccount> secureAccounts = ParallelMapper.map(this.batchExecutor, PARALLELISM,
+                    IntStream.range(0, accountRequests.size()).boxed().collect(Collectors.toList()),
+                    this.stageTimers.withOperation(i -> this.encryptSecureAccount(accountRequests.get(i), secretKeys.get(i))));
+
+            if (!createdSecretKeys.isEmpty()) {
+                this.keystoreManager.saveKeyStore(secureAccountRequest, keyStore);
+            }
+
+            this.secureAccountStore.storeSecureAccounts(username, secureAccounts);
+            stored = true;
+            this.secureAccountSnapshots.publish(username,
+                    snapshotAccounts -> secureAccounts.forEach(secureAccount -> snapshotAccounts.put(secureAccount.getAccountAlias(), secureAccount.withoutPassword())));
+            final Iterator<SecureAccountRequest> storedAccountRequests = accountRequests.iterator();
+
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) == null) {
+                    final String accountAlias = storedAccountRequests.next().getAccountAlias();
+                    final boolean existing = existingSecureAccounts.containsKey(accountAlias);
+
+                    results.set(i, SecureAccountResult.builder()
+                            .accountAlias(accountAlias)
+                            .status(existing ? SecureAccountResult.Status.UPDATED : SecureAccountResult.Status.CREATED)
+                            .message(existing ? "Secure account is updated." : "Secure account is created.").build());
+                }
+            }
+
+            logger.info("Stored {} secure accounts of user {}, rejected {}", accountRequests.size(), username, results.size() - accountRequests.size());
+            return results;
+
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+
+            // once the accounts are stored their keys are in use, even if a later step failed
+            if (!stored) {
+                this.rollbackSecretKeys(secureAccountRequest, keyStore, createdSecretKeys);
+            }
+
+            if (SecureAccountException.class.isAssignableFrom(e.getClass())) {
+                throw SecureAccountException.class.cast(e);
+            }
+
+            throw new SecureAccountException("Unexpected error while storing accounts: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the reason to reject the entry, null if it is valid
+     */
+    private String validateEntry(final SecureAccountRequest entry, final Set<String> accountAliases) {
+
+        if (!StringUtils.hasText(entry.getAccountAlias())) {
+            return "Account alias is required";
+        }
+
+        if (entry.getAccountUsername() == null) {
+            return "Account username is required";
+        }
+
+        if (entry.getPassword() == null) {
+            return "Password is required";
+        }
+
+        if (accountAliases.contains(entry.getAccountAlias())) {
+            return "Duplicate account alias";
+        }
+
+        return null;
+    }
+
+    private SecureAccount encryptSecureAccount(final SecureAccountRequest secureAccountRequest, final byte[] secretKey) {
+
+        final String password = secureAccountRequest.getPassword();
+        final long start = this.stageTimers.start();
+        final String encryptedPassword = this.passwordEncryptor.encryptPassword(secretKey, secureAccountRequest.getMasterPassword(), password);
+        this.stageTimers.stop(StageTimers.ENCRYPT, start);
+
+        return SecureAccount.builder()
+                .username(secureAccountRequest.getUsername())
+                .accountAlias(secureAccountRequest.getAccountAlias())
+                .accountUsername(secureAccountRequest.getAccountUsername())
+                .encryptedPassword(encryptedPassword)
+                .password(password).build();
+    }
+
+    /**
+     * Removes the secret keys created by a failed batch write, so the KeyStore doesn't keep keys of accounts
+     * that were never stored.
+     */
+    private void rollbackSecretKeys(final SecureAccountRequest secureAccountRequest, final KeyStore keyStore, final List<String> createdSecretKeys) {
+
+        if (keyStore == null || createdSecretKeys.isEmpty()) {
+            return;
+        }
+
+        try {
+            for (String accountAlias : createdSecretKeys) {
+                keyStore.deleteEntry(accountAlias);
+            }
+
+            this.keystoreManager.saveKeyStore(secureAccountRequest, keyStore);
+
+        } catch (Exception e) {
+            logger.error("Unable to roll back secret keys of user " + secureAccountRequest.getUsername() + ": " + createdSecretKeys, e);
+            this.keystoreManager.evictKeyStore(secureAccountRequest.getUsername());
+        }
+    }
+
+    /**
+     * @param secureAccountRequest username and master password of the user
+     * @param retrievedSecureAccount account as read from the SecureAccountStore
+     * @return null if the secret key is gone, i.e. the account got deleted after the snapshot was read
+     */
+    private SecureAccount decryptSecureAccount(final KeyStore keyStore, final SecureAccountRequest secureAccountRequest,
+                                               final SecureAccount retrievedSecureAccount) {
+
+        final SecureAccountRequest accountRequest = SecureAccountRequest.builder()
+                .username(secureAccountRequest.getUsername())
+                .masterPassword(secureAccountRequest.getMasterPassword())
+                .accountAlias(retrievedSecureAccount.getAccountAlias()).build();
+
+        try {
+            final Optional<byte[]> secretKey = this.keystoreManager.findSecretKey(keyStore, accountRequest);
+
+            if (!secretKey.isPresent()) {
+                return null;
+            }
+
+            final String encryptedPassword = retrievedSecureAccount.getEncryptedPassword();
+            final long start = this.stageTimers.start();
+            final String decryptedPassword = this.passwordEncryptor.decryptPassword(secretKey.get(), accountRequest.getMasterPassword(), encryptedPassword);
+            this.stageTimers.stop(StageTimers.DECRYPT, start);
+
+            return SecureAccount.builder()
+                    .username(accountRequest.getUsername())
+                    .accountAlias(retrievedSecureAccount.getAccountAlias())
+                    .accountUsername(retrievedSecureAccount.getAccountUsername())
+                    .encryptedPassword(encryptedPassword)
+                    .password(decryptedPassword).build();
+
+        } catch (Exception e) {
+            throw new SecureAccountException("Unable to decrypt secure account " + retrievedSecureAccount.getAccountAlias() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @throws SecureAccountNotFoundException if the deletion of the user is confirmed, even though its
+     *                                        KeyStore may not have been purged yet
+     */
+    private KeyStore getKeyStore(final SecureAccountRequest secureAccountRequest) throws Exception {
+        Assert.notNull(secureAccountRequest);
+
+        if (this.pendingDeletions.isConfirmed(secureAccountRequest.getUsername())) {
+            throw new SecureAccountNotFoundException("User does not exist: " + secureAccountRequest.getUsername());
+        }
+
+        return this.keystoreManager.getKeyStore(secureAccountRequest);
+    }
+
     @Override
     public Optional<SecureAccount> deleteSecureAccount(final SecureAccountRequest secureAccountRequest) {
         Assert.notNull(secureAccountRequest);
@@ -290,10 +588,13 @@ public class DefaultSecureAccountService implements SecureAccountService {
 
         if (secureAccount.isPresent()) {
             try {
-                final KeyStore keyStore = this.keystoreManager.getKeyStore(secureAccountRequest);
-                keyStore.deleteEntry(secureAccountRequest.getAccountAlias());
-                this.keystoreManager.saveKeyStore(secureAccountRequest, keyStore);
+                final String accountAlias = secureAccountRequest.getAccountAlias();
                 this.secureAccountStore.deleteSecureAccountPassword(secureAccountRequest);
+                this.secureAccountSnapshots.publish(secureAccountRequest.getUsername(), secureAccounts -> secureAccounts.remove(accountAlias));
+
+                final KeyStore keyStore = this.getKeyStore(secureAccountRequest);
+                keyStore.deleteEntry(accountAlias);
+                this.keystoreManager.saveKeyStore(secureAccountRequest, keyStore);
 
             } catch (Exception e) {
                 final String errorMsg = "Error while trying to delete secure account: " + e.getMessage();
@@ -304,4 +605,43 @@ public class DefaultSecureAccountService implements SecureAccountService {
 
         return secureAccount;
     }
+
+    @Override
+    public List<String> deleteSecureAccounts(final SecureAccountRequest secureAccountRequest, final List<String> accountAliases) {
+        Assert.notNull(secureAccountRequest);
+        Assert.notNull(accountAliases);
+
+        try {
+            final String username = secureAccountRequest.getUsername();
+            final KeyStore keyStore = this.getKeyStore(secureAccountRequest);
+            final Map<String, SecureAccount> secureAccounts = this.secureAccountSnapshots.get(username).getSecureAccounts();
+            final List<String> deletedAliases = accountAliases.stream()
+                    .distinct()
+                    .filter(secureAccounts::containsKey)
+                    .collect(Collectors.toList());
+
+            if (deletedAliases.isEmpty()) {
+                return deletedAliases;
+            }
+
+            this.secureAccountStore.deleteSecureAccountPasswords(username, deletedAliases);
+            this.secureAccountSnapshots.publish(username, accounts -> accounts.keySet().removeAll(deletedAliases));
+
+            for (String accountAlias : deletedAliases) {
+                keyStore.deleteEntry(accountAlias);
+            }
+
+            this.keystoreManager.saveKeyStore(secureAccountRequest, keyStore);
+            return deletedAliases;
+
+        } catch (Exception e) {
+            logger.error("Error while trying to delete secure accounts: " + e.getMessage(), e);
+
+            if (SecureAccountException.class.isAssignableFrom(e.getClass())) {
+                throw SecureAccountException.class.cast(e);
+            }
+
+            throw new SecureAccountException("Error while trying to delete secure accounts: " + e.getMessage(), e);
+        }
+    }
 }
@@ -1,58 +1,146 @@
 package io.eion.security.passkeeper.service;
 
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import io.eion.security.passkeeper.service.bean.SecureAccount;
 import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
 import io.eion.security.passkeeper.service.exception.SecureAccountException;
-import org.apache.commons.io.IOUtils;
+import io.eion.security.passkeeper.service.metrics.StageTimers;
+import io.eion.security.passkeeper.service.storage.DurableFileWriter;
+import io.eion.security.passkeeper.service.storage.UserFileLayout;
+import io.eion.security.passkeeper.service.util.SecureAccountFileReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.FileSystemResource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
-import org.springframework.util.StringUtils;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.lang.reflect.Type;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * This class is used by DefaultSecureAccountService class so make it package local.
  * <p>
+ * Secure accounts of a user are loaded once into an in-memory index and served from there until the
+ * user has been idle for a while. Mutations are written back by a background flusher so a burst of
+ * updates results in a single file write, pending mutations are flushed on shutdown. Account files are
+ * read through SecureAccountFileReader.
+ * <p>
  * Created by vagrant on 9/14/16.
  */
 @Service
+@ConditionalOnProperty(name = "security.account.store", havingValue = "default", matchIfMissing = true)
 public class DefaultSecureAccountStore implements SecureAccountStore {
 
     private static final Logger logger = LoggerFactory.getLogger(DefaultSecureAccountStore.class);
 
     public static final String ACCOUNT_EXT = ".account";
 
-    @Value("${security.keystore.location}")
-    private String keystoreLocation;
+    @Autowired
+    private UserFileLayout userFileLayout;
+
+    @Autowired
+    private DurableFileWriter durableFileWriter;
+
+    /**
+     * In milliseconds. Mutations within this window are coalesced into a single file write,
+     * a value of 0 or less writes every mutation through to the file.
+     */
+    @Value("${security.account.flush.delay}")
+    private long flushDelay;
+
+    /**
+     * In seconds.
+     */
+    @Value("${security.account.idle.timeout}")
+    private int idleTimeout;
+
+    /**
+     * When disabled nothing is kept in memory, lookups scan the account file and stop at the matching alias.
+     */
+    @Value("${security.account.index.enabled}")
+    private boolean indexEnabled;
 
     @Autowired
     private Gson gson;
 
+    @Autowired
+    private SecureAccountFileReader secureAccountFileReader;
+
+    @Autowired
+    private StageTimers stageTimers;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    /**
+     * Key is the username. Value is the secure accounts of the user loaded from the account file.
+     */
+    private final ConcurrentHashMap<String, SecureAccountIndex> indexes = new ConcurrentHashMap<>();
+
+
+    @PostConstruct
+    public void scheduleMaintenance() {
+
+        if (this.isWriteBehind()) {
+            this.taskScheduler.scheduleWithFixedDelay(this::flush, this.flushDelay);
+        }
+
+        this.taskScheduler.scheduleWithFixedDelay(this::evictIdleIndexes, TimeUnit.SECONDS.toMillis(this.idleTimeout));
+    }
+
+    /**
+     * Writes pending mutations before the application context goes away.
+     */
+    @PreDestroy
+    public void flush() {
+
+        for (SecureAccountIndex index : this.indexes.values()) {
+            synchronized (index) {
+                if (index.dirty && !index.evicted) {
+                    try {
+                        this.saveSecureAccountFile(index.file, index.accounts);
+                        index.dirty = false;
+
+                    } catch (Exception e) {
+                        logger.error("Unable to flush secure account file, will retry: " + index.file, e);
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public void storeSecureAccount(final SecureAccount secureAccount) throws Exception {
         Assert.notNull(secureAccount);
 
-        final String username = secureAccount.getUsername();
-        final File secureAccountFile = this.createSecureAccountFile(username);
-        final Map<String, SecureAccount> secureAccountMap = this.loadSecureAccountMap(secureAccountFile);
         final String accountAlias = secureAccount.getAccountAlias();
-        secureAccountMap.put(accountAlias, secureAccount);
+        final SecureAccount stored = secureAccount.withoutPassword();
+        this.mutate(secureAccount.getUsername(), accounts -> accounts.put(accountAlias, stored), false);
+    }
 
-        this.saveSecureAccountFile(secureAccountFile, secureAccountMap);
+    @Override
+    public void storeSecureAccounts(final String username, final Collection<SecureAccount> secureAccounts) throws Exception {
+        Assert.notNull(username);
+        Assert.notNull(secureAccounts);
+
+        this.mutate(username, accounts -> {
+            secureAccounts.forEach(secureAccount -> accounts.put(secureAccount.getAccountAlias(), secureAccount.withoutPassword()));
+            return null;
+        }, true);
     }
 
     @Override
@@ -61,71 +149,232 @@ public class DefaultSecureAccountStore implements SecureAccountStore {
 
         final File secureAccountFile = this.createSecureAccountFile(username);
 
-        if (secureAccountFile.exists()) {
-            final boolean delete = secureAccountFile.delete();
+        // the file is deleted while the entry of the user is locked, so no index loaded before is published after
+        this.indexes.compute(username, (key, index) -> {
 
-            if (!delete) {
-                throw new SecureAccountException("Secure account store for user is not deleted for some reason: " + username);
+            if (index != null) {
+                synchronized (index) {
+                    index.evicted = true;
+                    index.dirty = false;
+                }
             }
-        }
+
+            if (secureAccountFile.exists()) {
+                final boolean delete = secureAccountFile.delete();
+
+                if (!delete) {
+                    throw new SecureAccountException("Secure account store for user is not deleted for some reason: " + username);
+                }
+            }
+
+            return null;
+        });
     }
 
     @Override
     public Optional<SecureAccount> getSecureAccount(final SecureAccountRequest secureAccountRequest) throws Exception {
         Assert.notNull(secureAccountRequest);
 
-        final String username = secureAccountRequest.getUsername();
-        final File secureAccountFile = this.createSecureAccountFile(username);
-        final Map<String, SecureAccount> secureAccountMap = this.loadSecureAccountMap(secureAccountFile);
-        final SecureAccount secureAccount = secureAccountMap.get(secureAccountRequest.getAccountAlias());
-        return Optional.ofNullable(secureAccount);
+        if (!this.indexEnabled) {
+            final File secureAccountFile = this.createSecureAccountFile(secureAccountRequest.getUsername());
+            final long start = this.stageTimers.start();
+
+            try {
+                return this.secureAccountFileReader.findSecureAccount(secureAccountFile, secureAccountRequest.getAccountAlias());
+            } finally {
+                this.stageTimers.stop(StageTimers.ACCOUNT_PARSE, start);
+            }
+        }
+
+        final SecureAccountIndex index = this.getIndex(secureAccountRequest.getUsername());
+
+        synchronized (index) {
+            return Optional.ofNullable(index.accounts.get(secureAccountRequest.getAccountAlias()));
+        }
+    }
+
+    @Override
+    public Map<String, SecureAccount> getSecureAccounts(final String username) throws Exception {
+        Assert.notNull(username);
+
+        if (!this.indexEnabled) {
+            return this.loadSecureAccountMap(this.createSecureAccountFile(username));
+        }
+
+        final SecureAccountIndex index = this.getIndex(username);
+
+        synchronized (index) {
+            return new HashMap<>(index.accounts);
+        }
     }
 
     @Override
     public void deleteSecureAccountPassword(final SecureAccountRequest secureAccountRequest) throws Exception {
         Assert.notNull(secureAccountRequest);
 
-        final String username = secureAccountRequest.getUsername();
-        final File secureAccountFile = this.createSecureAccountFile(username);
-        final Map<String, SecureAccount> secureAccountMap = this.loadSecureAccountMap(secureAccountFile);
-        final SecureAccount removed = secureAccountMap.remove(secureAccountRequest.getAccountAlias());
-        logger.info("Removed secure account: {}", removed);
+        final String accountAlias = secureAccountRequest.getAccountAlias();
+        this.mutate(secureAccountRequest.getUsername(), accounts -> accounts.remove(accountAlias), false);
+        logger.info("Removed secure account: {}", accountAlias);
+    }
 
-        this.saveSecureAccountFile(secureAccountFile, secureAccountMap);
+    @Override
+    public void deleteSecureAccountPasswords(final String username, final Collection<String> accountAliases) throws Exception {
+        Assert.notNull(username);
+        Assert.notNull(accountAliases);
+
+        this.mutate(username, accounts -> accounts.keySet().removeAll(accountAliases), false);
+        logger.info("Removed {} secure accounts of user {}", accountAliases.size(), username);
     }
 
-    private Map<String, SecureAccount> loadSecureAccountMap(final File secureAccountFile) throws Exception {
-        Assert.notNull(secureAccountFile);
-        Map<String, SecureAccount> secureAccountMap = new HashMap<>();
+    /**
+     * Applies the mutation to the index of the user and either writes it through or leaves it for
+     * the flusher. Retries on an index that got evicted in between lookup and mutation so no change
+     * is applied to an index that is no longer tracked. Written through, the mutation is applied to a
+     * copy of the accounts that only replaces the index once the file is saved, so a failed save
+     * leaves the index matching the file.
+     *
+     * @param writeThrough true to save the file before returning even if mutations are written behind,
+     *                     it then also holds the pending mutations of the index
+     */
+    private <T> T mutate(final String username, final Function<Map<String, SecureAccount>, T> mutation, final boolean writeThrough) throws Exception {
+
+        if (!this.indexEnabled) {
+            final File secureAccountFile = this.createSecureAccountFile(username);
+            final Map<String, SecureAccount> secureAccountMap = this.loadSecureAccountMap(secureAccountFile);
+            final T result = mutation.apply(secureAccountMap);
+            this.saveSecureAccountFile(secureAccountFile, secureAccountMap);
 
-        if (secureAccountFile.exists()) {
-            try (final InputStream is = new FileSystemResource(secureAccountFile).getInputStream()) {
+            return result;
+        }
+
+        while (true) {
+            final SecureAccountIndex index = this.getIndex(username);
 
-                final String secureAccountJSON = IOUtils.toString(is);
+            synchronized (index) {
+                if (index.evicted) {
+                    continue;
+                }
 
-                if (!StringUtils.isEmpty(secureAccountJSON)) {
-                    Type mapType = new TypeToken<Map<String, SecureAccount>>() { }.getType();
-                    secureAccountMap = this.gson.fromJson(secureAccountJSON, mapType);
+                if (this.isWriteBehind() && !writeThrough) {
+                    final T result = mutation.apply(index.accounts);
+                    index.dirty = true;
+                    return result;
                 }
+
+                final Map<String, SecureAccount> accounts = new HashMap<>(index.accounts);
+                final T result = mutation.apply(accounts);
+                this.saveSecureAccountFile(index.file, accounts);
+                index.accounts = accounts;
+                index.dirty = false;
+
+                return result;
             }
         }
+    }
+
+    /**
+     * The index is loaded while the entry of the user is locked, so a deletion either waits for the load and
+     * evicts the loaded index or completes before the file is read.
+     */
+    private SecureAccountIndex getIndex(final String username) throws Exception {
+        Assert.notNull(username);
+
+        SecureAccountIndex index = this.indexes.get(username);
+
+        if (index == null) {
+            try {
+                index = this.indexes.computeIfAbsent(username, key -> {
+                    final File secureAccountFile = this.createSecureAccountFile(key);
+
+                    try {
+                        return new SecureAccountIndex(secureAccountFile, this.loadSecureAccountMap(secureAccountFile));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        index.lastAccess = System.nanoTime();
+        return index;
+    }
+
+    private void evictIdleIndexes() {
+
+        final long idleSince = System.nanoTime() - TimeUnit.SECONDS.toNanos(this.idleTimeout);
+
+        for (String username : this.indexes.keySet()) {
+
+            // the entry is locked before the index, in the same order a deletion takes them
+            this.indexes.computeIfPresent(username, (key, index) -> {
+
+                synchronized (index) {
+                    if (index.dirty || index.lastAccess - idleSince >= 0) {
+                        return index;
+                    }
+
+                    index.evicted = true;
+                }
+
+                logger.debug("Evicted idle secure account index: {}", key);
+                return null;
+            });
+        }
+    }
 
-        return secureAccountMap;
+    private boolean isWriteBehind() {
+        return this.flushDelay > 0;
     }
 
-    private void saveSecureAccountFile(final File secureAccountFile, final Map<String, SecureAccount> secureAccountMap) throws IOException {
+    private Map<String, SecureAccount> loadSecureAccountMap(final File secureAccountFile) throws IOException {
         Assert.notNull(secureAccountFile);
-        Assert.notNull(secureAccountMap);
 
-        try (FileWriter fileWriter = new FileWriter(secureAccountFile)) {
-            final String secureAccountJSON = this.gson.toJson(secureAccountMap);
-            IOUtils.write(secureAccountJSON, fileWriter);
-            fileWriter.flush();
+        final long start = this.stageTimers.start();
+
+        try {
+            return this.secureAccountFileReader.readSecureAccounts(secureAccountFile);
+        } finally {
+            this.stageTimers.stop(StageTimers.ACCOUNT_PARSE, start);
         }
     }
 
+    /**
+     * Replaces the file atomically, readers holding a mapping of the previous file keep reading that one.
+     */
+    private void saveSecureAccountFile(final File secureAccountFile, final Map<String, SecureAccount> secureAccountMap) throws Exception {
+        Assert.notNull(secureAccountFile);
+        Assert.notNull(secureAccountMap);
+
+        final String secureAccountJSON = this.gson.toJson(secureAccountMap);
+        this.durableFileWriter.write(secureAccountFile, stream -> stream.write(secureAccountJSON.getBytes(StandardCharsets.UTF_8)));
+    }
+
     private File createSecureAccountFile(final String username) {
         Assert.notNull(username);
-        return new File(this.keystoreLocation, username + ACCOUNT_EXT);
+        return this.userFileLayout.getFile(username, ACCOUNT_EXT);
+    }
+
+    /**
+     * Secure accounts of a single user. All fields are guarded by the index itself.
+     */
+    private static class SecureAccountIndex {
+
+        private final File file;
+
+        private Map<String, SecureAccount> accounts;
+
+        private boolean dirty;
+
+        private boolean evicted;
+
+        private volatile long lastAccess = System.nanoTime();
+
+        SecureAccountIndex(final File file, final Map<String, SecureAccount> accounts) {
+            this.file = file;
+            this.accounts = accounts;
+        }
     }
 }
@@ -3,6 +3,7 @@ package io.eion.security.passkeeper.service;
 import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
 
 import java.security.KeyStore;
+import java.util.Optional;
 
 /**
  * @author <a href="joelin@digitalriver.com">Joe Lin</a>
@@ -17,5 +18,44 @@ public interface KeystoreManager {
 
     void deleteKeyStore(SecureAccountRequest secureAccountRequest) throws Exception;
 
-    String getSecretKey(KeyStore keyStore, SecureAccountRequest secureAccountRequest) throws Exception;
+    /**
+     * Deletes the KeyStore of the user without loading it, the master password must have been verified before.
+     *
+     * @param username
+     * @return false if the user has no KeyStore
+     */
+    boolean purgeKeyStore(String username) throws Exception;
+
+    /**
+     * Checks for the KeyStore of the user without loading it.
+     *
+     * @param username
+     */
+    boolean hasKeyStore(String username) throws Exception;
+
+    /**
+     * Drops any unlocked KeyStore of the user held in memory.
+     *
+     * @param username
+     */
+    void evictKeyStore(String username);
+
+    /**
+     * Resolves the secret key of the account, a new key is generated and saved in the KeyStore if the account
+     * has none yet.
+     *
+     * @return the raw key bytes, used as salt by the PasswordEncryptor
+     */
+    byte[] getSecretKey(KeyStore keyStore, SecureAccountRequest secureAccountRequest) throws Exception;
+
+    /**
+     * Looks up the secret key of the account without creating one.
+     */
+    Optional<byte[]> findSecretKey(KeyStore keyStore, SecureAccountRequest secureAccountRequest) throws Exception;
+
+    /**
+     * Generates a new secret key for the account and sets it in the KeyStore, replacing any existing key. The
+     * KeyStore is not saved, so several keys can be created before a single saveKeyStore.
+     */
+    byte[] createSecretKey(KeyStore keyStore, SecureAccountRequest secureAccountRequest) throws Exception;
 }
@@ -0,0 +1,499 @@
+package io.eion.security.passkeeper.service;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.exception.SecureAccountException;
+import io.eion.security.passkeeper.service.storage.DurableFileWriter;
+import io.eion.security.passkeeper.service.storage.JsonLinesLog;
+import io.eion.security.passkeeper.service.storage.UserFileLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores secure accounts as an append-only log of put and delete records per user, so the cost of a
+ * write doesn't grow with the number of accounts. State is rebuilt from the log when the user is first
+ * accessed and the log is compacted in the background once too many of its records are superseded.
+ * <p>
+ * The log is the only copy of the accounts, every record is fsynced before the write returns and a record torn
+ * by a crash is truncated from the tail on replay, see JsonLinesLog.
+ * <p>
+ * Account files written by DefaultSecureAccountStore are migrated to the log format on first access.
+ * Enabled with security.account.store=log.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Service
+@ConditionalOnProperty(name = "security.account.store", havingValue = "log")
+public class LogStructuredSecureAccountStore implements SecureAccountStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogStructuredSecureAccountStore.class);
+
+    public static final String ACCOUNT_LOG_EXT = ".accountlog";
+
+    @Autowired
+    private UserFileLayout userFileLayout;
+
+    /**
+     * Ratio of superseded records in the log that triggers a compaction.
+     */
+    @Value("${security.account.compaction.threshold}")
+    private double compactionThreshold;
+
+    /**
+     * Logs with fewer records than this are never compacted.
+     */
+    @Value("${security.account.compaction.min-records}")
+    private int compactionMinRecords;
+
+    /**
+     * In seconds.
+     */
+    @Value("${security.account.idle.timeout}")
+    private int idleTimeout;
+
+    @Autowired
+    private Gson gson;
+
+    @Autowired
+    private DurableFileWriter durableFileWriter;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    /**
+     * Key is the username. Value is the state of the user rebuilt from the account log.
+     */
+    private final ConcurrentHashMap<String, AccountLog> accountLogs = new ConcurrentHashMap<>();
+
+
+    @PostConstruct
+    public void scheduleMaintenance() {
+        this.taskScheduler.scheduleWithFixedDelay(this::evictIdleAccountLogs, TimeUnit.SECONDS.toMillis(this.idleTimeout));
+    }
+
+    @Override
+    public void storeSecureAccount(final SecureAccount secureAccount) throws Exception {
+        Assert.notNull(secureAccount);
+
+        this.append(secureAccount.getUsername(), LogRecord.put(secureAccount));
+    }
+
+    /**
+     * The accounts are written as one record, so a torn write drops the whole batch on replay.
+     */
+    @Override
+    public void storeSecureAccounts(final String username, final Collection<SecureAccount> secureAccounts) throws Exception {
+        Assert.notNull(username);
+        Assert.notNull(secureAccounts);
+
+        if (!secureAccounts.isEmpty()) {
+            this.append(username, LogRecord.putAll(secureAccounts));
+        }
+    }
+
+    @Override
+    public void deleteSecureAccountStore(final String username) throws Exception {
+        Assert.notNull(username);
+
+        final AccountLog accountLog = this.accountLogs.remove(username);
+
+        if (accountLog != null) {
+            synchronized (accountLog) {
+                accountLog.evicted = true;
+            }
+        }
+
+        for (File file : new File[]{this.createAccountLogFile(username), this.createLegacyAccountFile(username)}) {
+            if (file.exists() && !file.delete()) {
+                throw new SecureAccountException("Secure account store for user is not deleted for some reason: " + username);
+            }
+        }
+    }
+
+    @Override
+    public Optional<SecureAccount> getSecureAccount(final SecureAccountRequest secureAccountRequest) throws Exception {
+        Assert.notNull(secureAccountRequest);
+
+        final AccountLog accountLog = this.getAccountLog(secureAccountRequest.getUsername());
+
+        synchronized (accountLog) {
+            return Optional.ofNullable(accountLog.accounts.get(secureAccountRequest.getAccountAlias()));
+        }
+    }
+
+    @Override
+    public Map<String, SecureAccount> getSecureAccounts(final String username) throws Exception {
+        final AccountLog accountLog = this.getAccountLog(username);
+
+        synchronized (accountLog) {
+            return new HashMap<>(accountLog.accounts);
+        }
+    }
+
+    @Override
+    public void deleteSecureAccountPassword(final SecureAccountRequest secureAccountRequest) throws Exception {
+        Assert.notNull(secureAccountRequest);
+
+        this.append(secureAccountRequest.getUsername(), LogRecord.delete(secureAccountRequest.getAccountAlias()));
+    }
+
+    @Override
+    public void deleteSecureAccountPasswords(final String username, final Collection<String> accountAliases) throws Exception {
+        Assert.notNull(username);
+        Assert.notNull(accountAliases);
+
+        if (!accountAliases.isEmpty()) {
+            this.append(username, LogRecord.deleteAll(accountAliases));
+        }
+    }
+
+    /**
+     * Rewrites the log of the user so it only contains the live accounts.
+     *
+     * @param username
+     */
+    void compact(final String username) {
+
+        final AccountLog accountLog = this.accountLogs.get(username);
+
+        if (accountLog == null) {
+            return;
+        }
+
+        synchronized (accountLog) {
+            accountLog.compactionScheduled = false;
+
+            if (accountLog.evicted || !accountLog.loaded) {
+                return;
+            }
+
+            try {
+                this.writeAccountLog(accountLog.log, accountLog.accounts);
+                logger.debug("Compacted account log of {} from {} to {} records", username, accountLog.records, accountLog.accounts.size());
+                accountLog.records = accountLog.accounts.size();
+
+            } catch (Exception e) {
+                logger.error("Unable to compact account log: " + accountLog.log.getFile(), e);
+            }
+        }
+    }
+
+    private void append(final String username, final LogRecord record) throws Exception {
+
+        while (true) {
+            final AccountLog accountLog = this.getAccountLog(username);
+
+            synchronized (accountLog) {
+                if (accountLog.evicted) {
+                    continue;
+                }
+
+                accountLog.log.append(record);
+                record.applyTo(accountLog.accounts);
+                accountLog.records += record.size();
+                this.scheduleCompactionIfNeeded(username, accountLog);
+                return;
+            }
+        }
+    }
+
+    private void scheduleCompactionIfNeeded(final String username, final AccountLog accountLog) {
+
+        if (accountLog.compactionScheduled || accountLog.records < this.compactionMinRecords) {
+            return;
+        }
+
+        final double deadRatio = (double) (accountLog.records - accountLog.accounts.size()) / accountLog.records;
+
+        if (deadRatio > this.compactionThreshold) {
+            accountLog.compactionScheduled = true;
+            this.taskScheduler.schedule(() -> this.compact(username), new Date());
+        }
+    }
+
+    /**
+     * The account log is published before it is loaded and loaded under its own lock, so only one thread replays
+     * or migrates the files of a user and the replay, which truncates a torn tail, never runs next to an append.
+     */
+    private AccountLog getAccountLog(final String username) throws Exception {
+        Assert.notNull(username);
+
+        AccountLog accountLog = this.accountLogs.get(username);
+
+        if (accountLog == null) {
+            final AccountLog created = new AccountLog(new JsonLinesLog<>(this.createAccountLogFile(username), LogRecord.class,
+                    this.gson, this.durableFileWriter, true));
+            accountLog = this.accountLogs.putIfAbsent(username, created);
+
+            if (accountLog == null) {
+                accountLog = created;
+            }
+        }
+
+        synchronized (accountLog) {
+            if (!accountLog.loaded) {
+                this.loadAccountLog(username, accountLog);
+            }
+        }
+
+        accountLog.lastAccess = System.nanoTime();
+        return accountLog;
+    }
+
+    /**
+     * Called with the lock of the account log held. A failed load leaves the account log empty and unloaded,
+     * the next access tries again.
+     */
+    private void loadAccountLog(final String username, final AccountLog accountLog) throws Exception {
+
+        final JsonLinesLog<LogRecord> log = accountLog.log;
+        final Map<String, SecureAccount> accounts = new HashMap<>();
+        final int records;
+
+        if (log.exists()) {
+            records = replay(log, accounts);
+        } else {
+            records = this.migrateLegacyAccountFile(username, log, accounts);
+        }
+
+        accountLog.accounts.putAll(accounts);
+        accountLog.records = records;
+        accountLog.loaded = true;
+    }
+
+    /**
+     * Reads the accounts of an account log while no store has it open, e.g. to migrate them to another store. A
+     * torn record at the tail is truncated as on a regular load.
+     */
+    static Map<String, SecureAccount> readAccountLog(final File file, final Gson gson) throws IOException {
+        Assert.notNull(file);
+        Assert.notNull(gson);
+
+        final Map<String, SecureAccount> accounts = new HashMap<>();
+
+        try (DurableFileWriter durableFileWriter = new DurableFileWriter(DurableFileWriter.SyncMode.NONE, 0)) {
+            replay(new JsonLinesLog<>(file, LogRecord.class, gson, durableFileWriter, false), accounts);
+        }
+
+        return accounts;
+    }
+
+    /**
+     * @return number of accounts written by the replayed records
+     */
+    private static int replay(final JsonLinesLog<LogRecord> log, final Map<String, SecureAccount> accounts) throws IOException {
+        final int[] records = new int[1];
+
+        log.replay(record -> {
+            record.validate();
+            record.applyTo(accounts);
+            records[0] += record.size();
+        });
+
+        return records[0];
+    }
+
+    /**
+     * Converts the JSON account file of DefaultSecureAccountStore into an account log. The log is
+     * written in full before the legacy file is removed so an interrupted migration is simply repeated.
+     */
+    private int migrateLegacyAccountFile(final String username, final JsonLinesLog<LogRecord> log, final Map<String, SecureAccount> accounts) throws Exception {
+
+        final File legacyAccountFile = this.createLegacyAccountFile(username);
+
+        if (!legacyAccountFile.exists()) {
+            return 0;
+        }
+
+        final String secureAccountJSON = new String(Files.readAllBytes(legacyAccountFile.toPath()), StandardCharsets.UTF_8);
+
+        if (!StringUtils.isEmpty(secureAccountJSON)) {
+            final Type mapType = new TypeToken<Map<String, SecureAccount>>() { }.getType();
+            final Map<String, SecureAccount> legacyAccounts = this.gson.fromJson(secureAccountJSON, mapType);
+            accounts.putAll(legacyAccounts);
+        }
+
+        this.writeAccountLog(log, accounts);
+
+        if (!legacyAccountFile.delete()) {
+            logger.warn("Migrated account file could not be removed: {}", legacyAccountFile);
+        }
+
+        logger.info("Migrated {} secure accounts of {} to account log", accounts.size(), username);
+        return accounts.size();
+    }
+
+    private void writeAccountLog(final JsonLinesLog<LogRecord> log, final Map<String, SecureAccount> accounts) throws IOException {
+
+        final List<LogRecord> records = new ArrayList<>(accounts.size());
+
+        for (SecureAccount secureAccount : accounts.values()) {
+            records.add(LogRecord.put(secureAccount));
+        }
+
+        log.rewrite(records);
+    }
+
+    private void evictIdleAccountLogs() {
+
+        final long idleSince = System.nanoTime() - TimeUnit.SECONDS.toNanos(this.idleTimeout);
+
+        for (Map.Entry<String, AccountLog> entry : this.accountLogs.entrySet()) {
+            final AccountLog accountLog = entry.getValue();
+
+            synchronized (accountLog) {
+                if (accountLog.lastAccess - idleSince < 0) {
+                    accountLog.evicted = true;
+                    this.accountLogs.remove(entry.getKey(), accountLog);
+                }
+            }
+        }
+    }
+
+    private File createAccountLogFile(final String username) {
+        Assert.notNull(username);
+        return this.userFileLayout.getFile(username, ACCOUNT_LOG_EXT);
+    }
+
+    private File createLegacyAccountFile(final String username) {
+        Assert.notNull(username);
+        return this.userFileLayout.getFile(username, DefaultSecureAccountStore.ACCOUNT_EXT);
+    }
+
+    /**
+     * Live state of a single user. All fields are guarded by the account log itself.
+     */
+    private static class AccountLog {
+
+        private final JsonLinesLog<LogRecord> log;
+
+        private final Map<String, SecureAccount> accounts = new HashMap<>();
+
+        private int records;
+
+        private boolean loaded;
+
+        private boolean compactionScheduled;
+
+        private boolean evicted;
+
+        private volatile long lastAccess = System.nanoTime();
+
+        AccountLog(final JsonLinesLog<LogRecord> log) {
+            this.log = log;
+        }
+    }
+
+    /**
+     * A single line in the account log.
+     */
+    private static class LogRecord {
+
+        private enum Operation {
+            PUT, PUT_ALL, DELETE, DELETE_ALL
+        }
+
+        private Operation op;
+
+        private String alias;
+
+        private SecureAccount account;
+
+        private List<SecureAccount> accounts;
+
+        private List<String> aliases;
+
+        static LogRecord put(final SecureAccount secureAccount) {
+            final LogRecord record = new LogRecord();
+            record.op = Operation.PUT;
+            record.alias = secureAccount.getAccountAlias();
+            record.account = secureAccount;
+            return record;
+        }
+
+        static LogRecord putAll(final Collection<SecureAccount> secureAccounts) {
+            final LogRecord record = new LogRecord();
+            record.op = Operation.PUT_ALL;
+            record.accounts = new ArrayList<>(secureAccounts);
+            return record;
+        }
+
+        static LogRecord delete(final String accountAlias) {
+            final LogRecord record = new LogRecord();
+            record.op = Operation.DELETE;
+            record.alias = accountAlias;
+            return record;
+        }
+
+        static LogRecord deleteAll(final Collection<String> accountAliases) {
+            final LogRecord record = new LogRecord();
+            record.op = Operation.DELETE_ALL;
+            record.aliases = new ArrayList<>(accountAliases);
+            return record;
+        }
+
+        /**
+         * Rejects a record that can't be applied, e.g. one without operation.
+         */
+        void validate() {
+            Assert.notNull(this.op, "Record has no operation");
+
+            if (this.op == Operation.PUT_ALL) {
+                Assert.notNull(this.accounts, "Record has no accounts");
+            } else if (this.op == Operation.DELETE_ALL) {
+                Assert.notNull(this.aliases, "Record has no aliases");
+            } else {
+                Assert.notNull(this.alias, "Record has no alias");
+                Assert.isTrue(this.op != Operation.PUT || this.account != null, "Record has no account");
+            }
+        }
+
+        void applyTo(final Map<String, SecureAccount> accounts) {
+            if (this.op == Operation.PUT) {
+                accounts.put(this.alias, this.account);
+            } else if (this.op == Operation.PUT_ALL) {
+                this.accounts.forEach(account -> accounts.put(account.getAccountAlias(), account));
+            } else if (this.op == Operation.DELETE_ALL) {
+                this.aliases.forEach(accounts::remove);
+            } else {
+                accounts.remove(this.alias);
+            }
+        }
+
+        /**
+         * @return number of accounts written by the record, used to tell how much of the log is superseded
+         */
+        int size() {
+            if (this.op == Operation.PUT_ALL) {
+                return this.accounts.size();
+            }
+
+            return this.op == Operation.DELETE_ALL ? this.aliases.size() : 1;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package io.eion.security.passkeeper.service;
+
+import com.google.gson.Gson;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.bean.SecureAccountResult;
+import io.eion.security.passkeeper.service.storage.DurableFileWriter;
+import io.eion.security.passkeeper.service.storage.JsonLinesLog;
+import io.eion.security.passkeeper.service.util.PasswordEncryptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.security.crypto.codec.Utf8;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registrations of created users with the master that haven't been written to the master shards yet.
+ * <p>
+ * Registering a user used to rewrite the master KeyStore and accounts, which grow with every user, while the
+ * master's write lock was held, so every user creation paid for and queued on the size of the master. Now a
+ * registration is appended to a log next to the keystores and a scheduled flush writes up to
+ * security.master.registration.batch queued users to the master shards with a single updateSecureAccounts per
+ * shard, i.e. one KeyStore save and one account store write per shard and batch, see MasterRegistry.
+ * Registrations are upserts, registering a user again replaces the queued or stored master password.
+ * <p>
+ * The log holds the master passwords of the queued users encrypted with the master password, it is replayed
+ * on startup and rewritten with the registrations that are still queued after every flush.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class MasterRegistrationQueue implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(MasterRegistrationQueue.class);
+
+    static final String MASTER_REGISTRATIONS_FILE = "master-registrations.log";
+
+    private static final int SALT_LENGTH = 16;
+
+    @Value("${security.keystore.location}")
+    private String keystoreLocation;
+
+    @Value("${security.master.password}")
+    private String masterPassword;
+
+    /**
+     * In milliseconds.
+     */
+    @Value("${security.master.registration.flush.delay}")
+    private long flushDelay;
+
+    @Value("${security.master.registration.batch}")
+    private int batchSize;
+
+    @Value("${security.master.registration.sync}")
+    private boolean sync;
+
+    @Autowired
+    private SecureAccountService secureAccountService;
+
+    @Autowired
+    private MasterRegistry masterRegistry;
+
+    @Autowired
+    private PasswordEncryptor passwordEncryptor;
+
+    @Autowired
+    private Gson gson;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    @Autowired
+    private DurableFileWriter durableFileWriter;
+
+    private final AtomicLong queued = new AtomicLong();
+
+    private final AtomicLong registered = new AtomicLong();
+
+    private final AtomicLong flushes = new AtomicLong();
+
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    /**
+     * Salt of the registrations written by this process, so the key that encrypts them is only derived once.
+     */
+    private final byte[] salt = new byte[SALT_LENGTH];
+
+    private JsonLinesLog<Registration> log;
+
+    /**
+     * Key is the username. Value is the latest queued registration of the user, in order of first registration.
+     * Guarded by this.
+     */
+    private final Map<String, Registration> registrations = new LinkedHashMap<>();
+
+    /**
+     * Serializes flushes, so a registration is never written to the master by two flushes at once.
+     */
+    private final Object flushLock = new Object();
+
+
+    @PostConstruct
+    public void initialize() throws IOException {
+        new SecureRandom().nextBytes(this.salt);
+        final File logFile = new File(this.keystoreLocation, MASTER_REGISTRATIONS_FILE);
+        logFile.getParentFile().mkdirs();
+        this.log = new JsonLinesLog<>(logFile, Registration.class, this.gson, this.durableFileWriter, this.sync);
+
+        this.replay();
+        this.taskScheduler.scheduleWithFixedDelay(this::flush, this.flushDelay);
+    }
+
+    /**
+     * Queues the registration of the user with the master. The registration is on disk once this returns.
+     *
+     * @param userCreationRequest username and master password of the created user
+     */
+    public void register(final SecureAccountRequest userCreationRequest) {
+        Assert.notNull(userCreationRequest);
+        Assert.notNull(userCreationRequest.getUsername());
+        Assert.notNull(userCreationRequest.getMasterPassword());
+
+        final Registration registration = new Registration();
+        registration.username = userCreationRequest.getUsername();
+        registration.salt = new String(Hex.encode(this.salt));
+        registration.password = new String(Hex.encode(this.passwordEncryptor.encrypt(this.salt, this.masterPassword,
+                Utf8.encode(userCreationRequest.getMasterPassword()))));
+
+        synchronized (this) {
+            this.append(registration);
+            this.registrations.remove(registration.username);
+            this.registrations.put(registration.username, registration);
+        }
+
+        this.queued.incrementAndGet();
+    }
+
+    public synchronized int size() {
+        return this.registrations.size();
+    }
+
+    /**
+     * Writes the next batch of queued registrations to the master shards, with one updateSecureAccounts per
+     * shard. Registrations of a shard that fails stay queued and are retried by the next flush. Nothing is
+     * written until the MasterRegistry is ready.
+     *
+     * @return number of users registered with the master
+     */
+    public int flush() {
+
+        if (!this.masterRegistry.isReady()) {
+            return 0;
+        }
+
+        synchronized (this.flushLock) {
+            final Map<String, List<Registration>> batch = new LinkedHashMap<>();
+            int batchedRegistrations = 0;
+
+            synchronized (this) {
+                final Iterator<Registration> queuedRegistrations = this.registrations.values().iterator();
+
+                while (batchedRegistrations < this.batchSize && queuedRegistrations.hasNext()) {
+                    final Registration registration = queuedRegistrations.next();
+                    batch.computeIfAbsent(this.masterRegistry.getShard(registration.username), shard -> new ArrayList<>()).add(registration);
+                    batchedRegistrations++;
+                }
+            }
+
+            final List<Registration> flushed = new ArrayList<>(batchedRegistrations);
+
+            for (Map.Entry<String, List<Registration>> shardBatch : batch.entrySet()) {
+                if (this.flushShard(shardBatch.getKey(), shardBatch.getValue())) {
+                    flushed.addAll(shardBatch.getValue());
+                }
+            }
+
+            if (flushed.isEmpty()) {
+                return 0;
+            }
+
+            synchronized (this) {
+                // a user registered again during the flush keeps its newer registration queued
+                flushed.forEach(registration -> this.registrations.remove(registration.username, registration));
+                this.compact();
+            }
+
+            this.flushes.incrementAndGet();
+            this.registered.addAndGet(flushed.size());
+            logger.info("Added {} users to {} master shards", flushed.size(), batch.size());
+
+            return flushed.size();
+        }
+    }
+
+    private boolean flushShard(final String shardUsername, final List<Registration> registrations) {
+
+        final List<SecureAccountRequest> accountRequests = new ArrayList<>(registrations.size());
+
+        for (Registration registration : registrations) {
+            accountRequests.add(SecureAccountRequest.builder()
+                    .accountAlias(registration.username)
+                    .accountUsername(registration.username)
+                    .password(this.decryptPassword(registration)).build());
+        }
+
+        try {
+            final List<SecureAccountResult> results = this.secureAccountService.updateSecureAccounts(
+                    this.masterRegistry.getShardRequest(shardUsername), accountRequests);
+
+            for (SecureAccountResult result : results) {
+                if (result.getStatus() == SecureAccountResult.Status.REJECTED) {
+                    logger.error("Master rejected registration of user [{}]: {}", result.getAccountAlias(), result.getMessage());
+                }
+            }
+
+            return true;
+
+        } catch (Exception e) {
+            this.failedFlushes.incrementAndGet();
+            logger.warn("Unable to register {} users with master shard [{}], will retry: {}", registrations.size(), shardUsername, e.getMessage());
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void drain() {
+        while (this.flush() > 0) {
+            logger.debug("Flushed master registrations on shutdown");
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("master.registration.pending", this.size()));
+        metrics.add(new Metric<>("master.registration.queued", this.queued.get()));
+        metrics.add(new Metric<>("master.registration.registered", this.registered.get()));
+        metrics.add(new Metric<>("master.registration.flushes", this.flushes.get()));
+        metrics.add(new Metric<>("master.registration.flushes.failed", this.failedFlushes.get()));
+
+        return metrics;
+    }
+
+    private String decryptPassword(final Registration registration) {
+        return Utf8.decode(this.passwordEncryptor.decrypt(Hex.decode(registration.salt), this.masterPassword, Hex.decode(registration.password)));
+    }
+
+    private void append(final Registration registration) {
+
+        try {
+            this.log.append(registration);
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to queue master registration of user " + registration.username, e);
+        }
+    }
+
+    private synchronized void replay() throws IOException {
+
+        this.log.replay(registration -> {
+            Assert.notNull(registration.username, "Registration has no username");
+            Assert.notNull(registration.salt, "Registration has no salt");
+            Assert.notNull(registration.password, "Registration has no password");
+
+            this.registrations.remove(registration.username);
+            this.registrations.put(registration.username, registration);
+        });
+
+        this.compact();
+        logger.info("Restored {} queued master registrations", this.registrations.size());
+    }
+
+    private void compact() {
+
+        try {
+            this.log.rewrite(new ArrayList<>(this.registrations.values()));
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to compact master registrations: " + this.log.getFile(), e);
+        }
+    }
+
+    /**
+     * A single line in the master registrations log.
+     */
+    private static class Registration {
+
+        private String username;
+
+        /**
+         * Hex encoded salt the password is encrypted with.
+         */
+        private String salt;
+
+        /**
+         * Hex encoded master password of the user, encrypted with the master password.
+         */
+        private String password;
+    }
+}
@@ -0,0 +1,314 @@
+package io.eion.security.passkeeper.service;
+
+import com.google.gson.Gson;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of every user and its master password, split into security.master.shards shards instead of a single
+ * master user whose KeyStore and accounts grow with every user. Each shard is a user of its own named after
+ * security.master.username and the shard number, e.g. _master-3, and a registered user lives in the shard its
+ * username hashes to.
+ * <p>
+ * The shards are provisioned on startup. Users registered with the single master user of older versions, or
+ * with a different number of shards, are moved to the shard they hash to once, before any registration is
+ * written, see migrate. Registrations already in the target shard are newer and are kept. The single master
+ * user is deleted once its users are moved. The number of shards the registry was last migrated to is kept in
+ * master-shards.json next to the keystores.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class MasterRegistry implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(MasterRegistry.class);
+
+    static final String MASTER_SHARDS_FILE = "master-shards.json";
+
+    @Value("${security.keystore.location}")
+    private String keystoreLocation;
+
+    @Value("${security.master.username}")
+    private String masterUsername;
+
+    @Value("${security.master.password}")
+    private String masterPassword;
+
+    @Value("${security.master.shards}")
+    private int shards;
+
+    @Autowired
+    private SecureAccountService secureAccountService;
+
+    @Autowired
+    private Gson gson;
+
+    private File shardsFile;
+
+    private volatile boolean ready;
+
+    private final AtomicLong migrated = new AtomicLong();
+
+
+    @PostConstruct
+    public void initialize() {
+        Assert.isTrue(this.shards > 0, "security.master.shards must be positive");
+        this.shardsFile = new File(this.keystoreLocation, MASTER_SHARDS_FILE);
+    }
+
+    /**
+     * Creates the shards that don't exist yet and migrates the registrations of an older layout.
+     */
+    public synchronized void provision() {
+
+        for (int shard = 0; shard < this.shards; shard++) {
+            final String shardUsername = this.getShardUsername(shard);
+
+            if (!this.secureAccountService.authenticateUser(shardUsername, this.masterPassword)) {
+                this.secureAccountService.createUser(shardUsername, this.masterPassword);
+                logger.info("Created master shard [{}]", shardUsername);
+            }
+        }
+
+        this.migrate();
+        this.ready = true;
+    }
+
+    /**
+     * @return true once the shards are provisioned and migrated, registrations must not be written before
+     */
+    public boolean isReady() {
+        return this.ready;
+    }
+
+    /**
+     * @return the shard user the registration of the user is stored in
+     */
+    public String getShard(final String username) {
+        Assert.notNull(username);
+        return this.getShardUsername(this.getShardNumber(username, this.shards));
+    }
+
+    public SecureAccountRequest getShardRequest(final String shardUsername) {
+        return SecureAccountRequest.builder()
+                .username(shardUsername)
+                .masterPassword(this.masterPassword).build();
+    }
+
+    /**
+     * @return true if the user is the single master user or one of the shards, they are not registered
+     */
+    public boolean isRegistryUser(final String username) {
+        return this.masterUsername.equals(username) || this.parseShardNumber(username) >= 0;
+    }
+
+    /**
+     * Looks the user up in the shard it hashes to.
+     */
+    public Optional<SecureAccount> findRegistration(final String username) {
+
+        final String shardUsername = this.getShard(username);
+        return this.secureAccountService.getSecureAccount(SecureAccountRequest.builder()
+                .username(shardUsername)
+                .masterPassword(this.masterPassword)
+                .accountAlias(username).build());
+    }
+
+    /**
+     * Moves the registrations of the single master user, and of the shards of a different shard count, to the
+     * shard they hash to.
+     */
+    public synchronized void migrate() {
+
+        final int previousShards = this.readShardCount();
+        final List<String> sources = new ArrayList<>();
+
+        if (this.secureAccountService.authenticateUser(this.masterUsername, this.masterPassword)) {
+            sources.add(this.masterUsername);
+        }
+
+        if (previousShards != this.shards) {
+            for (int shard = 0; shard < previousShards; shard++) {
+                sources.add(this.getShardUsername(shard));
+            }
+        }
+
+        for (String source : sources) {
+            this.migrateSource(source);
+        }
+
+        if (previousShards != this.shards) {
+            this.writeShardCount();
+            logger.info("Master registry migrated from {} to {} shards", previousShards, this.shards);
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("master.shards", this.shards));
+        metrics.add(new Metric<>("master.shards.migrated", this.migrated.get()));
+
+        return metrics;
+    }
+
+    private void migrateSource(final String source) {
+
+        final boolean legacy = this.masterUsername.equals(source);
+        final int sourceShard = this.parseShardNumber(source);
+        final SecureAccountRequest sourceRequest = this.getShardRequest(source);
+        final Map<String, List<SecureAccountRequest>> moves = new LinkedHashMap<>();
+
+        for (SecureAccount registration : this.secureAccountService.getSecureAccounts(sourceRequest, null)) {
+            final String username = registration.getAccountAlias();
+
+            if (DefaultSecureAccountService.DEFAULT_ACCOUNT.equals(username) || this.isRegistryUser(username)) {
+                continue;
+            }
+
+            final String target = this.getShard(username);
+
+            if (!target.equals(source)) {
+                moves.computeIfAbsent(target, shard -> new ArrayList<>()).add(SecureAccountRequest.builder()
+                        .accountAlias(username)
+                        .accountUsername(registration.getAccountUsername())
+                        .password(registration.getPassword()).build());
+            }
+        }
+
+        for (Map.Entry<String, List<SecureAccountRequest>> move : moves.entrySet()) {
+            final SecureAccountRequest targetRequest = this.getShardRequest(move.getKey());
+            final Set<String> existing = new HashSet<>(this.secureAccountService.getSecureAccountAliases(targetRequest));
+            final List<SecureAccountRequest> registrations = new ArrayList<>();
+
+            for (SecureAccountRequest registration : move.getValue()) {
+                if (!existing.contains(registration.getAccountAlias())) {
+                    registrations.add(registration);
+                }
+            }
+
+            if (!registrations.isEmpty()) {
+                this.secureAccountService.updateSecureAccounts(targetRequest, registrations);
+                this.migrated.addAndGet(registrations.size());
+            }
+        }
+
+        if (legacy || sourceShard >= this.shards) {
+            this.secureAccountService.markDeleteUser(source, this.masterPassword);
+            this.secureAccountService.deleteUser(source, this.masterPassword);
+            logger.info("Moved the users of [{}] to the master shards and deleted it", source);
+
+        } else {
+            final List<String> movedAliases = new ArrayList<>();
+
+            for (List<SecureAccountRequest> registrations : moves.values()) {
+                registrations.forEach(registration -> movedAliases.add(registration.getAccountAlias()));
+            }
+
+            if (!movedAliases.isEmpty()) {
+                this.secureAccountService.deleteSecureAccounts(sourceRequest, movedAliases);
+            }
+        }
+    }
+
+    /**
+     * @return 0 if the registry has never been sharded
+     */
+    private int readShardCount() {
+
+        if (!this.shardsFile.exists()) {
+            return 0;
+        }
+
+        try (Reader reader = Files.newBufferedReader(this.shardsFile.toPath(), StandardCharsets.UTF_8)) {
+            return this.gson.fromJson(reader, ShardLayout.class).shards;
+
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read master shard layout: " + this.shardsFile, e);
+        }
+    }
+
+    private void writeShardCount() {
+
+        final File tempFile = new File(this.shardsFile.getParentFile(), this.shardsFile.getName() + ".tmp");
+        final ShardLayout layout = new ShardLayout();
+        layout.shards = this.shards;
+
+        try {
+            try (Writer writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+                this.gson.toJson(layout, writer);
+            }
+
+            Files.move(tempFile.toPath(), this.shardsFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write master shard layout: " + this.shardsFile, e);
+        }
+    }
+
+    private String getShardUsername(final int shard) {
+        return this.masterUsername + "-" + shard;
+    }
+
+    /**
+     * String.hashCode is specified, so users hash to the same shard on every JVM.
+     */
+    private int getShardNumber(final String username, final int shardCount) {
+        return Math.floorMod(username.hashCode(), shardCount);
+    }
+
+    /**
+     * @return the shard number of a shard user, -1 if the user is not a shard
+     */
+    private int parseShardNumber(final String username) {
+        final String prefix = this.masterUsername + "-";
+
+        if (username == null || !username.startsWith(prefix) || username.length() == prefix.length()) {
+            return -1;
+        }
+
+        final String number = username.substring(prefix.length());
+
+        for (int i = 0; i < number.length(); i++) {
+            if (!Character.isDigit(number.charAt(i))) {
+                return -1;
+            }
+        }
+
+        return number.length() < 10 ? Integer.parseInt(number) : -1;
+    }
+
+    /**
+     * Content of the master shards file.
+     */
+    private static class ShardLayout {
+
+        private int shards;
+    }
+}
@@ -0,0 +1,450 @@
+package io.eion.security.passkeeper.service;
+
+import com.google.gson.Gson;
+import io.eion.security.passkeeper.service.concurrent.TimingWheel;
+import io.eion.security.passkeeper.service.storage.DurableFileWriter;
+import io.eion.security.passkeeper.service.storage.JsonLinesLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Users that are marked for deletion and users whose deletion is confirmed but not purged yet.
+ * <p>
+ * A mark expires after security.delete.delay unless the user is deleted before, expiry is tracked by a
+ * TimingWheel that a single scheduled task ticks, so marking a large number of users doesn't put a task per
+ * user on the TaskScheduler. A confirmed user is treated as gone right away and waits for the PurgeWorker to
+ * remove its files.
+ * <p>
+ * Every change is appended to a log next to the keystores, the log is replayed and rewritten on startup, so marks
+ * that haven't expired and confirmed deletions survive a restart. A change is appended and applied under the
+ * monitor but fsynced after releasing it, so concurrent changes share their fsyncs, and it is undone again if the
+ * fsync fails. isMarked and isConfirmed don't lock at all since every read of the service asks isConfirmed, a
+ * confirmation only becomes visible to isConfirmed once it is durable.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class PendingDeletions implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(PendingDeletions.class);
+
+    static final String PENDING_DELETIONS_FILE = "pending-deletions.log";
+
+    /**
+     * Rewrite the log once it holds this many records more than there are pending users.
+     */
+    private static final int COMPACTION_MIN_RECORDS = 1000;
+
+    @Value("${security.keystore.location}")
+    private String keystoreLocation;
+
+    /**
+     * In seconds.
+     */
+    @Value("${security.delete.delay}")
+    private int deleteDelay;
+
+    /**
+     * In milliseconds.
+     */
+    @Value("${security.delete.wheel.resolution}")
+    private long resolution;
+
+    @Value("${security.delete.wheel.size}")
+    private int wheelSize;
+
+    @Autowired
+    private Gson gson;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    @Autowired
+    private DurableFileWriter durableFileWriter;
+
+    private final AtomicLong marked = new AtomicLong();
+
+    private final AtomicLong expired = new AtomicLong();
+
+    private final AtomicLong purged = new AtomicLong();
+
+    private TimingWheel<String> timingWheel;
+
+    private JsonLinesLog<Record> log;
+
+    /**
+     * Key is a marked username. Value is the epoch millisecond its mark expires. Changed while holding this.
+     */
+    private final Map<String, Long> marks = new ConcurrentHashMap<>();
+
+    /**
+     * Confirmed users in order of confirmation. Guarded by this.
+     */
+    private final LinkedHashSet<String> confirmed = new LinkedHashSet<>();
+
+    /**
+     * Confirmed users whose confirmation is durable, read without locking. Changed while holding this.
+     */
+    private final Set<String> durablyConfirmed = ConcurrentHashMap.newKeySet();
+
+    private int records;
+
+
+    @PostConstruct
+    public void initialize() throws IOException {
+        this.timingWheel = new TimingWheel<>(this.resolution, this.wheelSize, this::expire);
+        final File logFile = new File(this.keystoreLocation, PENDING_DELETIONS_FILE);
+        logFile.getParentFile().mkdirs();
+        this.log = new JsonLinesLog<>(logFile, Record.class, this.gson, this.durableFileWriter, false);
+
+        this.replay();
+        this.taskScheduler.scheduleAtFixedRate(this.timingWheel::tick, this.resolution);
+    }
+
+    /**
+     * @return false if the user is marked already, the mark keeps its original expiry
+     */
+    public boolean mark(final String username) {
+        Assert.notNull(username);
+
+        final long expiresAt;
+
+        synchronized (this) {
+            if (this.marks.containsKey(username)) {
+                return false;
+            }
+
+            final long delay = TimeUnit.SECONDS.toMillis(this.deleteDelay);
+            expiresAt = System.currentTimeMillis() + delay;
+            this.append(Record.of(Record.Operation.MARK, username, expiresAt));
+
+            this.timingWheel.schedule(username, delay);
+            this.marks.put(username, expiresAt);
+            this.marked.incrementAndGet();
+            this.compactIfNeeded();
+        }
+
+        try {
+            this.sync(username);
+
+        } catch (UncheckedIOException e) {
+            synchronized (this) {
+                if (this.marks.remove(username, expiresAt)) {
+                    this.timingWheel.cancel(username);
+                    this.compactAfterFailedSync();
+                }
+            }
+
+            throw e;
+        }
+
+        return true;
+    }
+
+    public boolean isMarked(final String username) {
+        Assert.notNull(username);
+        return this.marks.containsKey(username);
+    }
+
+    /**
+     * Turns the mark of the user into a confirmed deletion that is waiting to be purged.
+     *
+     * @return false if the user isn't marked, e.g. because the mark just expired
+     */
+    public boolean confirm(final String username) {
+        Assert.notNull(username);
+
+        final Long expiresAt;
+
+        synchronized (this) {
+            expiresAt = this.marks.get(username);
+
+            if (expiresAt == null) {
+                return false;
+            }
+
+            this.append(Record.of(Record.Operation.CONFIRM, username, null));
+
+            this.marks.remove(username);
+            this.timingWheel.cancel(username);
+            this.confirmed.add(username);
+            this.compactIfNeeded();
+        }
+
+        try {
+            this.sync(username);
+
+        } catch (UncheckedIOException e) {
+            synchronized (this) {
+                if (this.confirmed.remove(username)) {
+                    this.marks.put(username, expiresAt);
+                    this.timingWheel.schedule(username, Math.max(0, expiresAt - System.currentTimeMillis()));
+                    this.compactAfterFailedSync();
+                }
+            }
+
+            throw e;
+        }
+
+        // the PurgeWorker only purges users that are confirmed durably, nothing could have undone the confirmation
+        this.durablyConfirmed.add(username);
+
+        return true;
+    }
+
+    public boolean isConfirmed(final String username) {
+        Assert.notNull(username);
+        return this.durablyConfirmed.contains(username);
+    }
+
+    /**
+     * @return up to maxUsers confirmed users in order of confirmation, they stay confirmed until purged
+     */
+    public synchronized List<String> getConfirmed(final int maxUsers) {
+        final List<String> usernames = new ArrayList<>(Math.min(maxUsers, this.confirmed.size()));
+
+        for (String username : this.confirmed) {
+            if (usernames.size() >= maxUsers) {
+                break;
+            }
+
+            usernames.add(username);
+        }
+
+        return usernames;
+    }
+
+    /**
+     * Records that the files of a confirmed user have been removed.
+     */
+    public void purged(final String username) {
+        Assert.notNull(username);
+
+        synchronized (this) {
+            if (!this.confirmed.contains(username)) {
+                return;
+            }
+
+            this.append(Record.of(Record.Operation.PURGED, username, null));
+
+            this.confirmed.remove(username);
+            this.durablyConfirmed.remove(username);
+            this.purged.incrementAndGet();
+            this.compactIfNeeded();
+        }
+
+        try {
+            this.sync(username);
+
+        } catch (UncheckedIOException e) {
+            // a purge that is lost in a crash would be replayed into purging the user again, maybe created anew by then
+            synchronized (this) {
+                if (this.confirmed.add(username)) {
+                    this.durablyConfirmed.add(username);
+                    this.compactAfterFailedSync();
+                }
+            }
+
+            throw e;
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final int pending;
+        final int confirmed;
+
+        synchronized (this) {
+            pending = this.marks.size();
+            confirmed = this.confirmed.size();
+        }
+
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("user.deletion.pending", pending));
+        metrics.add(new Metric<>("user.deletion.confirmed", confirmed));
+        metrics.add(new Metric<>("user.deletion.marked", this.marked.get()));
+        metrics.add(new Metric<>("user.deletion.expired", this.expired.get()));
+        metrics.add(new Metric<>("user.deletion.purged", this.purged.get()));
+
+        return metrics;
+    }
+
+    private void expire(final String username) {
+
+        synchronized (this) {
+            // confirm may have removed the mark while the wheel was handing it over
+            if (this.marks.remove(username) == null) {
+                return;
+            }
+
+            logger.info("Remove user from the mark deletion list: {}", username);
+            this.expired.incrementAndGet();
+
+            // the wheel has let go of the mark already, a mark whose expiry isn't logged is dropped by the replay
+            try {
+                this.append(Record.of(Record.Operation.EXPIRE, username, null));
+                this.compactIfNeeded();
+            } catch (UncheckedIOException e) {
+                logger.warn("Unable to log expired mark of user {}: {}", username, e.getMessage());
+                return;
+            }
+        }
+
+        try {
+            this.sync(username);
+        } catch (UncheckedIOException e) {
+            logger.warn("Unable to log expired mark of user {}: {}", username, e.getMessage());
+        }
+    }
+
+    private void append(final Record record) {
+
+        try {
+            this.log.append(record);
+            this.records++;
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write pending deletion of user " + record.username, e);
+        }
+    }
+
+    private void sync(final String username) {
+
+        try {
+            this.log.sync();
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write pending deletion of user " + username, e);
+        }
+    }
+
+    /**
+     * The change whose fsync failed has been undone in memory, rewriting the log from memory drops its record in
+     * case it reaches the disk after all.
+     */
+    private void compactAfterFailedSync() {
+
+        try {
+            this.compact();
+        } catch (UncheckedIOException e) {
+            logger.error("Unable to drop the record of a failed pending deletion change", e);
+        }
+    }
+
+    /**
+     * The change is logged and applied already, a failed compaction leaves the longer log in place.
+     */
+    private void compactIfNeeded() {
+
+        if (this.records > COMPACTION_MIN_RECORDS + this.marks.size() + this.confirmed.size()) {
+            try {
+                this.compact();
+            } catch (UncheckedIOException e) {
+                logger.error("Unable to compact pending deletions, will retry with the next change", e);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the marks and confirmed users from the log, marks that expired while the service was down are
+     * dropped. The log is rewritten with what is left.
+     */
+    private synchronized void replay() throws IOException {
+
+        this.log.replay(record -> record.applyTo(this.marks, this.confirmed));
+        this.durablyConfirmed.addAll(this.confirmed);
+
+        final long now = System.currentTimeMillis();
+        this.marks.entrySet().removeIf(mark -> mark.getValue() <= now);
+        this.marks.forEach((username, expiresAt) -> this.timingWheel.schedule(username, expiresAt - now));
+
+        this.compact();
+        logger.info("Restored {} marked and {} confirmed user deletions", this.marks.size(), this.confirmed.size());
+    }
+
+    private void compact() {
+
+        final List<Record> records = new ArrayList<>(this.marks.size() + this.confirmed.size());
+
+        for (Map.Entry<String, Long> mark : this.marks.entrySet()) {
+            records.add(Record.of(Record.Operation.MARK, mark.getKey(), mark.getValue()));
+        }
+
+        for (String username : this.confirmed) {
+            records.add(Record.of(Record.Operation.CONFIRM, username, null));
+        }
+
+        try {
+            this.log.rewrite(records);
+            this.records = records.size();
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to compact pending deletions: " + this.log.getFile(), e);
+        }
+    }
+
+    /**
+     * A single line in the pending deletions log.
+     */
+    private static class Record {
+
+        private enum Operation {
+            MARK, EXPIRE, CONFIRM, PURGED
+        }
+
+        private Operation op;
+
+        private String username;
+
+        private Long expiresAt;
+
+        static Record of(final Operation op, final String username, final Long expiresAt) {
+            final Record record = new Record();
+            record.op = op;
+            record.username = username;
+            record.expiresAt = expiresAt;
+            return record;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the record misses its operation, user or expiry
+         */
+        void applyTo(final Map<String, Long> marks, final LinkedHashSet<String> confirmed) {
+            Assert.notNull(this.op, "Record has no operation");
+            Assert.notNull(this.username, "Record has no username");
+
+            if (this.op == Operation.MARK) {
+                Assert.notNull(this.expiresAt, "Mark has no expiry");
+                marks.put(this.username, this.expiresAt);
+            } else if (this.op == Operation.EXPIRE) {
+                marks.remove(this.username);
+            } else if (this.op == Operation.CONFIRM) {
+                marks.remove(this.username);
+                confirmed.add(this.username);
+            } else if (this.op == Operation.PURGED) {
+                confirmed.remove(this.username);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package io.eion.security.passkeeper.service;
+
+import io.eion.security.passkeeper.service.auth.UserVerifiers;
+import io.eion.security.passkeeper.service.cache.SecureAccountSnapshots;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the KeyStore and the secure accounts of users whose deletion has been confirmed. Runs in the
+ * background in batches of security.delete.purge.batch users and purges at most security.delete.purge.rate
+ * users a second, so offboarding a large number of users doesn't starve online traffic of disk I/O. The worker
+ * paces itself by sleeping, so it runs on a thread of its own rather than holding up the tasks of the shared
+ * TaskScheduler.
+ * <p>
+ * The accounts are removed before the KeyStore, a user can't be created again while its KeyStore exists. The
+ * verifier is removed once more after the KeyStore, in case an authentication that loaded the KeyStore before the
+ * deletion enrolled the user again.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class PurgeWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(PurgeWorker.class);
+
+    /**
+     * In milliseconds.
+     */
+    @Value("${security.delete.purge.interval}")
+    private long purgeInterval;
+
+    @Value("${security.delete.purge.batch}")
+    private int batchSize;
+
+    /**
+     * Users per second.
+     */
+    @Value("${security.delete.purge.rate}")
+    private int purgeRate;
+
+    @Autowired
+    private PendingDeletions pendingDeletions;
+
+    @Autowired
+    private KeystoreManager keystoreManager;
+
+    @Autowired
+    private SecureAccountStore secureAccountStore;
+
+    @Autowired
+    private SecureAccountSnapshots secureAccountSnapshots;
+
+    @Autowired
+    private UserVerifiers userVerifiers;
+
+    private volatile boolean closed;
+
+    private Thread worker;
+
+
+    @PostConstruct
+    public void initialize() {
+        Assert.isTrue(this.purgeRate > 0, "security.delete.purge.rate must be positive");
+
+        this.worker = new Thread(this::purgeBatches, "purge-worker");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Stops the worker, a batch that is under way is cut short after the user being purged.
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+
+        if (this.worker == null) {
+            return;
+        }
+
+        this.closed = true;
+        this.worker.interrupt();
+        this.worker.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    /**
+     * Purges the next batch of confirmed users, pacing the purges to the configured rate.
+     */
+    public void purgeBatch() {
+
+        final List<String> usernames = this.pendingDeletions.getConfirmed(this.batchSize);
+        final long interval = TimeUnit.SECONDS.toNanos(1) / this.purgeRate;
+        int purged = 0;
+
+        for (String username : usernames) {
+            final long start = System.nanoTime();
+
+            try {
+                if (this.purge(username)) {
+                    purged++;
+                }
+
+            } catch (Exception e) {
+                logger.error("Unable to purge user, will retry: " + username, e);
+            }
+
+            final long remaining = interval - (System.nanoTime() - start);
+
+            if (remaining > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        if (purged > 0) {
+            logger.info("Purged {} deleted users", purged);
+        }
+    }
+
+    private void purgeBatches() {
+
+        while (!this.closed) {
+            try {
+                this.purgeBatch();
+                TimeUnit.MILLISECONDS.sleep(this.purgeInterval);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Unable to purge deleted users, will retry", e);
+            }
+        }
+    }
+
+    /**
+     * Purges a single confirmed user right away, e.g. before the same username is created again.
+     *
+     * @return false if the user is not waiting to be purged
+     */
+    public synchronized boolean purge(final String username) throws Exception {
+        Assert.notNull(username);
+
+        if (!this.pendingDeletions.isConfirmed(username)) {
+            return false;
+        }
+
+        this.secureAccountStore.deleteSecureAccountStore(username);
+        this.secureAccountSnapshots.invalidate(username);
+        this.keystoreManager.purgeKeyStore(username);
+        this.userVerifiers.remove(username);
+        this.pendingDeletions.purged(username);
+
+        return true;
+    }
+}
@@ -3,6 +3,7 @@ package io.eion.security.passkeeper.service;
 import io.eion.security.passkeeper.service.annotation.WriteOperation;
 import io.eion.security.passkeeper.service.bean.SecureAccount;
 import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.bean.SecureAccountResult;
 
 import java.util.List;
 import java.util.Optional;
@@ -28,12 +29,47 @@ public interface SecureAccountService {
 
     Optional<SecureAccount> getSecureAccount(SecureAccountRequest secureAccountRequest);
 
+    /**
+     * Reads and decrypts several accounts of the user at once. The KeyStore and the accounts of the user are only
+     * read once and the passwords are decrypted in parallel.
+     *
+     * @param secureAccountRequest username and master password of the user
+     * @param accountAliases       accounts to read, null to read every account of the user
+     * @return the accounts in the order of the aliases, or of the account alias if every account is read. Aliases
+     * without an account are left out.
+     */
+    List<SecureAccount> getSecureAccounts(SecureAccountRequest secureAccountRequest, List<String> accountAliases);
+
     List<String> getSecureAccountAliases(SecureAccountRequest secureAccountRequest);
 
     @WriteOperation
     SecureAccount updateSecureAccount(SecureAccountRequest secureAccountRequest);
 
+    /**
+     * Creates or updates several accounts of the user at once. Every entry is validated first, invalid entries
+     * are rejected and the others are persisted with a single KeyStore save and a single account store write,
+     * either all of them or none. The KeyStore is saved before the accounts are written, a failure to write them
+     * removes the secret keys created for the batch again. A crash in between can only leave secret keys without
+     * accounts, which the next write of the same aliases reuses, never accounts without their keys.
+     *
+     * @param secureAccountRequest username and master password of the user
+     * @param secureAccountRequests account alias, account username and password of every entry
+     * @return the result of every entry in the order of the entries
+     */
+    @WriteOperation
+    List<SecureAccountResult> updateSecureAccounts(SecureAccountRequest secureAccountRequest, List<SecureAccountRequest> secureAccountRequests);
+
     @WriteOperation
     Optional<SecureAccount> deleteSecureAccount(SecureAccountRequest secureAccountRequest);
 
+    /**
+     * Deletes several accounts of the user at once, with a single account store write and a single KeyStore save.
+     *
+     * @param secureAccountRequest username and master password of the user
+     * @param accountAliases       accounts to delete
+     * @return the aliases of the accounts that were deleted, aliases without an account are left out
+     */
+    @WriteOperation
+    List<String> deleteSecureAccounts(SecureAccountRequest secureAccountRequest, List<String> accountAliases);
+
 }
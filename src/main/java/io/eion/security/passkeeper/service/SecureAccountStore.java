@@ -3,6 +3,8 @@ package io.eion.security.passkeeper.service;
 import io.eion.security.passkeeper.service.bean.SecureAccount;
 import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -12,9 +14,35 @@ public interface SecureAccountStore {
 
     void storeSecureAccount(SecureAccount secureAccount) throws Exception;
 
+    /**
+     * Stores several accounts of the user as a single write, either all of them are stored or none. The write is
+     * on disk when this returns, also in a store that writes single accounts behind, and the store is unchanged if
+     * this throws.
+     *
+     * @param username
+     * @param secureAccounts
+     */
+    void storeSecureAccounts(String username, Collection<SecureAccount> secureAccounts) throws Exception;
+
     void deleteSecureAccountStore(String username) throws Exception;
 
     Optional<SecureAccount> getSecureAccount(SecureAccountRequest secureAccountRequest) throws Exception;
 
+    /**
+     * Reads every account of the user at once.
+     *
+     * @param username
+     * @return accounts keyed by account alias, a copy the caller is free to modify
+     */
+    Map<String, SecureAccount> getSecureAccounts(String username) throws Exception;
+
     void deleteSecureAccountPassword(SecureAccountRequest secureAccountRequest) throws Exception;
+
+    /**
+     * Deletes several accounts of the user as a single write, aliases without an account are ignored.
+     *
+     * @param username
+     * @param accountAliases
+     */
+    void deleteSecureAccountPasswords(String username, Collection<String> accountAliases) throws Exception;
 }
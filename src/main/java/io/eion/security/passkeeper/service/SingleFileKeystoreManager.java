@@ -0,0 +1,67 @@
+package io.eion.security.passkeeper.service;
+
+import io.eion.security.passkeeper.service.storage.VaultFile;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.Collections;
+
+/**
+ * Keeps the serialized JCEKS KeyStore of every user in the shared vault file instead of one file per user.
+ * Enabled with security.keystore.store=single-file.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Service
+@ConditionalOnProperty(name = "security.keystore.store", havingValue = "single-file")
+public class SingleFileKeystoreManager extends AbstractKeystoreManager {
+
+    static final String KEYSTORE_KEY_PREFIX = "keystore/";
+
+    @Autowired
+    private VaultFile vaultFile;
+
+
+    @Override
+    protected boolean keyStoreExists(final String username) {
+        return this.vaultFile.contains(createKeyStoreKey(username));
+    }
+
+    @Override
+    protected InputStream readKeyStore(final String username) throws Exception {
+        final byte[] keyStoreBytes = this.vaultFile.get(createKeyStoreKey(username)).orElseThrow(IllegalStateException::new);
+        return new ByteArrayInputStream(keyStoreBytes);
+    }
+
+    @Override
+    protected void writeKeyStore(final String username, final KeyStore keyStore, final char[] masterPassword) throws Exception {
+
+        final ByteArrayOutputStream keyStoreBytes = new ByteArrayOutputStream();
+        keyStore.store(keyStoreBytes, masterPassword);
+        this.vaultFile.put(createKeyStoreKey(username), keyStoreBytes.toByteArray());
+    }
+
+    @Override
+    protected boolean removeKeyStore(final String username) throws Exception {
+
+        final String keyStoreKey = createKeyStoreKey(username);
+
+        if (!this.vaultFile.contains(keyStoreKey)) {
+            return false;
+        }
+
+        this.vaultFile.delete(Collections.singletonList(keyStoreKey));
+        return true;
+    }
+
+    static String createKeyStoreKey(final String username) {
+        Assert.notNull(username);
+        return KEYSTORE_KEY_PREFIX + username;
+    }
+}
@@ -0,0 +1,137 @@
+package io.eion.security.passkeeper.service;
+
+import com.google.gson.Gson;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.storage.VaultFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps every secure account as its own entry in the shared vault file, keyed by username and account alias,
+ * so reading or writing one account never touches the other accounts of the user. The username is prefixed with
+ * its length, a username may contain the separator and the keys of one user must never share a prefix with
+ * another user's, e.g. "joe" and "joe/x".
+ * Enabled with security.account.store=single-file.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Service
+@ConditionalOnProperty(name = "security.account.store", havingValue = "single-file")
+public class SingleFileSecureAccountStore implements SecureAccountStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SingleFileSecureAccountStore.class);
+
+    static final String ACCOUNT_KEY_PREFIX = "account/";
+
+    @Autowired
+    private VaultFile vaultFile;
+
+    @Autowired
+    private Gson gson;
+
+
+    @Override
+    public void storeSecureAccount(final SecureAccount secureAccount) throws Exception {
+        Assert.notNull(secureAccount);
+
+        final String accountKey = createAccountKey(secureAccount.getUsername(), secureAccount.getAccountAlias());
+        this.vaultFile.put(accountKey, this.gson.toJson(secureAccount).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void storeSecureAccounts(final String username, final Collection<SecureAccount> secureAccounts) throws Exception {
+        Assert.notNull(username);
+        Assert.notNull(secureAccounts);
+
+        final Map<String, byte[]> puts = new LinkedHashMap<>();
+
+        for (SecureAccount secureAccount : secureAccounts) {
+            puts.put(createAccountKey(username, secureAccount.getAccountAlias()), this.gson.toJson(secureAccount).getBytes(StandardCharsets.UTF_8));
+        }
+
+        this.vaultFile.write(puts, Collections.emptyList());
+    }
+
+    @Override
+    public void deleteSecureAccountStore(final String username) throws Exception {
+        Assert.notNull(username);
+
+        this.vaultFile.delete(this.vaultFile.keys(createAccountKeyPrefix(username)));
+    }
+
+    @Override
+    public Optional<SecureAccount> getSecureAccount(final SecureAccountRequest secureAccountRequest) throws Exception {
+        Assert.notNull(secureAccountRequest);
+
+        final String accountKey = createAccountKey(secureAccountRequest.getUsername(), secureAccountRequest.getAccountAlias());
+        return this.vaultFile.get(accountKey).map(bytes -> this.gson.fromJson(new String(bytes, StandardCharsets.UTF_8), SecureAccount.class));
+    }
+
+    @Override
+    public Map<String, SecureAccount> getSecureAccounts(final String username) throws Exception {
+        Assert.notNull(username);
+
+        final String accountKeyPrefix = createAccountKeyPrefix(username);
+        final Map<String, SecureAccount> secureAccounts = new HashMap<>();
+
+        for (String accountKey : this.vaultFile.keys(accountKeyPrefix)) {
+            final Optional<byte[]> bytes = this.vaultFile.get(accountKey);
+
+            if (bytes.isPresent()) {
+                final String accountAlias = accountKey.substring(accountKeyPrefix.length());
+                secureAccounts.put(accountAlias, this.gson.fromJson(new String(bytes.get(), StandardCharsets.UTF_8), SecureAccount.class));
+            }
+        }
+
+        return secureAccounts;
+    }
+
+    @Override
+    public void deleteSecureAccountPassword(final SecureAccountRequest secureAccountRequest) throws Exception {
+        Assert.notNull(secureAccountRequest);
+
+        final String accountKey = createAccountKey(secureAccountRequest.getUsername(), secureAccountRequest.getAccountAlias());
+        this.vaultFile.delete(Collections.singletonList(accountKey));
+        logger.info("Removed secure account: {}", secureAccountRequest.getAccountAlias());
+    }
+
+    @Override
+    public void deleteSecureAccountPasswords(final String username, final Collection<String> accountAliases) throws Exception {
+        Assert.notNull(username);
+        Assert.notNull(accountAliases);
+
+        final List<String> accountKeys = new ArrayList<>(accountAliases.size());
+
+        for (String accountAlias : accountAliases) {
+            accountKeys.add(createAccountKey(username, accountAlias));
+        }
+
+        this.vaultFile.delete(accountKeys);
+        logger.info("Removed {} secure accounts of user {}", accountAliases.size(), username);
+    }
+
+    static String createAccountKeyPrefix(final String username) {
+        Assert.notNull(username);
+        return ACCOUNT_KEY_PREFIX + username.length() + ":" + username + "/";
+    }
+
+    static String createAccountKey(final String username, final String accountAlias) {
+        Assert.notNull(accountAlias);
+        return createAccountKeyPrefix(username) + accountAlias;
+    }
+}
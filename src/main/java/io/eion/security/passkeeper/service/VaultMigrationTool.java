@@ -0,0 +1,102 @@
+package io.eion.security.passkeeper.service;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.storage.UserFileLayout;
+import io.eion.security.passkeeper.service.storage.VaultFile;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Offline migration of the one-file-per-user layout under security.keystore.location into a vault file, both
+ * flat and fan-out directories are picked up.
+ * Keystores are copied as is so no master password is needed. The accounts of a user are read from its account
+ * log if it has one, as written by LogStructuredSecureAccountStore, and from its JSON account file otherwise. The
+ * application must not be running.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp passkeeper.jar -Dloader.main=io.eion.security.passkeeper.service.VaultMigrationTool \
+ *     org.springframework.boot.loader.PropertiesLauncher &lt;keystore location&gt; &lt;vault file&gt;
+ * </pre>
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class VaultMigrationTool {
+
+    public static void main(final String[] args) throws Exception {
+
+        if (args.length != 2) {
+            System.err.println("Usage: VaultMigrationTool <keystore location> <vault file>");
+            System.exit(1);
+        }
+
+        final File keystoreLocation = new File(args[0]);
+
+        if (!keystoreLocation.isDirectory()) {
+            System.err.println("Keystore location is not a directory: " + keystoreLocation);
+            System.exit(1);
+        }
+
+        final List<File> keyStoreFiles;
+
+        try (Stream<Path> paths = Files.walk(keystoreLocation.toPath(), UserFileLayout.FANOUT_DEPTH)) {
+            keyStoreFiles = paths.map(Path::toFile)
+                    .filter(file -> file.isFile() && file.getName().endsWith(DefaultKeystoreManager.KEYSTORE_EXT))
+                    .collect(Collectors.toList());
+        }
+
+        final Gson gson = new Gson();
+        final Type mapType = new TypeToken<Map<String, SecureAccount>>() { }.getType();
+        int migratedUsers = 0;
+
+        try (VaultFile vaultFile = new VaultFile(new File(args[1]), false, 1)) {
+            for (File keyStoreFile : keyStoreFiles) {
+                final String fileName = keyStoreFile.getName();
+                final String username = fileName.substring(0, fileName.length() - DefaultKeystoreManager.KEYSTORE_EXT.length());
+                final Map<String, byte[]> entries = new HashMap<>();
+                entries.put(SingleFileKeystoreManager.createKeyStoreKey(username), Files.readAllBytes(keyStoreFile.toPath()));
+
+                final File accountLogFile = new File(keyStoreFile.getParentFile(), username + LogStructuredSecureAccountStore.ACCOUNT_LOG_EXT);
+                final File accountFile = new File(keyStoreFile.getParentFile(), username + DefaultSecureAccountStore.ACCOUNT_EXT);
+                Map<String, SecureAccount> secureAccounts = Collections.emptyMap();
+
+                // the account log supersedes the JSON file, which is only left over if its migration was interrupted
+                if (accountLogFile.exists()) {
+                    secureAccounts = LogStructuredSecureAccountStore.readAccountLog(accountLogFile, gson);
+
+                } else if (accountFile.exists()) {
+                    final String secureAccountJSON = new String(Files.readAllBytes(accountFile.toPath()), StandardCharsets.UTF_8);
+
+                    if (!StringUtils.isEmpty(secureAccountJSON)) {
+                        secureAccounts = gson.fromJson(secureAccountJSON, mapType);
+                    }
+                }
+
+                for (Map.Entry<String, SecureAccount> secureAccount : secureAccounts.entrySet()) {
+                    final String accountKey = SingleFileSecureAccountStore.createAccountKey(username, secureAccount.getKey());
+                    entries.put(accountKey, gson.toJson(secureAccount.getValue()).getBytes(StandardCharsets.UTF_8));
+                }
+
+                vaultFile.write(entries, Collections.emptyList());
+                migratedUsers++;
+            }
+
+            vaultFile.compact();
+        }
+
+        System.out.println("Migrated " + migratedUsers + " users into " + args[1]);
+    }
+}
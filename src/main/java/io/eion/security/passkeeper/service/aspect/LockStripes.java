@@ -0,0 +1,95 @@
+package io.eion.security.passkeeper.service.aspect;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Fixed size table of read write locks. A username always maps to the same stripe, so memory doesn't grow
+ * with the number of users at the cost of unrelated users occasionally sharing a lock.
+ * <p>
+ * Every stripe counts how often it was acquired, how often a caller had to wait for it and for how long.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+class LockStripes {
+
+    private final Stripe[] stripes;
+
+    private final int mask;
+
+
+    /**
+     * @param stripes rounded up to the next power of two
+     */
+    LockStripes(final int stripes) {
+        Assert.isTrue(stripes > 0, "Number of lock stripes must be positive");
+
+        final int size = Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new Stripe[Math.max(size, 1)];
+        this.mask = this.stripes.length - 1;
+
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    Stripe getStripe(final String username) {
+        Assert.notNull(username);
+
+        // spread the hash so usernames that only differ in their last characters don't cluster
+        final int hash = username.hashCode();
+        return this.stripes[(hash ^ (hash >>> 16)) & this.mask];
+    }
+
+    int size() {
+        return this.stripes.length;
+    }
+
+    Stripe getStripe(final int index) {
+        return this.stripes[index];
+    }
+
+    static class Stripe {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private final AtomicLong acquisitions = new AtomicLong();
+
+        private final AtomicLong contentions = new AtomicLong();
+
+        private final AtomicLong waitNanos = new AtomicLong();
+
+        /**
+         * Acquires the read or write lock, waiting only after an uncontended attempt failed so the
+         * common path doesn't read the clock.
+         */
+        Lock lock(final boolean write) {
+            final Lock lock = write ? this.lock.writeLock() : this.lock.readLock();
+            this.acquisitions.incrementAndGet();
+
+            if (!lock.tryLock()) {
+                this.contentions.incrementAndGet();
+                final long start = System.nanoTime();
+                lock.lock();
+                this.waitNanos.addAndGet(System.nanoTime() - start);
+            }
+
+            return lock;
+        }
+
+        long getAcquisitions() {
+            return this.acquisitions.get();
+        }
+
+        long getContentions() {
+            return this.contentions.get();
+        }
+
+        long getWaitNanos() {
+            return this.waitNanos.get();
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package io.eion.security.passkeeper.service.aspect;
 
+import io.eion.security.passkeeper.service.DefaultSecureAccountService;
 import io.eion.security.passkeeper.service.annotation.WriteOperation;
+import io.eion.security.passkeeper.service.audit.AuditEvent;
+import io.eion.security.passkeeper.service.audit.AuditLog;
 import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.metrics.StageTimers;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
@@ -9,65 +13,173 @@ import org.aspectj.lang.annotation.Pointcut;
 import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * More information about lock can be found here:
  * http://flex4java.blogspot.com/2015/02/lock-reentrantlock-reentrantreadwritelo.html
+ * <p>
+ * Users are mapped onto a fixed number of lock stripes instead of getting a lock each, see LockStripes.
+ * Only methods annotated with WriteOperation take the write lock of the stripe, resolved once per method. Reads
+ * don't lock at all, they are served from versioned snapshots and never wait for a writer, see
+ * SecureAccountSnapshots.
+ * <p>
+ * Every call is timed as the total stage of its operation in the StageTimers, the time spent waiting for the lock
+ * as the lock stage, and the stages timed further down run tagged with the operation.
+ * <p>
+ * Every call is recorded as an AuditEvent with its user, account alias and outcome, a call returning false, i.e. a
+ * failed authentication, is recorded as a failure.
  *
  * @author <a href="joelin@digitalriver.com">Joe Lin</a>
  */
 @Aspect
 @Component
-public class SynchronizedServiceAspect {
+public class SynchronizedServiceAspect implements PublicMetrics {
 
     private static final Logger logger = LoggerFactory.getLogger(SynchronizedServiceAspect.class);
 
+    @Value("${security.lock.stripes}")
+    private int stripes;
+
+    @Autowired
+    private StageTimers stageTimers;
+
+    @Autowired
+    private AuditLog auditLog;
+
+    private LockStripes lockStripes;
+
     /**
-     * Key is the username. Value is the lock that is used to synchronize read and write operation
-     * within SecureAccountService.
+     * Key is a service method. Value is true if the method is a write operation.
      */
-    private ConcurrentHashMap<String, ReentrantReadWriteLock> locks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Method, Boolean> writeOperations = new ConcurrentHashMap<>();
+
 
+    @PostConstruct
+    public void initialize() {
+        this.lockStripes = new LockStripes(this.stripes);
 
-    @Around("secureAccountService() && args(secureAccountRequest)")
+        for (Method method : DefaultSecureAccountService.class.getMethods()) {
+            this.writeOperations.put(method, isWriteOperation(method));
+        }
+    }
+
+    /**
+     * Matches every service method taking a SecureAccountRequest as first argument.
+     */
+    @Around("secureAccountService() && args(secureAccountRequest, ..)")
     public Object controlAccess(final ProceedingJoinPoint pjp, final SecureAccountRequest secureAccountRequest) throws Throwable {
+        return this.proceedLocked(pjp, secureAccountRequest.getUsername(), secureAccountRequest.getAccountAlias());
+    }
+
+    /**
+     * Matches the user level service methods taking username and master password.
+     */
+    @Around("secureAccountService() && args(username, masterPassword)")
+    public Object controlUserAccess(final ProceedingJoinPoint pjp, final String username, final String masterPassword) throws Throwable {
+        return this.proceedLocked(pjp, username, null);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        long acquisitions = 0;
+        long contentions = 0;
+
+        for (int i = 0; i < this.lockStripes.size(); i++) {
+            final LockStripes.Stripe stripe = this.lockStripes.getStripe(i);
+            acquisitions += stripe.getAcquisitions();
+            contentions += stripe.getContentions();
+
+            metrics.add(new Metric<>("lock.stripe." + i + ".contentions", stripe.getContentions()));
+            metrics.add(new Metric<>("lock.stripe." + i + ".wait", TimeUnit.NANOSECONDS.toMillis(stripe.getWaitNanos())));
+        }
+
+        metrics.add(new Metric<>("lock.acquisitions", acquisitions));
+        metrics.add(new Metric<>("lock.contentions", contentions));
+
+        return metrics;
+    }
+
+    private Object proceedLocked(final ProceedingJoinPoint pjp, final String username, final String accountAlias) throws Throwable {
+
+        final Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        final boolean writeOperation = this.writeOperations.computeIfAbsent(method, SynchronizedServiceAspect::isWriteOperation);
+        final String previousOperation = this.stageTimers.enter(method.getName());
+        final long start = this.stageTimers.start();
+        final long auditStart = this.auditLog.isEnabled() ? System.nanoTime() : 0;
+        Throwable error = null;
+        Object result = null;
 
-        final String username = secureAccountRequest.getUsername();
-        final Lock lock = this.obtainReadWriteLock(username, pjp);
-        logger.debug("Obtained lock of type {} for user: {}", lock.getClass().getSimpleName(), username);
         try {
-            lock.lock();
+            if (!writeOperation) {
+                result = pjp.proceed();
+                return result;
+            }
+
+            final Lock lock = this.lockStripes.getStripe(username).lock(true);
+            this.stageTimers.stop(StageTimers.LOCK, start);
+
             logger.trace("Lock for user: {}", username);
-            return pjp.proceed();
+            try {
+                result = pjp.proceed();
+                return result;
+            } finally {
+                lock.unlock();
+                logger.trace("Unlock for user: {}", username);
+            }
+
+        } catch (Throwable e) {
+            error = e;
+            throw e;
         } finally {
-            lock.unlock();
-            logger.trace("Unlock for user: {}", username);
+            this.stageTimers.stop(StageTimers.TOTAL, start);
+            this.stageTimers.exit(previousOperation);
+
+            if (this.auditLog.isEnabled()) {
+                this.audit(method, username, accountAlias, auditStart, result, error);
+            }
         }
     }
 
-    private Lock obtainReadWriteLock(final String username, final ProceedingJoinPoint pjp) {
-        ReentrantReadWriteLock lock = this.locks.get(username);
+    private void audit(final Method method, final String username, final String accountAlias, final long start,
+                       final Object result, final Throwable error) {
 
-        if (lock == null) {
-            ReentrantReadWriteLock cached = new ReentrantReadWriteLock();
-            lock = this.locks.putIfAbsent(username, cached);
+        final AuditEvent.Builder builder = AuditEvent.builder(method.getName(), username)
+                .durationNanos(System.nanoTime() - start);
 
-            if (lock == null) {
-                lock = cached;
-            }
+        if (accountAlias != null) {
+            builder.field("accountAlias", accountAlias);
         }
 
-        MethodSignature signature = (MethodSignature) pjp.getSignature();
-        Method method = signature.getMethod();
-        final boolean writeOperation = method.isAnnotationPresent(WriteOperation.class);
+        if (error != null) {
+            builder.outcome(AuditEvent.Outcome.ERROR).field("error", error.getClass().getSimpleName());
+        } else if (Boolean.FALSE.equals(result)) {
+            builder.outcome(AuditEvent.Outcome.FAILURE);
+        }
 
-        return writeOperation ? lock.writeLock() : lock.readLock();
+        this.auditLog.record(builder.build());
+    }
+
+    /**
+     * Finds the annotation on the method or the interface method it implements.
+     */
+    private static boolean isWriteOperation(final Method method) {
+        return AnnotationUtils.findAnnotation(method, WriteOperation.class) != null;
     }
 
     @Pointcut("target(io.eion.security.passkeeper.service.DefaultSecureAccountService)")
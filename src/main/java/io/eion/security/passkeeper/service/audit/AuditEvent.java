@@ -0,0 +1,204 @@
+package io.eion.security.passkeeper.service.audit;
+
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import org.springframework.util.Assert;
+
+import java.security.Key;
+import java.security.KeyStore;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Structured record of a service call: when, which operation of which user, how it ended and how long it took,
+ * plus a few named fields. Creating one only captures references, it is rendered as a JSON line by the AuditLog
+ * writer thread, off the calling thread.
+ * <p>
+ * Values that are secrets by type, i.e. keys, KeyStores, raw key and password arrays and the request and account
+ * beans carrying master or account passwords, are never captured, they are rendered as "&lt;redacted&gt;" no
+ * matter how they got passed in.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public final class AuditEvent {
+
+    static final String REDACTED = "<redacted>";
+
+    private static final Class<?>[] SECRET_TYPES = {Key.class, KeyStore.class, KeyStore.Entry.class, byte[].class,
+            char[].class, SecureAccountRequest.class, SecureAccount.class};
+
+    public enum Outcome {
+        SUCCESS, FAILURE, ERROR
+    }
+
+    private final long timestamp;
+
+    private final String operation;
+
+    private final String username;
+
+    private final Outcome outcome;
+
+    private final long durationNanos;
+
+    private final Map<String, Object> fields;
+
+
+    private AuditEvent(final Builder builder) {
+        this.timestamp = builder.timestamp;
+        this.operation = builder.operation;
+        this.username = builder.username;
+        this.outcome = builder.outcome;
+        this.durationNanos = builder.durationNanos;
+        this.fields = builder.fields;
+    }
+
+    public static Builder builder(final String operation, final String username) {
+        Assert.notNull(operation);
+
+        return new Builder(operation, username);
+    }
+
+    public String getOperation() {
+        return this.operation;
+    }
+
+    public String getUsername() {
+        return this.username;
+    }
+
+    public Outcome getOutcome() {
+        return this.outcome;
+    }
+
+    /**
+     * @return the field, "&lt;redacted&gt;" in place of a secret
+     */
+    public Object getField(final String name) {
+        return this.fields.get(name);
+    }
+
+    /**
+     * Renders the event as a single line JSON object, e.g.
+     * <pre>
+     * {"time":"2016-09-14T08:00:00Z","operation":"getSecureAccount","username":"joe","outcome":"SUCCESS","micros":412,"accountAlias":"mail"}
+     * </pre>
+     */
+    public String render() {
+        final StringBuilder builder = new StringBuilder(128);
+
+        builder.append('{');
+        appendField(builder, "time", Instant.ofEpochMilli(this.timestamp).toString());
+        builder.append(',');
+        appendField(builder, "operation", this.operation);
+        builder.append(',');
+        appendField(builder, "username", this.username);
+        builder.append(',');
+        appendField(builder, "outcome", this.outcome);
+        builder.append(',');
+        appendField(builder, "micros", this.durationNanos / 1000);
+
+        for (Map.Entry<String, Object> field : this.fields.entrySet()) {
+            builder.append(',');
+            appendField(builder, field.getKey(), field.getValue());
+        }
+
+        return builder.append('}').toString();
+    }
+
+    @Override
+    public String toString() {
+        return this.render();
+    }
+
+    static boolean isSecret(final Object value) {
+
+        for (Class<?> secretType : SECRET_TYPES) {
+            if (secretType.isInstance(value)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static void appendField(final StringBuilder builder, final String name, final Object value) {
+        appendString(builder, name);
+        builder.append(':');
+
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            builder.append(value);
+        } else {
+            appendString(builder, value.toString());
+        }
+    }
+
+    private static void appendString(final StringBuilder builder, final String value) {
+        builder.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+
+        builder.append('"');
+    }
+
+
+    public static final class Builder {
+
+        private final long timestamp = System.currentTimeMillis();
+
+        private final String operation;
+
+        private final String username;
+
+        private Outcome outcome = Outcome.SUCCESS;
+
+        private long durationNanos;
+
+        private final Map<String, Object> fields = new LinkedHashMap<>(4);
+
+
+        private Builder(final String operation, final String username) {
+            this.operation = operation;
+            this.username = username;
+        }
+
+        public Builder outcome(final Outcome outcome) {
+            Assert.notNull(outcome);
+
+            this.outcome = outcome;
+            return this;
+        }
+
+        public Builder durationNanos(final long durationNanos) {
+            this.durationNanos = durationNanos;
+            return this;
+        }
+
+        /**
+         * Adds a field rendered with toString when the event is written, a secret is replaced right away.
+         */
+        public Builder field(final String name, final Object value) {
+            Assert.notNull(name);
+
+            this.fields.put(name, isSecret(value) ? REDACTED : value);
+            return this;
+        }
+
+        public AuditEvent build() {
+            return new AuditEvent(this);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package io.eion.security.passkeeper.service.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands audit events to a single writer thread through a bounded ring buffer. Recording never blocks the service
+ * call: a full buffer drops the event and counts it instead. The writer renders the events and logs them to the
+ * audit logger, whose appenders are configured in logback.xml, so neither rendering nor appender I/O happens on
+ * the calling thread.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class AuditLog implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditLog.class);
+
+    static final String AUDIT_LOGGER = "audit";
+
+    private static final int BATCH_SIZE = 256;
+
+    private static final long POLL_MILLIS = 100;
+
+    private final Logger auditLogger = LoggerFactory.getLogger(AUDIT_LOGGER);
+
+    @Value("${security.audit.enabled}")
+    private boolean enabled;
+
+    @Value("${security.audit.queue-size}")
+    private int queueSize;
+
+    private BlockingQueue<AuditEvent> events;
+
+    private final AtomicLong recorded = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private volatile boolean closed;
+
+    private Thread writer;
+
+
+    @PostConstruct
+    public void initialize() {
+
+        if (!this.enabled) {
+            return;
+        }
+
+        Assert.isTrue(this.queueSize > 0, "Audit queue size must be positive");
+
+        this.events = new ArrayBlockingQueue<>(this.queueSize);
+        this.writer = new Thread(this::writeEvents, "audit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Queues the event to be written, drops it if the buffer is full or auditing is disabled.
+     */
+    public void record(final AuditEvent event) {
+        Assert.notNull(event);
+
+        if (!this.enabled) {
+            return;
+        }
+
+        if (this.events.offer(event)) {
+            this.recorded.incrementAndGet();
+        } else {
+            this.dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes the queued events and stops the writer.
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+
+        if (this.writer == null) {
+            return;
+        }
+
+        this.closed = true;
+        this.writer.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return this.enabled ? Arrays.asList(
+                new Metric<>("audit.recorded", this.recorded.get()),
+                new Metric<>("audit.dropped", this.dropped.get()),
+                new Metric<>("audit.written", this.written.get()),
+                new Metric<>("audit.pending", this.events.size())) : new ArrayList<>();
+    }
+
+    private void writeEvents() {
+        final List<AuditEvent> batch = new ArrayList<>(BATCH_SIZE);
+
+        while (true) {
+            try {
+                final AuditEvent event = this.events.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (event == null) {
+                    if (this.closed) {
+                        return;
+                    }
+
+                    continue;
+                }
+
+                batch.add(event);
+                this.events.drainTo(batch, BATCH_SIZE - 1);
+
+                // events are rendered only if the audit logger is going to write them
+                if (this.auditLogger.isInfoEnabled()) {
+                    for (AuditEvent audited : batch) {
+                        this.auditLogger.info(audited.render());
+                    }
+                }
+
+                this.written.addAndGet(batch.size());
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Unable to write audit events, dropped " + batch.size(), e);
+                this.dropped.addAndGet(batch.size());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package io.eion.security.passkeeper.service.auth;
+
+import com.google.gson.Gson;
+import io.eion.security.passkeeper.service.cache.PasswordVerifier;
+import io.eion.security.passkeeper.service.storage.DurableFileWriter;
+import io.eion.security.passkeeper.service.storage.JsonLinesLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Password verifiers of the users, so authentication doesn't need to load and unlock the user's JCEKS file.
+ * <p>
+ * A verifier is a salted PBKDF2WithHmacSHA256 hash of the master password with security.auth.verifier.iterations
+ * iterations, 52 bytes per user including salt and cost. The first successful check of a password also keeps a
+ * HMAC of it with a key that only lives in this process, so repeated checks of the same password cost a single
+ * HMAC while a wrong password always pays the full cost.
+ * <p>
+ * Every change is appended to a log next to the keystores, which is replayed and rewritten on startup. Users
+ * without a verifier, e.g. created before the table existed, are enrolled the first time they authenticate
+ * against their KeyStore.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class UserVerifiers implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserVerifiers.class);
+
+    static final String USER_VERIFIERS_FILE = "user-verifiers.log";
+
+    private static final String KDF_ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    private static final int SALT_LENGTH = 16;
+
+    private static final int HASH_LENGTH = 32;
+
+    /**
+     * Rewrite the log once it holds this many records more than there are verifiers.
+     */
+    private static final int COMPACTION_MIN_RECORDS = 1000;
+
+    @Value("${security.keystore.location}")
+    private String keystoreLocation;
+
+    @Value("${security.auth.verifier.enabled}")
+    private boolean enabled;
+
+    @Value("${security.auth.verifier.iterations}")
+    private int iterations;
+
+    @Autowired
+    private Gson gson;
+
+    @Autowired
+    private DurableFileWriter durableFileWriter;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    private final PasswordVerifier passwordVerifier = new PasswordVerifier();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong hashes = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final Map<String, Verifier> verifiers = new ConcurrentHashMap<>();
+
+    private JsonLinesLog<Record> log;
+
+    /**
+     * Guarded by this.
+     */
+    private int records;
+
+
+    @PostConstruct
+    public void initialize() throws IOException {
+        Assert.isTrue(this.iterations > 0, "security.auth.verifier.iterations must be positive");
+
+        final File logFile = new File(this.keystoreLocation, USER_VERIFIERS_FILE);
+        logFile.getParentFile().mkdirs();
+        this.log = new JsonLinesLog<>(logFile, Record.class, this.gson, this.durableFileWriter, true);
+
+        this.replay();
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * @return empty if the user has no verifier yet, otherwise whether the password matches it
+     */
+    public Optional<Boolean> verify(final String username, final String password) {
+        Assert.notNull(username);
+        Assert.notNull(password);
+
+        final Verifier verifier = this.enabled ? this.verifiers.get(username) : null;
+
+        if (verifier == null) {
+            this.misses.incrementAndGet();
+            return Optional.empty();
+        }
+
+        this.hits.incrementAndGet();
+
+        final byte[] accepted = verifier.accepted;
+
+        if (accepted != null && MessageDigest.isEqual(accepted, this.passwordVerifier.createVerifier(verifier.salt, password))) {
+            return Optional.of(true);
+        }
+
+        if (!MessageDigest.isEqual(verifier.hash, this.hash(password, verifier.salt, verifier.iterations))) {
+            this.failures.incrementAndGet();
+            return Optional.of(false);
+        }
+
+        verifier.accepted = this.passwordVerifier.createVerifier(verifier.salt, password);
+        return Optional.of(true);
+    }
+
+    /**
+     * Replaces the verifier of the user with one of the password, the caller has verified the password already.
+     */
+    public void enroll(final String username, final String password) {
+        this.enroll(username, password, () -> true);
+    }
+
+    /**
+     * Enrolls the user only while the user still exists. The check runs under the lock that remove takes, so a
+     * user whose deletion removes the verifier after a concurrent authentication loaded its KeyStore isn't
+     * enrolled again by that authentication.
+     *
+     * @param exists checks that the user hasn't been deleted since the caller verified the password
+     * @return false if the user no longer exists or verifiers are disabled
+     */
+    public boolean enroll(final String username, final String password, final BooleanSupplier exists) {
+        Assert.notNull(username);
+        Assert.notNull(password);
+        Assert.notNull(exists);
+
+        if (!this.enabled) {
+            return false;
+        }
+
+        final byte[] salt = new byte[SALT_LENGTH];
+        this.secureRandom.nextBytes(salt);
+
+        final Verifier verifier = new Verifier(salt, this.iterations, this.hash(password, salt, this.iterations));
+        verifier.accepted = this.passwordVerifier.createVerifier(salt, password);
+
+        synchronized (this) {
+            if (!exists.getAsBoolean()) {
+                return false;
+            }
+
+            this.append(Record.put(username, verifier));
+            this.verifiers.put(username, verifier);
+            this.compactIfNeeded();
+        }
+
+        return true;
+    }
+
+    public void remove(final String username) {
+        Assert.notNull(username);
+
+        synchronized (this) {
+            if (this.verifiers.containsKey(username)) {
+                this.append(Record.remove(username));
+                this.verifiers.remove(username);
+                this.compactIfNeeded();
+            }
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("auth.verifier.users", this.verifiers.size()));
+        metrics.add(new Metric<>("auth.verifier.hits", this.hits.get()));
+        metrics.add(new Metric<>("auth.verifier.misses", this.misses.get()));
+        metrics.add(new Metric<>("auth.verifier.hashes", this.hashes.get()));
+        metrics.add(new Metric<>("auth.verifier.failures", this.failures.get()));
+
+        return metrics;
+    }
+
+    private byte[] hash(final String password, final byte[] salt, final int iterations) {
+
+        final PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH * 8);
+
+        try {
+            this.hashes.incrementAndGet();
+            return SecretKeyFactory.getInstance(KDF_ALGORITHM).generateSecret(keySpec).getEncoded();
+
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to hash password: " + e.getMessage(), e);
+
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    private void append(final Record record) {
+
+        try {
+            this.log.append(record);
+            this.records++;
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write verifier of user " + record.username, e);
+        }
+    }
+
+    /**
+     * The change is logged and applied already, a failed compaction leaves the longer log in place.
+     */
+    private void compactIfNeeded() {
+
+        if (this.records > COMPACTION_MIN_RECORDS + this.verifiers.size()) {
+            try {
+                this.compact();
+            } catch (UncheckedIOException e) {
+                logger.error("Unable to compact user verifiers, will retry with the next change", e);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the verifiers from the log and rewrites it with what is left.
+     */
+    private synchronized void replay() throws IOException {
+
+        final Map<String, Verifier> replayed = new HashMap<>();
+        this.log.replay(record -> record.applyTo(replayed));
+        this.verifiers.putAll(replayed);
+
+        this.compact();
+        logger.info("Restored {} user verifiers", this.verifiers.size());
+    }
+
+    private void compact() {
+
+        final List<Record> records = new ArrayList<>(this.verifiers.size());
+        this.verifiers.forEach((username, verifier) -> records.add(Record.put(username, verifier)));
+
+        try {
+            this.log.rewrite(records);
+            this.records = records.size();
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to compact user verifiers: " + this.log.getFile(), e);
+        }
+    }
+
+    /**
+     * Salted hash of a password and the HMAC of the last password that matched it.
+     */
+    private static class Verifier {
+
+        private final byte[] salt;
+
+        private final int iterations;
+
+        private final byte[] hash;
+
+        /**
+         * Never persisted, the HMAC key doesn't survive the process.
+         */
+        private volatile byte[] accepted;
+
+        Verifier(final byte[] salt, final int iterations, final byte[] hash) {
+            this.salt = salt;
+            this.iterations = iterations;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * A single line in the user verifiers log.
+     */
+    private static class Record {
+
+        private enum Operation {
+            PUT, REMOVE
+        }
+
+        private Operation op;
+
+        private String username;
+
+        private String salt;
+
+        private Integer iterations;
+
+        private String hash;
+
+        static Record put(final String username, final Verifier verifier) {
+            final Record record = new Record();
+            record.op = Operation.PUT;
+            record.username = username;
+            record.salt = new String(Hex.encode(verifier.salt));
+            record.iterations = verifier.iterations;
+            record.hash = new String(Hex.encode(verifier.hash));
+            return record;
+        }
+
+        static Record remove(final String username) {
+            final Record record = new Record();
+            record.op = Operation.REMOVE;
+            record.username = username;
+            return record;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the record misses a field or holds one that can't be decoded
+         */
+        void applyTo(final Map<String, Verifier> verifiers) {
+            Assert.notNull(this.op, "Record has no operation");
+            Assert.notNull(this.username, "Record has no username");
+
+            if (this.op == Operation.PUT) {
+                Assert.notNull(this.salt, "Record has no salt");
+                Assert.notNull(this.hash, "Record has no hash");
+                Assert.isTrue(this.iterations != null && this.iterations > 0, "Record has no iterations");
+
+                verifiers.put(this.username, new Verifier(Hex.decode(this.salt), this.iterations,
+                        Hex.decode(this.hash)));
+            } else if (this.op == Operation.REMOVE) {
+                verifiers.remove(this.username);
+            }
+        }
+    }
+}
@@ -22,13 +22,29 @@ public class SecureAccount {
 
     private transient final String password;
 
+    /**
+     * @return the account with only its encrypted password, for anything that is kept in memory
+     */
+    public SecureAccount withoutPassword() {
+
+        if (this.password == null) {
+            return this;
+        }
+
+        return SecureAccount.builder()
+                .username(this.username)
+                .accountAlias(this.accountAlias)
+                .accountUsername(this.accountUsername)
+                .encryptedPassword(this.encryptedPassword).build();
+    }
+
     @Override
     public String toString() {
         return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
                 .append("username", username)
                 .append("accountAlias", accountAlias)
                 .append("accountUsername", accountUsername)
-                .append("encryptedPassword", encryptedPassword)
+                .append("encryptedPassword", "<masked>")
                 .append("password", "<masked>")
                 .toString();
     }
@@ -30,7 +30,7 @@ public class SecureAccountRequest {
                 .append("masterPassword", "<masked>")
                 .append("accountAlias", accountAlias)
                 .append("accountUsername", accountUsername)
-                .append("password", "<masked")
+                .append("password", "<masked>")
                 .toString();
     }
 }
@@ -0,0 +1,24 @@
+package io.eion.security.passkeeper.service.bean;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Outcome of a single entry of a batch write.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Value
+@Builder
+public class SecureAccountResult {
+
+    public enum Status {
+        CREATED, UPDATED, REJECTED
+    }
+
+    private final String accountAlias;
+
+    private final Status status;
+
+    private final String message;
+}
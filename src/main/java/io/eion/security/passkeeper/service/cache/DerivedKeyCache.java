@@ -0,0 +1,189 @@
+package io.eion.security.passkeeper.service.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, TTL evicting cache of password derived AES keys so PBKDF2 runs once per master password and salt
+ * instead of on every encrypt or decrypt.
+ * <p>
+ * Entries are keyed by a verifier of the salt and master password, so neither is held by the cache. The key
+ * bytes are zeroed when an entry is evicted, expires or the cache is cleared. Callers get their own copy of
+ * the key, taken while holding the cache lock, so zeroing an entry never affects a key that is in use.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class DerivedKeyCache implements PublicMetrics {
+
+    @Value("${security.crypto.key.cache.size}")
+    private int maxSize;
+
+    /**
+     * In seconds.
+     */
+    @Value("${security.crypto.key.cache.ttl}")
+    private int ttl;
+
+    private final PasswordVerifier passwordVerifier = new PasswordVerifier();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Access ordered so the least recently used entry is evicted first when the cache is full.
+     */
+    private final LinkedHashMap<ByteBuffer, DerivedKey> derivedKeys = new LinkedHashMap<ByteBuffer, DerivedKey>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, DerivedKey> eldest) {
+
+            if (this.size() > DerivedKeyCache.this.maxSize) {
+                eldest.getValue().destroy();
+                return true;
+            }
+
+            return false;
+        }
+    };
+
+
+    /**
+     * @param keyDerivation derives the key bytes on a miss, the cache takes ownership of the returned array and zeroes it
+     */
+    public SecretKey get(final byte[] salt, final CharSequence masterPassword, final Supplier<byte[]> keyDerivation) {
+        Assert.notNull(salt);
+        Assert.notNull(masterPassword);
+        Assert.notNull(keyDerivation);
+
+        if (this.maxSize <= 0) {
+            this.misses.incrementAndGet();
+            return this.copyAndDestroy(keyDerivation.get());
+        }
+
+        final ByteBuffer verifier = ByteBuffer.wrap(this.passwordVerifier.createVerifier(salt, masterPassword));
+
+        synchronized (this.derivedKeys) {
+            final DerivedKey derivedKey = this.derivedKeys.get(verifier);
+
+            if (derivedKey != null) {
+                if (!derivedKey.isExpired(System.nanoTime())) {
+                    this.hits.incrementAndGet();
+                    return derivedKey.copy();
+                }
+
+                this.derivedKeys.remove(verifier);
+                derivedKey.destroy();
+            }
+        }
+
+        this.misses.incrementAndGet();
+
+        // derive outside the lock, two threads missing on the same key at once just derive it twice
+        final long now = System.nanoTime();
+        final DerivedKey derivedKey = new DerivedKey(keyDerivation.get(), now + TimeUnit.SECONDS.toNanos(this.ttl));
+
+        synchronized (this.derivedKeys) {
+            this.removeExpired(now);
+
+            final DerivedKey replaced = this.derivedKeys.put(verifier, derivedKey);
+
+            if (replaced != null) {
+                replaced.destroy();
+            }
+
+            return derivedKey.copy();
+        }
+    }
+
+    public void clear() {
+        synchronized (this.derivedKeys) {
+            this.derivedKeys.values().forEach(DerivedKey::destroy);
+            this.derivedKeys.clear();
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final int size;
+
+        synchronized (this.derivedKeys) {
+            size = this.derivedKeys.size();
+        }
+
+        final long hits = this.hits.get();
+        final long lookups = hits + this.misses.get();
+
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("crypto.key.cache.hits", hits));
+        metrics.add(new Metric<>("crypto.key.cache.misses", lookups - hits));
+        metrics.add(new Metric<>("crypto.key.cache.hit.rate", lookups == 0 ? 0.0 : (double) hits / lookups));
+        metrics.add(new Metric<>("crypto.key.cache.size", size));
+
+        return metrics;
+    }
+
+    private SecretKey copyAndDestroy(final byte[] keyBytes) {
+        try {
+            return new SecretKeySpec(keyBytes, DerivedKey.ALGORITHM);
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+    }
+
+    private void removeExpired(final long now) {
+        final Iterator<DerivedKey> iterator = this.derivedKeys.values().iterator();
+
+        while (iterator.hasNext()) {
+            final DerivedKey derivedKey = iterator.next();
+
+            if (derivedKey.isExpired(now)) {
+                derivedKey.destroy();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class DerivedKey {
+
+        private static final String ALGORITHM = "AES";
+
+        private final byte[] keyBytes;
+
+        private final long expiresAt;
+
+        DerivedKey(final byte[] keyBytes, final long expiresAt) {
+            this.keyBytes = keyBytes;
+            this.expiresAt = expiresAt;
+        }
+
+        SecretKey copy() {
+            return new SecretKeySpec(this.keyBytes, ALGORITHM);
+        }
+
+        boolean isExpired(final long now) {
+            return now - this.expiresAt >= 0;
+        }
+
+        void destroy() {
+            Arrays.fill(this.keyBytes, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package io.eion.security.passkeeper.service.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, TTL evicting cache of unlocked KeyStore instances so the JCEKS file doesn't need to be
+ * read and decrypted on every request.
+ * <p>
+ * The cache keeps a snapshot of the KeyStore as it was last loaded or saved, together with the secret keys that
+ * have been unsealed from it, and hands every caller a KeyStore of its own on top of the snapshot, see
+ * KeyStoreSnapshot. A hit neither parses the file nor derives a key from the master password to unseal a secret
+ * key that has been read before, and the unlocked keys live in memory for the TTL. Writers change their copy
+ * with setEntry or deleteEntry and put it back only after it has been saved, so readers never see half applied
+ * changes and a failed save leaves nothing unsaved behind.
+ * <p>
+ * Every invalidation bumps a generation of the user and a KeyStore is only put if the generation is still the
+ * one read before the KeyStore was read from disk. A reader that read the file before a writer saved it can
+ * therefore not replace the saved KeyStore with its stale copy, like with the SecureAccountSnapshots the
+ * generations are kept for a fixed number of stripes of users.
+ * <p>
+ * Entries are keyed by username and guarded by a verifier of the master password, which is a HMAC
+ * computed with a key that only lives in this process. A lookup with a different master password
+ * is treated as a miss so the caller falls back to loading the file, which does the actual password check.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class KeyStoreCache implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyStoreCache.class);
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    @Value("${security.keystore.cache.size}")
+    private int maxSize;
+
+    /**
+     * In seconds.
+     */
+    @Value("${security.keystore.cache.ttl}")
+    private int ttl;
+
+    private final PasswordVerifier passwordVerifier = new PasswordVerifier();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Generation of the users of a stripe, bumped by every invalidation of one of them under the lock of the
+     * KeyStores.
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    /**
+     * Access ordered so the least recently used entry is evicted first when the cache is full.
+     */
+    private final LinkedHashMap<String, CachedKeyStore> keyStores = new LinkedHashMap<String, CachedKeyStore>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CachedKeyStore> eldest) {
+            return this.size() > KeyStoreCache.this.maxSize;
+        }
+    };
+
+
+    public Optional<KeyStore> get(final String username, final String masterPassword) {
+        Assert.notNull(username);
+        Assert.notNull(masterPassword);
+
+        if (this.maxSize <= 0) {
+            return Optional.empty();
+        }
+
+        final byte[] verifier = this.passwordVerifier.createVerifier(username, masterPassword);
+        CachedKeyStore found = null;
+
+        synchronized (this.keyStores) {
+            final CachedKeyStore cachedKeyStore = this.keyStores.get(username);
+
+            if (cachedKeyStore != null) {
+                if (cachedKeyStore.isExpired(System.nanoTime())) {
+                    this.keyStores.remove(username);
+
+                } else if (MessageDigest.isEqual(cachedKeyStore.verifier, verifier)) {
+                    found = cachedKeyStore;
+                }
+            }
+        }
+
+        KeyStore keyStore = null;
+
+        if (found != null) {
+            try {
+                keyStore = found.snapshot.newKeyStore();
+
+            } catch (Exception e) {
+                logger.warn("Unable to load cached KeyStore of user: " + username, e);
+                keyStore = null;
+                this.invalidate(username);
+            }
+        }
+
+        (keyStore != null ? this.hits : this.misses).incrementAndGet();
+        return Optional.ofNullable(keyStore);
+    }
+
+    /**
+     * @return the generation to put a KeyStore read from now on with
+     */
+    public long getGeneration(final String username) {
+        Assert.notNull(username);
+        return this.generations.get(stripe(username));
+    }
+
+    /**
+     * Caches the KeyStore as it is now, it must only be put once it has been loaded or saved, later changes
+     * to the instance aren't seen by the cache. Nothing is cached if the user got invalidated since the
+     * generation was read.
+     *
+     * @param generation generation read before the KeyStore was read or, by a writer, returned by invalidate
+     *                   after the KeyStore was saved
+     */
+    public void put(final String username, final String masterPassword, final KeyStore keyStore, final long generation) {
+        Assert.notNull(username);
+        Assert.notNull(masterPassword);
+        Assert.notNull(keyStore);
+
+        if (this.maxSize <= 0) {
+            return;
+        }
+
+        final KeyStoreSnapshot snapshot;
+
+        try {
+            snapshot = KeyStoreSnapshot.of(keyStore, masterPassword.toCharArray());
+
+        } catch (Exception e) {
+            logger.warn("Unable to cache KeyStore of user: " + username, e);
+            this.invalidate(username);
+            return;
+        }
+
+        final long now = System.nanoTime();
+        final long expiresAt = now + TimeUnit.SECONDS.toNanos(this.ttl);
+        final CachedKeyStore cachedKeyStore = new CachedKeyStore(this.passwordVerifier.createVerifier(username, masterPassword),
+                snapshot, expiresAt);
+
+        synchronized (this.keyStores) {
+            this.removeExpired(now);
+
+            if (this.getGeneration(username) == generation) {
+                this.keyStores.put(username, cachedKeyStore);
+            }
+        }
+    }
+
+    /**
+     * Drops the KeyStore of the user and fails the puts of every KeyStore read before.
+     *
+     * @return the new generation of the user
+     */
+    public long invalidate(final String username) {
+        Assert.notNull(username);
+
+        synchronized (this.keyStores) {
+            this.keyStores.remove(username);
+            return this.generations.incrementAndGet(stripe(username));
+        }
+    }
+
+    public void clear() {
+        synchronized (this.keyStores) {
+            this.keyStores.clear();
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final int size;
+
+        synchronized (this.keyStores) {
+            size = this.keyStores.size();
+        }
+
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("keystore.cache.hits", this.hits.get()));
+        metrics.add(new Metric<>("keystore.cache.misses", this.misses.get()));
+        metrics.add(new Metric<>("keystore.cache.size", size));
+
+        return metrics;
+    }
+
+    private static int stripe(final String username) {
+        return (username.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    private void removeExpired(final long now) {
+        final Iterator<CachedKeyStore> iterator = this.keyStores.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class CachedKeyStore {
+
+        private final byte[] verifier;
+
+        private final KeyStoreSnapshot snapshot;
+
+        private final long expiresAt;
+
+        CachedKeyStore(final byte[] verifier, final KeyStoreSnapshot snapshot, final long expiresAt) {
+            this.verifier = verifier;
+            this.snapshot = snapshot;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(final long now) {
+            return now - this.expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package io.eion.security.passkeeper.service.cache;
+
+import org.springframework.util.Assert;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.KeyStoreSpi;
+import java.security.Provider;
+import java.security.Security;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable state of a cached KeyStore of secret keys, shared by every caller it is handed out to.
+ * <p>
+ * The serialized KeyStore is only parsed again to write changes to it or for the rare lookup that needs more than
+ * a secret key, and a secret key is only unsealed the first time any caller asks for it. Unsealing a JCEKS entry
+ * derives a key from the master password and costs far more than parsing the whole file, so the unlocked keys
+ * are what makes a cached KeyStore cheap to use.
+ * <p>
+ * Every caller gets a KeyStore of its own on top of the snapshot. Its changes stay with that KeyStore, they are
+ * sealed when it is stored and become a new snapshot once it is put back into the cache.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+final class KeyStoreSnapshot {
+
+    private static final String TYPE = "JCEKS";
+
+    private static final Provider PROVIDER = Security.getProvider("SunJCE");
+
+    private final byte[] serialized;
+
+    private final Set<String> aliases;
+
+    /**
+     * Unsealed keys by alias, the master password has been checked before the snapshot is handed out.
+     */
+    private final Map<String, SecretKey> unlockedKeys;
+
+    private volatile KeyStore parsed;
+
+
+    private KeyStoreSnapshot(final byte[] serialized, final Set<String> aliases, final Map<String, SecretKey> unlockedKeys) {
+        this.serialized = serialized;
+        this.aliases = Collections.unmodifiableSet(aliases);
+        this.unlockedKeys = new ConcurrentHashMap<>(unlockedKeys);
+    }
+
+    /**
+     * Takes a snapshot of a loaded or saved KeyStore, later changes to the instance aren't seen by the snapshot.
+     * A KeyStore handed out by a snapshot that has just been stored passes on its serialized form and unlocked
+     * keys, any other KeyStore is serialized, which doesn't unseal any of its keys.
+     */
+    static KeyStoreSnapshot of(final KeyStore keyStore, final char[] masterPassword) throws IOException, GeneralSecurityException {
+        Assert.notNull(keyStore);
+        Assert.notNull(masterPassword);
+
+        if (keyStore instanceof SnapshotKeyStore) {
+            return ((SnapshotKeyStore) keyStore).spi.snapshot(masterPassword);
+        }
+
+        final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        keyStore.store(serialized, masterPassword);
+
+        return new KeyStoreSnapshot(serialized.toByteArray(), new HashSet<>(Collections.list(keyStore.aliases())), Collections.emptyMap());
+    }
+
+    /**
+     * @return a KeyStore of the caller's own on top of the snapshot
+     */
+    KeyStore newKeyStore() throws IOException, GeneralSecurityException {
+        final KeyStore keyStore = new SnapshotKeyStore(new Spi(this));
+        keyStore.load(null, null);
+
+        return keyStore;
+    }
+
+    private SecretKey unlock(final String alias, final char[] password) throws GeneralSecurityException, IOException {
+        SecretKey secretKey = this.unlockedKeys.get(alias);
+
+        if (secretKey == null) {
+            final Key key = this.getParsed().getKey(alias, password);
+
+            if (!(key instanceof SecretKey)) {
+                return null;
+            }
+
+            secretKey = (SecretKey) key;
+            this.unlockedKeys.putIfAbsent(alias, secretKey);
+        }
+
+        return secretKey;
+    }
+
+    /**
+     * Parsed without the master password, the integrity check only guards against a corrupt file and the
+     * serialized form never left the process.
+     */
+    private KeyStore getParsed() throws IOException, GeneralSecurityException {
+        KeyStore parsed = this.parsed;
+
+        if (parsed == null) {
+            parsed = this.parse();
+            this.parsed = parsed;
+        }
+
+        return parsed;
+    }
+
+    private KeyStore parse() throws IOException, GeneralSecurityException {
+        final KeyStore keyStore = KeyStore.getInstance(TYPE);
+        keyStore.load(new ByteArrayInputStream(this.serialized), null);
+
+        return keyStore;
+    }
+
+    /**
+     * JCEKS aliases are case insensitive and listed in lower case.
+     */
+    private static String toAlias(final String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static class SnapshotKeyStore extends KeyStore {
+
+        private final Spi spi;
+
+        SnapshotKeyStore(final Spi spi) {
+            super(spi, PROVIDER, TYPE);
+            this.spi = spi;
+        }
+    }
+
+    /**
+     * Reads through to the snapshot and keeps the changes of a single caller, which is the only thread using it.
+     */
+    private static class Spi extends KeyStoreSpi {
+
+        private final KeyStoreSnapshot snapshot;
+
+        private final Map<String, SecretKey> setKeys = new HashMap<>();
+
+        private final Map<String, Date> setDates = new HashMap<>();
+
+        private final Set<String> deleted = new HashSet<>();
+
+        /**
+         * Serialized form written by the last store, null while there are changes that haven't been stored.
+         */
+        private byte[] stored;
+
+        Spi(final KeyStoreSnapshot snapshot) {
+            this.snapshot = snapshot;
+            this.stored = snapshot.serialized;
+        }
+
+        @Override
+        public Key engineGetKey(final String name, final char[] password) throws UnrecoverableKeyException {
+            final String alias = toAlias(name);
+
+            if (this.setKeys.containsKey(alias)) {
+                return this.setKeys.get(alias);
+            }
+
+            if (this.deleted.contains(alias) || !this.snapshot.aliases.contains(alias)) {
+                return null;
+            }
+
+            try {
+                return this.snapshot.unlock(alias, password);
+
+            } catch (UnrecoverableKeyException e) {
+                throw e;
+            } catch (GeneralSecurityException | IOException e) {
+                final UnrecoverableKeyException unrecoverable = new UnrecoverableKeyException("Unable to unlock key: " + alias);
+                unrecoverable.initCause(e);
+                throw unrecoverable;
+            }
+        }
+
+        @Override
+        public Certificate[] engineGetCertificateChain(final String alias) {
+            return null;
+        }
+
+        @Override
+        public Certificate engineGetCertificate(final String alias) {
+            return null;
+        }
+
+        @Override
+        public Date engineGetCreationDate(final String name) {
+            final String alias = toAlias(name);
+
+            if (this.setDates.containsKey(alias)) {
+                return new Date(this.setDates.get(alias).getTime());
+            }
+
+            if (!this.engineContainsAlias(alias)) {
+                return null;
+            }
+
+            try {
+                return this.snapshot.getParsed().getCreationDate(alias);
+            } catch (IOException | GeneralSecurityException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void engineSetKeyEntry(final String name, final Key key, final char[] password, final Certificate[] chain)
+                throws KeyStoreException {
+            final String alias = toAlias(name);
+
+            if (!(key instanceof SecretKey) || chain != null) {
+                throw new KeyStoreException("Only secret keys can be kept: " + alias);
+            }
+
+            this.setKeys.put(alias, (SecretKey) key);
+            this.setDates.put(alias, new Date());
+            this.deleted.remove(alias);
+            this.stored = null;
+        }
+
+        @Override
+        public void engineSetKeyEntry(final String alias, final byte[] key, final Certificate[] chain) throws KeyStoreException {
+            throw new KeyStoreException("Only secret keys can be kept: " + alias);
+        }
+
+        @Override
+        public void engineSetCertificateEntry(final String alias, final Certificate cert) throws KeyStoreException {
+            throw new KeyStoreException("Only secret keys can be kept: " + alias);
+        }
+
+        @Override
+        public void engineDeleteEntry(final String name) {
+            final String alias = toAlias(name);
+            this.setKeys.remove(alias);
+            this.setDates.remove(alias);
+
+            if (this.snapshot.aliases.contains(alias)) {
+                this.deleted.add(alias);
+            }
+
+            this.stored = null;
+        }
+
+        @Override
+        public Enumeration<String> engineAliases() {
+            return Collections.enumeration(this.aliases());
+        }
+
+        @Override
+        public boolean engineContainsAlias(final String name) {
+            final String alias = toAlias(name);
+            return this.setKeys.containsKey(alias) || (this.snapshot.aliases.contains(alias) && !this.deleted.contains(alias));
+        }
+
+        @Override
+        public int engineSize() {
+            return this.aliases().size();
+        }
+
+        @Override
+        public boolean engineIsKeyEntry(final String alias) {
+            return this.engineContainsAlias(alias);
+        }
+
+        @Override
+        public boolean engineIsCertificateEntry(final String alias) {
+            return false;
+        }
+
+        @Override
+        public String engineGetCertificateAlias(final Certificate cert) {
+            return null;
+        }
+
+        /**
+         * Writes the snapshot with the changes applied, only the keys set since the snapshot are sealed.
+         */
+        @Override
+        public void engineStore(final OutputStream stream, final char[] password) throws IOException {
+
+            if (this.stored == null) {
+                final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+
+                try {
+                    final KeyStore keyStore = this.snapshot.parse();
+
+                    for (String alias : this.deleted) {
+                        keyStore.deleteEntry(alias);
+                    }
+
+                    for (Map.Entry<String, SecretKey> setKey : this.setKeys.entrySet()) {
+                        keyStore.setEntry(setKey.getKey(), new KeyStore.SecretKeyEntry(setKey.getValue()), new KeyStore.PasswordProtection(password));
+                    }
+
+                    keyStore.store(serialized, password);
+
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("Unable to store KeyStore: " + e.getMessage(), e);
+                }
+
+                this.stored = serialized.toByteArray();
+            }
+
+            stream.write(this.stored);
+        }
+
+        @Override
+        public void engineLoad(final InputStream stream, final char[] password) throws IOException {
+
+            if (stream != null) {
+                throw new IOException("A KeyStore handed out by the cache can't be loaded");
+            }
+        }
+
+        KeyStoreSnapshot snapshot(final char[] masterPassword) throws IOException, GeneralSecurityException {
+
+            if (this.stored == null) {
+                this.engineStore(new ByteArrayOutputStream(), masterPassword);
+            }
+
+            final Map<String, SecretKey> unlockedKeys = new HashMap<>(this.snapshot.unlockedKeys);
+            unlockedKeys.keySet().removeAll(this.deleted);
+            unlockedKeys.putAll(this.setKeys);
+
+            return new KeyStoreSnapshot(this.stored, this.aliases(), unlockedKeys);
+        }
+
+        private Set<String> aliases() {
+            final Set<String> aliases = new LinkedHashSet<>(this.snapshot.aliases);
+            aliases.removeAll(this.deleted);
+            aliases.addAll(this.setKeys.keySet());
+
+            return aliases;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package io.eion.security.passkeeper.service.cache;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+
+/**
+ * Computes verifiers of secrets as a HMAC with a key that only lives in this process, so caches can tell
+ * whether a secret matches the one an entry was created with without holding the secret itself.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class PasswordVerifier {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final byte[] verifierKey = new byte[32];
+
+    /**
+     * Mac instances aren't thread safe, each thread keeps one initialized with the verifier key.
+     */
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::createMac);
+
+
+    public PasswordVerifier() {
+        new SecureRandom().nextBytes(this.verifierKey);
+    }
+
+    public byte[] createVerifier(final String... values) {
+        final Mac mac = this.macs.get();
+
+        for (String value : values) {
+            mac.update(value.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+        }
+
+        return mac.doFinal();
+    }
+
+    /**
+     * Hashes the password characters in place so callers holding a char[] don't need to turn it into a String.
+     */
+    public byte[] createVerifier(final byte[] salt, final CharSequence password) {
+        final Mac mac = this.macs.get();
+
+        mac.update(salt);
+        mac.update((byte) 0);
+
+        for (int i = 0; i < password.length(); i++) {
+            final char c = password.charAt(i);
+            mac.update((byte) (c >> 8));
+            mac.update((byte) c);
+        }
+
+        return mac.doFinal();
+    }
+
+    private Mac createMac() {
+
+        try {
+            final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(this.verifierKey, HMAC_ALGORITHM));
+            return mac;
+
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to create verifier: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package io.eion.security.passkeeper.service.cache;
+
+import io.eion.security.passkeeper.service.SecureAccountStore;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Immutable, versioned snapshots of the secure accounts of a user, so reads don't need a lock.
+ * <p>
+ * Readers take whatever snapshot is published and load one from the SecureAccountStore if there is none,
+ * which is only published when no writer got there first. Writers hold the write lock of the user, apply
+ * their change to a copy of the current snapshot after the store has been written and publish the copy
+ * with the next version. Without a current snapshot the writer reloads the store instead, which replaces
+ * anything a reader published from an older read.
+ * <p>
+ * Invalidating a user, e.g. on deletion, bumps a generation of the user before dropping the snapshot, and a
+ * reader or writer whose snapshot was made under an older generation takes it back out, so a read that
+ * raced with the invalidation can't put the stale snapshot back. Generations are kept for a fixed number of
+ * stripes of users rather than per user, invalidating a user only costs the users sharing its stripe a reload.
+ * <p>
+ * Snapshots only hold the encrypted passwords and are dropped after the user has been idle for a while.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class SecureAccountSnapshots implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecureAccountSnapshots.class);
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    /**
+     * In seconds.
+     */
+    @Value("${security.account.idle.timeout}")
+    private int idleTimeout;
+
+    @Autowired
+    private SecureAccountStore secureAccountStore;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    private final AtomicLong loads = new AtomicLong();
+
+    private final AtomicLong publishes = new AtomicLong();
+
+    /**
+     * Key is the username. Value is the latest published snapshot of the user.
+     */
+    private final ConcurrentHashMap<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Generation of the users of a stripe, bumped by every invalidation of one of them.
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+
+    @PostConstruct
+    public void scheduleEviction() {
+        this.taskScheduler.scheduleWithFixedDelay(this::evictIdleSnapshots, TimeUnit.SECONDS.toMillis(this.idleTimeout));
+    }
+
+    /**
+     * Never blocks on a writer, the returned snapshot may be superseded by the time it is used.
+     */
+    public Snapshot get(final String username) throws Exception {
+        Assert.notNull(username);
+
+        Snapshot snapshot = this.snapshots.get(username);
+
+        if (snapshot == null) {
+            this.loads.incrementAndGet();
+            final long generation = this.getGeneration(username);
+            final Snapshot loaded = new Snapshot(0, this.secureAccountStore.getSecureAccounts(username));
+            snapshot = this.snapshots.putIfAbsent(username, loaded);
+
+            if (snapshot == null) {
+                snapshot = loaded;
+                this.unpublishIfInvalidated(username, loaded, generation);
+            }
+        }
+
+        snapshot.lastAccess = System.nanoTime();
+        return snapshot;
+    }
+
+    /**
+     * Publishes the next snapshot of the user. Must be called while holding the write lock of the user and
+     * after the change has been written to the SecureAccountStore.
+     *
+     * @param mutation applied to a copy of the accounts of the current snapshot
+     */
+    public Snapshot publish(final String username, final Consumer<Map<String, SecureAccount>> mutation) throws Exception {
+        Assert.notNull(username);
+        Assert.notNull(mutation);
+
+        final long generation = this.getGeneration(username);
+        final Snapshot current = this.snapshots.get(username);
+        final Snapshot next;
+
+        if (current != null) {
+            final Map<String, SecureAccount> secureAccounts = new HashMap<>(current.secureAccounts);
+            mutation.accept(secureAccounts);
+            next = new Snapshot(current.version + 1, secureAccounts);
+
+        } else {
+            next = new Snapshot(0, this.secureAccountStore.getSecureAccounts(username));
+        }
+
+        this.snapshots.put(username, next);
+        this.unpublishIfInvalidated(username, next, generation);
+        this.publishes.incrementAndGet();
+
+        return next;
+    }
+
+    /**
+     * Drops the snapshot of the user, a snapshot loaded or published concurrently is dropped as well.
+     */
+    public void invalidate(final String username) {
+        Assert.notNull(username);
+
+        this.generations.incrementAndGet(stripe(username));
+        this.snapshots.remove(username);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("account.snapshot.loads", this.loads.get()));
+        metrics.add(new Metric<>("account.snapshot.publishes", this.publishes.get()));
+        metrics.add(new Metric<>("account.snapshot.size", this.snapshots.size()));
+
+        return metrics;
+    }
+
+    private long getGeneration(final String username) {
+        return this.generations.get(stripe(username));
+    }
+
+    /**
+     * Takes the snapshot back out if the user got invalidated since the generation was read, the invalidation
+     * may have removed the previous snapshot before this one was put.
+     */
+    private void unpublishIfInvalidated(final String username, final Snapshot snapshot, final long generation) {
+
+        if (this.getGeneration(username) != generation) {
+            this.snapshots.remove(username, snapshot);
+        }
+    }
+
+    private static int stripe(final String username) {
+        return (username.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    private void evictIdleSnapshots() {
+
+        final long idleSince = System.nanoTime() - TimeUnit.SECONDS.toNanos(this.idleTimeout);
+
+        for (Map.Entry<String, Snapshot> entry : this.snapshots.entrySet()) {
+            if (entry.getValue().lastAccess - idleSince < 0 && this.snapshots.remove(entry.getKey(), entry.getValue())) {
+                logger.debug("Evicted idle secure account snapshot: {}", entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Secure accounts of a user as of a version, never modified once published.
+     */
+    public static class Snapshot {
+
+        private final long version;
+
+        private final Map<String, SecureAccount> secureAccounts;
+
+        private volatile long lastAccess = System.nanoTime();
+
+        Snapshot(final long version, final Map<String, SecureAccount> secureAccounts) {
+            this.version = version;
+            this.secureAccounts = Collections.unmodifiableMap(secureAccounts);
+        }
+
+        public long getVersion() {
+            return this.version;
+        }
+
+        public Optional<SecureAccount> getSecureAccount(final String accountAlias) {
+            return Optional.ofNullable(this.secureAccounts.get(accountAlias));
+        }
+
+        /**
+         * @return accounts keyed by account alias, unmodifiable
+         */
+        public Map<String, SecureAccount> getSecureAccounts() {
+            return this.secureAccounts;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.eion.security.passkeeper.service.concurrent;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed size thread pool with a bounded queue. Once every thread is busy and the queue is full new tasks are
+ * rejected with a RejectedExecutionException instead of piling up, callers are expected to turn that into back
+ * pressure, e.g. a 503 response.
+ * <p>
+ * Exposes the pool and queue size, active, completed and rejected tasks and the total time tasks spent
+ * waiting in the queue as metrics prefixed with executor.{name}.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class InstrumentedExecutor extends ThreadPoolExecutor implements PublicMetrics {
+
+    private final String metricPrefix;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+
+
+    public InstrumentedExecutor(final String name, final int poolSize, final int queueCapacity) {
+        super(poolSize, poolSize, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), new NamedThreadFactory(name));
+        Assert.hasText(name);
+
+        this.metricPrefix = "executor." + name + ".";
+        this.setRejectedExecutionHandler((task, executor) -> {
+            this.rejected.incrementAndGet();
+            throw new RejectedExecutionException(name + " executor is saturated, " + queueCapacity + " tasks are queued already");
+        });
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        Assert.notNull(command);
+
+        final long queuedAt = System.nanoTime();
+        super.execute(() -> {
+            this.queueWaitNanos.addAndGet(System.nanoTime() - queuedAt);
+            command.run();
+        });
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>(this.metricPrefix + "pool", this.getPoolSize()));
+        metrics.add(new Metric<>(this.metricPrefix + "active", this.getActiveCount()));
+        metrics.add(new Metric<>(this.metricPrefix + "queue", this.getQueue().size()));
+        metrics.add(new Metric<>(this.metricPrefix + "completed", this.getCompletedTaskCount()));
+        metrics.add(new Metric<>(this.metricPrefix + "rejected", this.rejected.get()));
+        metrics.add(new Metric<>(this.metricPrefix + "queue.wait", TimeUnit.NANOSECONDS.toMillis(this.queueWaitNanos.get())));
+
+        return metrics;
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String name;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, this.name + "-" + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
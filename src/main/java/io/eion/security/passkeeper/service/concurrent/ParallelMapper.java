@@ -0,0 +1,92 @@
+package io.eion.security.passkeeper.service.concurrent;
+
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Maps a list on a given executor instead of the common ForkJoinPool a parallel stream would use.
+ * <p>
+ * The calling thread maps items itself, next to helper tasks submitted to the executor, and every thread takes
+ * the next unmapped item until none is left. The caller only waits for items another thread is mapping already,
+ * never for a helper that is still queued, so mapping from a thread of the same executor can't deadlock once the
+ * executor is busy. A helper that is rejected by a saturated executor simply leaves its share to the others.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public final class ParallelMapper {
+
+    private ParallelMapper() {
+    }
+
+    /**
+     * @param parallelism most threads, the caller included, mapping at the same time
+     * @return the mapped items in the order of the items
+     * @throws RuntimeException the first exception thrown by the function, the remaining items are then skipped
+     */
+    public static <T, R> List<R> map(final Executor executor, final int parallelism, final List<T> items, final Function<T, R> function) {
+        Assert.notNull(executor);
+        Assert.isTrue(parallelism > 0, "parallelism must be positive");
+        Assert.notNull(items);
+        Assert.notNull(function);
+
+        final int size = items.size();
+        final AtomicReferenceArray<R> results = new AtomicReferenceArray<>(size);
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(size);
+
+        final Runnable worker = () -> {
+            int i;
+
+            while ((i = next.getAndIncrement()) < size) {
+                try {
+                    if (failure.get() == null) {
+                        results.set(i, function.apply(items.get(i)));
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+
+        for (int helper = 1; helper < Math.min(parallelism, size); helper++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+
+        worker.run();
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the mapped items", e);
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        final List<R> mapped = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            mapped.add(results.get(i));
+        }
+
+        return mapped;
+    }
+}
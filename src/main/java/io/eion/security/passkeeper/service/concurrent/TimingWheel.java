@@ -0,0 +1,138 @@
+package io.eion.security.passkeeper.service.concurrent;
+
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel of keys that expire after a delay. A key is put in the bucket of the tick it expires on,
+ * so scheduling and cancelling are O(1) no matter how many keys are pending, and every tick only looks at the
+ * keys of a single bucket. Keys further away than a full turn of the wheel stay in their bucket until the turn
+ * they expire on.
+ * <p>
+ * The wheel doesn't run a thread of its own, whoever owns it calls tick once per tick duration. Expired keys are
+ * handed to the expiry handler on the ticking thread, outside the lock of the wheel.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class TimingWheel<K> {
+
+    private final long tickDuration;
+
+    private final Consumer<K> expiryHandler;
+
+    private final Set<K>[] buckets;
+
+    private final int mask;
+
+    /**
+     * Key is a pending key. Value is the tick it expires on. Guarded by this.
+     */
+    private final Map<K, Long> deadlines = new HashMap<>();
+
+    private long tick;
+
+
+    /**
+     * @param tickDuration  in milliseconds, the resolution of the wheel
+     * @param wheelSize     number of buckets, rounded up to a power of two
+     * @param expiryHandler called with every key that expired
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(final long tickDuration, final int wheelSize, final Consumer<K> expiryHandler) {
+        Assert.isTrue(tickDuration > 0, "Tick duration must be positive");
+        Assert.isTrue(wheelSize > 0, "Wheel size must be positive");
+        Assert.notNull(expiryHandler);
+
+        this.tickDuration = tickDuration;
+        this.expiryHandler = expiryHandler;
+        this.buckets = new Set[Math.max(Integer.highestOneBit(wheelSize - 1) << 1, 1)];
+        this.mask = this.buckets.length - 1;
+
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new HashSet<>();
+        }
+    }
+
+    /**
+     * @param delay in milliseconds, rounded up to whole ticks
+     * @return false if the key is pending already, its expiry is left as is
+     */
+    public synchronized boolean schedule(final K key, final long delay) {
+        Assert.notNull(key);
+
+        if (this.deadlines.containsKey(key)) {
+            return false;
+        }
+
+        final long ticks = Math.max((delay + this.tickDuration - 1) / this.tickDuration, 1);
+        final long deadline = this.tick + ticks;
+
+        this.deadlines.put(key, deadline);
+        this.buckets[(int) (deadline & this.mask)].add(key);
+
+        return true;
+    }
+
+    /**
+     * @return false if the key wasn't pending
+     */
+    public synchronized boolean cancel(final K key) {
+        Assert.notNull(key);
+
+        final Long deadline = this.deadlines.remove(key);
+
+        if (deadline == null) {
+            return false;
+        }
+
+        this.buckets[(int) (deadline & this.mask)].remove(key);
+        return true;
+    }
+
+    public synchronized boolean contains(final K key) {
+        return this.deadlines.containsKey(key);
+    }
+
+    public synchronized int size() {
+        return this.deadlines.size();
+    }
+
+    public long getTickDuration() {
+        return this.tickDuration;
+    }
+
+    /**
+     * Advances the wheel by one tick and expires the keys that are due.
+     *
+     * @return number of expired keys
+     */
+    public int tick() {
+        final List<K> expired = new ArrayList<>();
+
+        synchronized (this) {
+            this.tick++;
+            final Iterator<K> bucket = this.buckets[(int) (this.tick & this.mask)].iterator();
+
+            while (bucket.hasNext()) {
+                final K key = bucket.next();
+
+                if (this.deadlines.get(key) <= this.tick) {
+                    this.deadlines.remove(key);
+                    bucket.remove();
+                    expired.add(key);
+                }
+            }
+        }
+
+        expired.forEach(this.expiryHandler);
+        return expired.size();
+    }
+}
@@ -0,0 +1,13 @@
+package io.eion.security.passkeeper.service.exception;
+
+/**
+ * The master password doesn't unlock the user's KeyStore.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class InvalidMasterPasswordException extends SecureAccountException {
+
+    public InvalidMasterPasswordException(final String msg, final Throwable cause) {
+        super(msg, cause);
+    }
+}
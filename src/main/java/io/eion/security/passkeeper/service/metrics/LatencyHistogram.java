@@ -0,0 +1,108 @@
+package io.eion.security.passkeeper.service.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of durations in nanoseconds in the spirit of HdrHistogram: values below 64 get a bucket
+ * each, above that every power of two is split into 32 buckets, so a percentile is off by at most 1/32 of its
+ * value. Durations beyond about 18 minutes are counted as 18 minutes. Recording is a few array and adder increments
+ * without locks, the whole histogram takes under 10 KB.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int LINEAR_BUCKETS = SUB_BUCKETS * 2;
+
+    private static final int MAX_BIT = 40;
+
+    private static final long MAX_VALUE = (1L << MAX_BIT) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(bucketIndex(MAX_VALUE) + 1);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+
+    public void record(final long nanos) {
+        final long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+
+        this.counts.incrementAndGet(bucketIndex(value));
+        this.count.increment();
+        this.sum.add(value);
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return sum of all recorded durations in nanoseconds
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * @param quantiles ascending, e.g. 0.5, 0.99
+     * @return the highest duration in nanoseconds each quantile of the recorded durations falls into, 0 if nothing
+     * was recorded
+     */
+    public long[] getValuesAt(final double... quantiles) {
+        final long[] snapshot = new long[this.counts.length()];
+        long total = 0;
+
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = this.counts.get(i);
+            total += snapshot[i];
+        }
+
+        final long[] values = new long[quantiles.length];
+
+        if (total == 0) {
+            return values;
+        }
+
+        int bucket = 0;
+        long seen = snapshot[0];
+
+        for (int q = 0; q < quantiles.length; q++) {
+            final long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+
+            while (seen < rank && bucket < snapshot.length - 1) {
+                seen += snapshot[++bucket];
+            }
+
+            values[q] = highestValue(bucket);
+        }
+
+        return values;
+    }
+
+    static int bucketIndex(final long value) {
+
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+
+        final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValue(final int index) {
+
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+
+        final int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        final long subBucket = SUB_BUCKETS + (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
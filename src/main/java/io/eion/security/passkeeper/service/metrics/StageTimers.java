@@ -0,0 +1,156 @@
+package io.eion.security.passkeeper.service.metrics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Latency histograms of the stages of every service call, e.g. waiting for the lock, reading and unlocking the
+ * KeyStore, parsing the account file or decrypting a password, tagged with the service operation they ran in.
+ * <p>
+ * The SynchronizedServiceAspect enters the operation on the calling thread, work a service call hands to other
+ * threads carries the operation along with withOperation. Stages timed outside of a service call, e.g. by the
+ * write-behind flusher, are tagged as background. A stage
+ * is timed with two System.nanoTime calls and a histogram update, with security.metrics.stages.enabled=false
+ * nothing is timed.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class StageTimers implements PublicMetrics {
+
+    public static final String TOTAL = "total";
+
+    public static final String LOCK = "lock";
+
+    public static final String KEYSTORE_READ = "keystore.read";
+
+    public static final String KEYSTORE_LOAD = "keystore.load";
+
+    public static final String KEYSTORE_KEY = "keystore.key";
+
+    public static final String KEYSTORE_WRITE = "keystore.write";
+
+    public static final String ACCOUNT_PARSE = "account.parse";
+
+    public static final String ENCRYPT = "encrypt";
+
+    public static final String DECRYPT = "decrypt";
+
+    public static final String VERIFY = "verify";
+
+    static final String BACKGROUND = "background";
+
+    private static final double[] QUANTILES = {0.5, 0.99};
+
+    @Value("${security.metrics.stages.enabled}")
+    private boolean enabled;
+
+    private final ThreadLocal<String> operation = ThreadLocal.withInitial(() -> BACKGROUND);
+
+    /**
+     * Key is an operation. Value is the histograms of its stages by stage.
+     */
+    private final Map<String, Map<String, LatencyHistogram>> histograms = new ConcurrentHashMap<>();
+
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Tags the stages timed on this thread with the operation until exit is called with the returned value.
+     *
+     * @return the operation entered before
+     */
+    public String enter(final String operation) {
+        Assert.notNull(operation);
+
+        final String previous = this.operation.get();
+        this.operation.set(operation);
+        return previous;
+    }
+
+    public void exit(final String previous) {
+        this.operation.set(previous);
+    }
+
+    /**
+     * Wraps the function so the stages it times are tagged with the operation of this thread, whichever thread
+     * it runs on.
+     */
+    public <T, R> Function<T, R> withOperation(final Function<T, R> function) {
+        Assert.notNull(function);
+
+        final String operation = this.operation.get();
+
+        return item -> {
+            final String previous = this.enter(operation);
+
+            try {
+                return function.apply(item);
+            } finally {
+                this.exit(previous);
+            }
+        };
+    }
+
+    /**
+     * @return the start of a stage to pass to stop, 0 when timing is disabled
+     */
+    public long start() {
+        return this.enabled ? System.nanoTime() : 0;
+    }
+
+    public void stop(final String stage, final long start) {
+
+        if (this.enabled) {
+            this.getHistogram(this.operation.get(), stage).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return histograms by stage by operation
+     */
+    public Map<String, Map<String, LatencyHistogram>> getHistograms() {
+        return this.histograms;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+
+        this.histograms.forEach((operation, stages) -> stages.forEach((stage, histogram) -> {
+            final String prefix = "stage." + operation + "." + stage + ".";
+            final long[] values = histogram.getValuesAt(QUANTILES);
+
+            metrics.add(new Metric<>(prefix + "count", histogram.getCount()));
+            metrics.add(new Metric<>(prefix + "p50", TimeUnit.NANOSECONDS.toMicros(values[0])));
+            metrics.add(new Metric<>(prefix + "p99", TimeUnit.NANOSECONDS.toMicros(values[1])));
+        }));
+
+        return metrics;
+    }
+
+    private LatencyHistogram getHistogram(final String operation, final String stage) {
+
+        Map<String, LatencyHistogram> stages = this.histograms.get(operation);
+
+        if (stages == null) {
+            stages = this.histograms.computeIfAbsent(operation, key -> new ConcurrentHashMap<>());
+        }
+
+        final LatencyHistogram histogram = stages.get(stage);
+        return histogram != null ? histogram : stages.computeIfAbsent(stage, key -> new LatencyHistogram());
+    }
+}
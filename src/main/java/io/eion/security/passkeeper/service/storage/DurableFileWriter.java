@@ -0,0 +1,278 @@
+package io.eion.security.passkeeper.service.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.util.Assert;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replaces files atomically: the content is written to a temporary file next to the target, which is renamed
+ * over the target, so a crash leaves either the old or the new file and never a partially written one.
+ * <p>
+ * How durable the replacement is depends on the sync mode:
+ * <ul>
+ * <li>NONE leaves flushing to the operating system, a crash may lose recent writes but never tears a file.</li>
+ * <li>ALWAYS fsyncs the temporary file before and its directory after the rename, i.e. two fsyncs per write.</li>
+ * <li>GROUP does the same, but writers hand their fsyncs to a single committer thread. Everything requested while
+ * the committer is busy forms the next group and its writers are released together once the group is committed.
+ * The committer fsyncs the distinct paths of a group one after the other, so what concurrent writes save are the
+ * fsyncs of a directory or a log requested more than once within a group, e.g. every write to the same directory
+ * shares a single directory fsync. The file fsyncs themselves are still one per written file, whether the file
+ * system folds them into fewer journal commits is up to it. A single writer doesn't wait longer than with ALWAYS,
+ * unless a group window is set to hold every group open for more writers.</li>
+ * </ul>
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class DurableFileWriter implements PublicMetrics, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DurableFileWriter.class);
+
+    public enum SyncMode {
+        NONE, ALWAYS, GROUP
+    }
+
+    /**
+     * Writes the content of a file.
+     */
+    @FunctionalInterface
+    public interface Content {
+
+        void writeTo(OutputStream stream) throws Exception;
+    }
+
+    private final SyncMode syncMode;
+
+    private final long groupWindowNanos;
+
+    private final AtomicLong writes = new AtomicLong();
+
+    private final AtomicLong syncRequests = new AtomicLong();
+
+    private final AtomicLong fsyncs = new AtomicLong();
+
+    private final AtomicLong groups = new AtomicLong();
+
+    /**
+     * Group the next fsyncs join. Guarded by this.
+     */
+    private Group current = new Group();
+
+    private volatile boolean closed;
+
+    private final Thread committer;
+
+
+    /**
+     * @param groupWindow in milliseconds, how long the committer waits for other writers to join a group
+     */
+    public DurableFileWriter(final SyncMode syncMode, final long groupWindow) {
+        Assert.notNull(syncMode);
+        Assert.isTrue(groupWindow >= 0, "Group window must not be negative");
+
+        this.syncMode = syncMode;
+        this.groupWindowNanos = TimeUnit.MILLISECONDS.toNanos(groupWindow);
+
+        if (syncMode == SyncMode.GROUP) {
+            this.committer = new Thread(this::commitGroups, "group-commit");
+            this.committer.setDaemon(true);
+            this.committer.start();
+        } else {
+            this.committer = null;
+        }
+    }
+
+    public SyncMode getSyncMode() {
+        return this.syncMode;
+    }
+
+    /**
+     * Replaces the file with the content, the file's directory must exist.
+     */
+    public void write(final File file, final Content content) throws Exception {
+        Assert.notNull(file);
+        Assert.notNull(content);
+
+        final File directory = file.getAbsoluteFile().getParentFile();
+        final File tempFile = File.createTempFile("." + file.getName() + ".", ".tmp", directory);
+
+        try {
+            try (FileOutputStream stream = new FileOutputStream(tempFile)) {
+                content.writeTo(stream);
+            }
+
+            this.sync(tempFile.toPath());
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            this.sync(directory.toPath());
+            this.writes.incrementAndGet();
+
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("storage.writes", this.writes.get()));
+        metrics.add(new Metric<>("storage.sync.requests", this.syncRequests.get()));
+        metrics.add(new Metric<>("storage.sync.fsyncs", this.fsyncs.get()));
+        metrics.add(new Metric<>("storage.sync.groups", this.groups.get()));
+
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+
+        if (this.committer != null) {
+            synchronized (this) {
+                this.notifyAll();
+            }
+
+            try {
+                this.committer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Fsyncs a file written in place, e.g. an append-only log, according to the sync mode, in GROUP mode it is
+     * committed with the group of the writes requested meanwhile.
+     */
+    public void sync(final Path path) throws IOException {
+        Assert.notNull(path);
+
+        if (this.syncMode == SyncMode.NONE) {
+            return;
+        }
+
+        this.syncRequests.incrementAndGet();
+
+        if (this.syncMode == SyncMode.ALWAYS) {
+            this.fsync(path);
+            return;
+        }
+
+        final Group group;
+
+        synchronized (this) {
+            if (this.closed) {
+                throw new IOException("Writer is closed");
+            }
+
+            group = this.current;
+            group.paths.add(path);
+            this.notifyAll();
+        }
+
+        try {
+            group.committed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for fsync of " + path);
+        }
+
+        final IOException failure = group.failures.get(path);
+
+        if (failure != null) {
+            throw new IOException("Unable to fsync " + path, failure);
+        }
+    }
+
+    private void fsync(final Path path) throws IOException {
+
+        // a read only channel is enough to fsync a file or a directory on Linux
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+
+        this.fsyncs.incrementAndGet();
+    }
+
+    private void commitGroups() {
+
+        while (true) {
+            final Group group;
+
+            try {
+                synchronized (this) {
+                    while (this.current.paths.isEmpty() && !this.closed) {
+                        this.wait();
+                    }
+
+                    if (this.current.paths.isEmpty()) {
+                        return;
+                    }
+                }
+
+                if (this.groupWindowNanos > 0 && !this.closed) {
+                    TimeUnit.NANOSECONDS.sleep(this.groupWindowNanos);
+                }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Group commit interrupted, pending fsyncs are committed before exiting");
+                this.closed = true;
+            }
+
+            synchronized (this) {
+                group = this.current;
+                this.current = new Group();
+            }
+
+            for (Path path : group.paths) {
+                try {
+                    this.fsync(path);
+                } catch (IOException e) {
+                    group.failures.put(path, e);
+                }
+            }
+
+            this.groups.incrementAndGet();
+            group.committed.countDown();
+        }
+    }
+
+    /**
+     * Paths whose fsync is committed together.
+     */
+    private static class Group {
+
+        /**
+         * Distinct paths in order of request, writers of the same directory share its fsync. Guarded by the
+         * DurableFileWriter until the committer takes the group.
+         */
+        private final Set<Path> paths = new LinkedHashSet<>();
+
+        private final Map<Path, IOException> failures = new HashMap<>();
+
+        private final CountDownLatch committed = new CountDownLatch(1);
+    }
+}
@@ -0,0 +1,218 @@
+package io.eion.security.passkeeper.service.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of JSON records, one per line, that is replayed on startup and rewritten when compacted.
+ * <p>
+ * A record is appended with a single write of the record and its newline and fsynced through the
+ * DurableFileWriter before append returns, a rewrite replaces the log atomically through the DurableFileWriter.
+ * A crash can therefore only tear the last line: replay drops a line without its newline, or whose record can't
+ * be read, at the tail and truncates the log back to the last complete record, so the next append starts on a
+ * line of its own. An unreadable record anywhere else means the log is corrupt and fails the replay.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class JsonLinesLog<R> {
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonLinesLog.class);
+
+    private static final byte NEWLINE = '\n';
+
+    private final File file;
+
+    private final Class<R> recordType;
+
+    private final Gson gson;
+
+    private final DurableFileWriter durableFileWriter;
+
+    private final boolean sync;
+
+
+    /**
+     * @param sync false to leave flushing appended records to the operating system, rewrites are always synced
+     *             according to the sync mode of the DurableFileWriter
+     */
+    public JsonLinesLog(final File file, final Class<R> recordType, final Gson gson, final DurableFileWriter durableFileWriter,
+                        final boolean sync) {
+        Assert.notNull(file);
+        Assert.notNull(recordType);
+        Assert.notNull(gson);
+        Assert.notNull(durableFileWriter);
+
+        this.file = file;
+        this.recordType = recordType;
+        this.gson = gson;
+        this.durableFileWriter = durableFileWriter;
+        this.sync = sync;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public boolean exists() {
+        return this.file.exists();
+    }
+
+    /**
+     * Passes every record of the log to the consumer in order. The consumer rejects a record it can't apply,
+     * e.g. one with missing fields, with an IllegalArgumentException before changing any state, the record is
+     * then treated like an unreadable one.
+     * <p>
+     * The replay truncates whatever follows the last complete record, so it must never run next to an append
+     * to the same log, e.g. a record that is only partly written yet. Callers serialize both with the same lock.
+     *
+     * @return number of records replayed
+     * @throws IOException if a record other than the last one is unreadable
+     */
+    public int replay(final Consumer<R> consumer) throws IOException {
+        Assert.notNull(consumer);
+
+        if (!this.file.exists()) {
+            return 0;
+        }
+
+        int records = 0;
+        long position = 0;
+        long validLength = 0;
+        String unreadable = null;
+
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(this.file))) {
+            final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            int b;
+
+            while (true) {
+                line.reset();
+
+                while ((b = stream.read()) != -1 && b != NEWLINE) {
+                    line.write(b);
+                }
+
+                if (b == -1 && line.size() == 0) {
+                    break;
+                }
+
+                position += line.size() + (b == NEWLINE ? 1 : 0);
+
+                if (unreadable != null) {
+                    throw new IOException("Unreadable record in " + this.file + " followed by more records: " + unreadable);
+                }
+
+                // a line without its newline is a torn write, even if its record happens to be complete
+                if (b == -1) {
+                    unreadable = "missing newline";
+                    break;
+                }
+
+                final String json = new String(line.toByteArray(), StandardCharsets.UTF_8).trim();
+
+                if (!json.isEmpty()) {
+                    try {
+                        final R record = this.gson.fromJson(json, this.recordType);
+
+                        if (record == null) {
+                            throw new IllegalArgumentException("Record is null");
+                        }
+
+                        consumer.accept(record);
+                        records++;
+
+                    } catch (JsonParseException | IllegalArgumentException e) {
+                        unreadable = e.getMessage();
+                        continue;
+                    }
+                }
+
+                validLength = position;
+            }
+        }
+
+        if (validLength < this.file.length()) {
+            logger.warn("Truncating torn record at the tail of {} from {} to {} bytes: {}", this.file, this.file.length(), validLength, unreadable);
+            this.truncate(validLength);
+        }
+
+        return records;
+    }
+
+    public void append(final R record) throws IOException {
+        Assert.notNull(record);
+
+        final ByteBuffer buffer = ByteBuffer.wrap((this.gson.toJson(record) + (char) NEWLINE).getBytes(StandardCharsets.UTF_8));
+
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        if (this.sync) {
+            this.durableFileWriter.sync(this.file.toPath());
+        }
+    }
+
+    /**
+     * Fsyncs the records appended so far, for callers that append with sync off while holding a lock and fsync
+     * once they released it.
+     */
+    public void sync() throws IOException {
+        this.durableFileWriter.sync(this.file.toPath());
+    }
+
+    /**
+     * Atomically replaces the log with the records.
+     */
+    public void rewrite(final Collection<R> records) throws IOException {
+        Assert.notNull(records);
+
+        try {
+            this.durableFileWriter.write(this.file, stream -> {
+                final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+
+                for (R record : records) {
+                    writer.write(this.gson.toJson(record));
+                    writer.write(NEWLINE);
+                }
+
+                writer.flush();
+            });
+
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Unable to rewrite " + this.file, e);
+        }
+    }
+
+    private void truncate(final long length) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+
+        this.durableFileWriter.sync(this.file.toPath());
+    }
+}
@@ -0,0 +1,165 @@
+package io.eion.security.passkeeper.service.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.util.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides where the files of a user live under the keystore location.
+ * <p>
+ * FLAT puts every file directly in the keystore location. FANOUT puts them two directory levels down, named
+ * after the first two bytes of a hash of the username in hex, e.g. 3f/a0/joe.jceks, so no directory holds more
+ * than a small fraction of the users and lookups and backups don't have to deal with a single directory of
+ * millions of entries.
+ * <p>
+ * Files of the flat layout are moved to their fan-out directory the first time they are looked up, so an
+ * existing keystore location migrates online as users come back. Until then a lookup of a file that isn't in
+ * its fan-out directory also checks the keystore location.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class UserFileLayout implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserFileLayout.class);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public enum Layout {
+        FLAT, FANOUT
+    }
+
+    /**
+     * Depth to walk from the root to reach the files of both layouts.
+     */
+    public static final int FANOUT_DEPTH = 3;
+
+    private final File root;
+
+    private final Layout layout;
+
+    private final AtomicLong migrated = new AtomicLong();
+
+    /**
+     * Fan-out directories known to exist.
+     */
+    private final Set<String> directories = ConcurrentHashMap.newKeySet();
+
+
+    public UserFileLayout(final File root, final Layout layout) {
+        Assert.notNull(root);
+        Assert.notNull(layout);
+
+        this.root = root;
+        this.layout = layout;
+    }
+
+    public File getRoot() {
+        return this.root;
+    }
+
+    public Layout getLayout() {
+        return this.layout;
+    }
+
+    /**
+     * Resolves a file of the user, moving it from the flat layout first if needed. The directory of the file
+     * exists once this returns, the file itself may not.
+     *
+     * @param extension e.g. .jceks
+     */
+    public File getFile(final String username, final String extension) {
+        Assert.notNull(username);
+        Assert.notNull(extension);
+
+        final String fileName = username + extension;
+
+        if (this.layout == Layout.FLAT) {
+            return new File(this.root, fileName);
+        }
+
+        final File file = new File(this.getDirectory(username), fileName);
+
+        if (!file.exists()) {
+            this.migrate(new File(this.root, fileName), file);
+        }
+
+        return file;
+    }
+
+    /**
+     * @return the fan-out directory path of the user relative to the root, e.g. 3f/a0
+     */
+    public static String getDirectoryPath(final String username) {
+        Assert.notNull(username);
+
+        // String.hashCode is specified, so a user maps to the same directory on every JVM
+        final int hash = username.hashCode() * 0x9E3779B9;
+        final char[] path = new char[5];
+        path[0] = HEX[(hash >>> 28) & 0xf];
+        path[1] = HEX[(hash >>> 24) & 0xf];
+        path[2] = File.separatorChar;
+        path[3] = HEX[(hash >>> 20) & 0xf];
+        path[4] = HEX[(hash >>> 16) & 0xf];
+
+        return new String(path);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("storage.layout.migrated", this.migrated.get()));
+
+        return metrics;
+    }
+
+    private File getDirectory(final String username) {
+
+        final String directoryPath = getDirectoryPath(username);
+        final File directory = new File(this.root, directoryPath);
+
+        if (!this.directories.contains(directoryPath)) {
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new UncheckedIOException(new IOException("Unable to create directory " + directory));
+            }
+
+            this.directories.add(directoryPath);
+        }
+
+        return directory;
+    }
+
+    private void migrate(final File flatFile, final File file) {
+
+        if (!flatFile.exists()) {
+            return;
+        }
+
+        try {
+            Files.move(flatFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            this.migrated.incrementAndGet();
+            logger.debug("Moved {} to {}", flatFile, file);
+
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            // a concurrent lookup of the same file moved it first
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to move " + flatFile + " to " + file, e);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package io.eion.security.passkeeper.service.storage;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counting Bloom filter of the usernames that have a KeyStore, so lookups of users that don't exist, e.g.
+ * scanners and typos, are answered without a file system call. A negative answer is exact, a positive one means
+ * the user may exist and the caller checks the file system, which is counted as a false positive when the user
+ * doesn't.
+ * <p>
+ * Every slot is a 4 bit counter, 16 of them packed into a long, so users can be removed again. A counter that
+ * reaches 15 sticks there and is never decremented, which keeps the filter free of false negatives at the cost
+ * of a slot that stays set. Sized for security.keystore.filter.expected-users at
+ * security.keystore.filter.false-positive-rate, more users raise the false positive rate, which is reported
+ * as an estimate next to the observed one.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class UsernameFilter implements PublicMetrics {
+
+    private static final int COUNTER_BITS = 4;
+
+    private static final int COUNTERS_PER_WORD = Long.SIZE / COUNTER_BITS;
+
+    private static final long COUNTER_MAX = (1L << COUNTER_BITS) - 1;
+
+    private final int slots;
+
+    private final int hashes;
+
+    private final AtomicLongArray counters;
+
+    private final AtomicLong users = new AtomicLong();
+
+    private final AtomicLong negatives = new AtomicLong();
+
+    private final AtomicLong falsePositives = new AtomicLong();
+
+
+    /**
+     * @param expectedUsers     0 disables the filter, every user may exist
+     * @param falsePositiveRate at expectedUsers users
+     */
+    public UsernameFilter(final int expectedUsers, final double falsePositiveRate) {
+        Assert.isTrue(expectedUsers >= 0, "Expected users must not be negative");
+        Assert.isTrue(falsePositiveRate > 0 && falsePositiveRate < 1, "False positive rate must be between 0 and 1");
+
+        if (expectedUsers == 0) {
+            this.slots = 0;
+            this.hashes = 0;
+            this.counters = new AtomicLongArray(0);
+            return;
+        }
+
+        final double ln2 = Math.log(2);
+        final long slots = (long) Math.ceil(-expectedUsers * Math.log(falsePositiveRate) / (ln2 * ln2));
+        Assert.isTrue(slots <= (long) Integer.MAX_VALUE, "Filter too large for " + expectedUsers + " users");
+
+        this.slots = (int) slots;
+        this.hashes = Math.max(1, (int) Math.round(slots / (double) expectedUsers * ln2));
+        this.counters = new AtomicLongArray((this.slots + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD);
+    }
+
+    public boolean isEnabled() {
+        return this.slots > 0;
+    }
+
+    public void add(final String username) {
+        Assert.notNull(username);
+
+        if (!this.isEnabled()) {
+            return;
+        }
+
+        final long hash = hash(username);
+
+        for (int i = 0; i < this.hashes; i++) {
+            this.increment(this.slot(hash, i));
+        }
+
+        this.users.incrementAndGet();
+    }
+
+    /**
+     * Only call for users that were added, removing any other user may introduce false negatives.
+     */
+    public void remove(final String username) {
+        Assert.notNull(username);
+
+        if (!this.isEnabled()) {
+            return;
+        }
+
+        final long hash = hash(username);
+
+        for (int i = 0; i < this.hashes; i++) {
+            this.decrement(this.slot(hash, i));
+        }
+
+        this.users.decrementAndGet();
+    }
+
+    /**
+     * @return false if the user certainly doesn't exist
+     */
+    public boolean mightContain(final String username) {
+        Assert.notNull(username);
+
+        if (!this.isEnabled()) {
+            return true;
+        }
+
+        final long hash = hash(username);
+
+        for (int i = 0; i < this.hashes; i++) {
+            if (this.get(this.slot(hash, i)) == 0) {
+                this.negatives.incrementAndGet();
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Records that a user the filter might contain turned out not to exist.
+     */
+    public void falsePositive() {
+        this.falsePositives.incrementAndGet();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final long negatives = this.negatives.get();
+        final long falsePositives = this.falsePositives.get();
+        final long users = Math.max(0, this.users.get());
+
+        final List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("storage.filter.users", users));
+        metrics.add(new Metric<>("storage.filter.memory", this.counters.length() * (long) Long.BYTES));
+        metrics.add(new Metric<>("storage.filter.negatives", negatives));
+        metrics.add(new Metric<>("storage.filter.false-positives", falsePositives));
+        metrics.add(new Metric<>("storage.filter.false-positive-rate",
+                negatives + falsePositives == 0 ? 0.0 : falsePositives / (double) (negatives + falsePositives)));
+        metrics.add(new Metric<>("storage.filter.false-positive-rate.estimated", this.estimateFalsePositiveRate(users)));
+
+        return metrics;
+    }
+
+    private double estimateFalsePositiveRate(final long users) {
+
+        if (!this.isEnabled()) {
+            return 1.0;
+        }
+
+        return Math.pow(1 - Math.exp(-this.hashes * (double) users / this.slots), this.hashes);
+    }
+
+    /**
+     * Double hashing, the i-th slot is derived from the two halves of a single 64 bit hash.
+     */
+    private int slot(final long hash, final int i) {
+        final int combined = (int) hash + i * (int) (hash >>> 32);
+        return Math.floorMod(combined, this.slots);
+    }
+
+    private int get(final int slot) {
+        final int shift = (slot % COUNTERS_PER_WORD) * COUNTER_BITS;
+        return (int) ((this.counters.get(slot / COUNTERS_PER_WORD) >>> shift) & COUNTER_MAX);
+    }
+
+    private void increment(final int slot) {
+        final int index = slot / COUNTERS_PER_WORD;
+        final int shift = (slot % COUNTERS_PER_WORD) * COUNTER_BITS;
+
+        while (true) {
+            final long word = this.counters.get(index);
+            final long counter = (word >>> shift) & COUNTER_MAX;
+
+            if (counter == COUNTER_MAX || this.counters.compareAndSet(index, word, word + (1L << shift))) {
+                return;
+            }
+        }
+    }
+
+    private void decrement(final int slot) {
+        final int index = slot / COUNTERS_PER_WORD;
+        final int shift = (slot % COUNTERS_PER_WORD) * COUNTER_BITS;
+
+        while (true) {
+            final long word = this.counters.get(index);
+            final long counter = (word >>> shift) & COUNTER_MAX;
+
+            if (counter == 0 || counter == COUNTER_MAX || this.counters.compareAndSet(index, word, word - (1L << shift))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a over the UTF-8 bytes, finished with the SplitMix64 mixer so both halves are well distributed.
+     */
+    private static long hash(final String username) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (byte b : username.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+}
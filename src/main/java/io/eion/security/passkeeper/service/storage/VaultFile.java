@@ -0,0 +1,492 @@
+package io.eion.security.passkeeper.service.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Single-file key value storage shared by every user.
+ * <p>
+ * The file is a journal of checksummed put and delete records, every write ends with a commit record
+ * and only committed writes are applied when the file is opened. A torn write at the tail of the file
+ * is therefore discarded on recovery and a multi-key write is all or nothing. An ordered in-memory index
+ * points at the latest value of every key, so point lookups cost a single positional read and keys
+ * sharing a prefix (e.g. all accounts of a user) can be listed in order. Space held by superseded
+ * records is reclaimed by rewriting the file once it passes the compaction threshold.
+ * <p>
+ * A write appends under the write lock but forces the file after releasing it, so reads don't wait for the
+ * disk. Concurrent writers share a force: a writer whose bytes a force that started after its append has covered
+ * returns without forcing again.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class VaultFile implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(VaultFile.class);
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    private static final byte COMMIT = 3;
+
+    /**
+     * Files smaller than this are never compacted.
+     */
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private final File file;
+
+    private final boolean sync;
+
+    private final double compactionThreshold;
+
+    private final ConcurrentSkipListMap<String, ValuePointer> index = new ConcurrentSkipListMap<>();
+
+    /**
+     * Reads hold the read lock so compaction can swap the underlying channel.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FileChannel channel;
+
+    private long size;
+
+    private long liveBytes;
+
+    /**
+     * Bytes appended since the file was opened, unlike size it doesn't shrink when the file is compacted.
+     */
+    private long appended;
+
+    /**
+     * Appended bytes that a force has covered. Guarded by syncLock.
+     */
+    private long synced;
+
+    /**
+     * Serializes the forces of writers, never taken while holding the lock.
+     */
+    private final Object syncLock = new Object();
+
+
+    public VaultFile(final File file, final boolean sync, final double compactionThreshold) throws IOException {
+        Assert.notNull(file);
+
+        this.file = file;
+        this.sync = sync;
+        this.compactionThreshold = compactionThreshold;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.recover();
+    }
+
+    public boolean contains(final String key) {
+        return this.index.containsKey(key);
+    }
+
+    public Optional<byte[]> get(final String key) throws IOException {
+        Assert.notNull(key);
+
+        this.lock.readLock().lock();
+        try {
+            final ValuePointer pointer = this.index.get(key);
+
+            if (pointer == null) {
+                return Optional.empty();
+            }
+
+            final ByteBuffer buffer = ByteBuffer.allocate(pointer.length);
+
+            while (buffer.hasRemaining()) {
+                if (this.channel.read(buffer, pointer.position + buffer.position()) < 0) {
+                    throw new EOFException("Unexpected end of vault file at key: " + key);
+                }
+            }
+
+            return Optional.of(buffer.array());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lists the keys that start with the prefix in their natural order.
+     */
+    public List<String> keys(final String prefix) {
+        Assert.notNull(prefix);
+        return new ArrayList<>(this.index.subMap(prefix, true, prefix + Character.MAX_VALUE, false).keySet());
+    }
+
+    public void put(final String key, final byte[] value) throws IOException {
+        this.write(Collections.singletonMap(key, value), Collections.emptyList());
+    }
+
+    public void delete(final Collection<String> keys) throws IOException {
+        this.write(Collections.emptyMap(), keys);
+    }
+
+    /**
+     * Applies the puts and deletes as one atomic write.
+     */
+    public void write(final Map<String, byte[]> puts, final Collection<String> deletes) throws IOException {
+        Assert.notNull(puts);
+        Assert.notNull(deletes);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final Map<String, ValuePointer> pointers = new LinkedHashMap<>();
+
+        for (Map.Entry<String, byte[]> put : puts.entrySet()) {
+            final long valueOffset = writeRecord(out, PUT, put.getKey(), put.getValue());
+            pointers.put(put.getKey(), new ValuePointer(valueOffset, put.getValue().length));
+        }
+
+        for (String delete : deletes) {
+            writeRecord(out, DELETE, delete, null);
+        }
+
+        writeRecord(out, COMMIT, null, null);
+        out.flush();
+
+        final long appended;
+
+        this.lock.writeLock().lock();
+        try {
+            final long position = this.size;
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer, position + buffer.position());
+            }
+
+            this.size += bytes.size();
+            this.appended += bytes.size();
+            appended = this.appended;
+
+            for (Map.Entry<String, ValuePointer> pointer : pointers.entrySet()) {
+                this.removeFromIndex(pointer.getKey());
+                final ValuePointer relativePointer = pointer.getValue();
+                this.index.put(pointer.getKey(), new ValuePointer(position + relativePointer.position, relativePointer.length));
+                this.liveBytes += relativePointer.length;
+            }
+
+            for (String delete : deletes) {
+                this.removeFromIndex(delete);
+            }
+
+            if (this.size > MIN_COMPACTION_SIZE && (double) (this.size - this.liveBytes) / this.size > this.compactionThreshold) {
+                this.compact();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        if (this.sync) {
+            this.force(appended);
+        }
+    }
+
+    /**
+     * Rewrites the file with only the latest value of every key.
+     */
+    public void compact() throws IOException {
+
+        this.lock.writeLock().lock();
+        try {
+            final File compactedFile = new File(this.file.getParentFile(), this.file.getName() + ".compact");
+            final Map<String, ValuePointer> compactedIndex = new LinkedHashMap<>();
+            long position = 0;
+
+            // the open channel follows the file through the rename, the current one stays in use until then
+            final FileChannel compactedChannel = FileChannel.open(compactedFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            try {
+                for (String key : this.index.keySet()) {
+                    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    final DataOutputStream out = new DataOutputStream(bytes);
+                    final byte[] value = this.get(key).orElseThrow(IllegalStateException::new);
+                    final long valueOffset = writeRecord(out, PUT, key, value);
+                    out.flush();
+
+                    compactedChannel.write(ByteBuffer.wrap(bytes.toByteArray()));
+                    compactedIndex.put(key, new ValuePointer(position + valueOffset, value.length));
+                    position += bytes.size();
+                }
+
+                final ByteArrayOutputStream commit = new ByteArrayOutputStream();
+                writeRecord(new DataOutputStream(commit), COMMIT, null, null);
+                compactedChannel.write(ByteBuffer.wrap(commit.toByteArray()));
+                position += commit.size();
+                compactedChannel.force(true);
+                Files.move(compactedFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            } catch (IOException | RuntimeException e) {
+                // the vault carries on with the uncompacted file
+                compactedChannel.close();
+                Files.deleteIfExists(compactedFile.toPath());
+                throw e;
+            }
+
+            final FileChannel uncompactedChannel = this.channel;
+            this.channel = compactedChannel;
+
+            logger.info("Compacted vault file {} from {} to {} bytes", this.file, this.size, position);
+            this.index.clear();
+            this.index.putAll(compactedIndex);
+            this.size = position;
+
+            try {
+                uncompactedChannel.close();
+            } catch (IOException e) {
+                logger.warn("Unable to close uncompacted vault file {}: {}", this.file, e.getMessage());
+            }
+
+            syncDirectory(this.file);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        this.lock.writeLock().lock();
+        try {
+            this.channel.close();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the file unless a force that started after the append up to appended has covered it already.
+     */
+    private void force(final long appended) throws IOException {
+
+        synchronized (this.syncLock) {
+            if (this.synced >= appended) {
+                return;
+            }
+
+            final FileChannel channel;
+            final long covered;
+
+            this.lock.readLock().lock();
+            try {
+                channel = this.channel;
+                covered = this.appended;
+            } finally {
+                this.lock.readLock().unlock();
+            }
+
+            try {
+                channel.force(false);
+
+            } catch (ClosedChannelException e) {
+                this.lock.readLock().lock();
+                try {
+                    // a compaction swapped the channel after forcing a file that holds every committed write
+                    if (this.channel == channel) {
+                        throw e;
+                    }
+                } finally {
+                    this.lock.readLock().unlock();
+                }
+            }
+
+            this.synced = covered;
+        }
+    }
+
+    /**
+     * Makes the rename of a compacted file durable, a read only channel is enough to fsync a directory on Linux.
+     */
+    private static void syncDirectory(final File file) throws IOException {
+
+        try (FileChannel directory = FileChannel.open(file.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    /**
+     * Replays committed records into the index and truncates whatever follows the last commit.
+     */
+    private void recover() throws IOException {
+
+        final Map<String, ValuePointer> pending = new LinkedHashMap<>();
+        final List<String> pendingDeletes = new ArrayList<>();
+        long position = 0;
+        long committed = 0;
+        final long fileSize = this.channel.size();
+
+        this.channel.position(0);
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel)));
+
+        try {
+            while (true) {
+                final CRC32 crc = new CRC32();
+                final byte type = in.readByte();
+                crc.update(type);
+                position += 1;
+
+                if (type == COMMIT) {
+                    if (in.readInt() != (int) crc.getValue()) {
+                        break;
+                    }
+
+                    position += 4;
+                    committed = position;
+
+                    for (String delete : pendingDeletes) {
+                        this.removeFromIndex(delete);
+                    }
+
+                    for (Map.Entry<String, ValuePointer> entry : pending.entrySet()) {
+                        this.removeFromIndex(entry.getKey());
+                        this.index.put(entry.getKey(), entry.getValue());
+                        this.liveBytes += entry.getValue().length;
+                    }
+
+                    pending.clear();
+                    pendingDeletes.clear();
+                    continue;
+                }
+
+                if (type != PUT && type != DELETE) {
+                    break;
+                }
+
+                final byte[] key = readBlock(in, crc, fileSize);
+                position += 4 + key.length;
+                final String keyString = new String(key, StandardCharsets.UTF_8);
+                ValuePointer pointer = null;
+
+                if (type == PUT) {
+                    final byte[] value = readBlock(in, crc, fileSize);
+                    pointer = new ValuePointer(position + 4, value.length);
+                    position += 4 + value.length;
+                }
+
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+
+                position += 4;
+
+                if (type == PUT) {
+                    pendingDeletes.remove(keyString);
+                    pending.put(keyString, pointer);
+                } else {
+                    pending.remove(keyString);
+                    pendingDeletes.add(keyString);
+                }
+            }
+        } catch (EOFException e) {
+            // end of the journal
+        }
+
+        if (committed < this.channel.size()) {
+            logger.warn("Discarding {} bytes of uncommitted writes at the tail of vault file {}", this.channel.size() - committed, this.file);
+            this.channel.truncate(committed);
+        }
+
+        this.size = committed;
+    }
+
+    private void removeFromIndex(final String key) {
+        final ValuePointer removed = this.index.remove(key);
+
+        if (removed != null) {
+            this.liveBytes -= removed.length;
+        }
+    }
+
+    /**
+     * Record layout: type, [key length, key], [value length, value], CRC32 of all preceding bytes of the record.
+     *
+     * @return offset of the value relative to the start of the stream, -1 if the record has no value
+     */
+    private static long writeRecord(final DataOutputStream out, final byte type, final String key, final byte[] value) throws IOException {
+
+        final CRC32 crc = new CRC32();
+        long valueOffset = -1;
+
+        out.writeByte(type);
+        crc.update(type);
+
+        if (key != null) {
+            writeBlock(out, crc, key.getBytes(StandardCharsets.UTF_8));
+        }
+
+        if (value != null) {
+            valueOffset = out.size() + 4;
+            writeBlock(out, crc, value);
+        }
+
+        out.writeInt((int) crc.getValue());
+        return valueOffset;
+    }
+
+    private static void writeBlock(final DataOutputStream out, final CRC32 crc, final byte[] block) throws IOException {
+        final byte[] length = ByteBuffer.allocate(4).putInt(block.length).array();
+        out.write(length);
+        out.write(block);
+        crc.update(length);
+        crc.update(block);
+    }
+
+    private static byte[] readBlock(final DataInputStream in, final CRC32 crc, final long maxLength) throws IOException {
+        final int length = in.readInt();
+
+        if (length < 0 || length > maxLength) {
+            throw new EOFException("Corrupted block length: " + length);
+        }
+
+        final byte[] block = new byte[length];
+        in.readFully(block);
+        crc.update(ByteBuffer.allocate(4).putInt(length).array());
+        crc.update(block);
+
+        return block;
+    }
+
+    private static class ValuePointer {
+
+        private final long position;
+
+        private final int length;
+
+        ValuePointer(final long position, final int length) {
+            this.position = position;
+            this.length = length;
+        }
+    }
+}
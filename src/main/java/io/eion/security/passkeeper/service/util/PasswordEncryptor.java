@@ -1,10 +1,23 @@
 package io.eion.security.passkeeper.service.util;
 
-import org.springframework.security.crypto.encrypt.Encryptors;
-import org.springframework.security.crypto.encrypt.TextEncryptor;
+import io.eion.security.passkeeper.service.cache.DerivedKeyCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.security.crypto.codec.Utf8;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
 /**
  * Use Spring Security Crypto module to encrypt and decrypt password. Reference:
  * http://stackoverflow.com/questions/992019/java-256-bit-aes-password-based-encryption
@@ -12,24 +25,171 @@ import org.springframework.util.Assert;
  * Salt is a critical part of securing the password and prevent rainbow table attack:
  * http://dustwell.com/how-to-handle-passwords-bcrypt.html
  *
+ * The cipher is the same as Encryptors.text(masterPassword, salt), i.e. 256 bit AES/CBC with a PBKDF2 derived
+ * key and a random IV prepended to the hex encoded output, so existing passwords still decrypt. The derived key
+ * is looked up in the DerivedKeyCache instead of running PBKDF2 on every call.
+ *
+ * The salt is the raw secret key of the account and the byte[] and ByteBuffer methods work on iv followed by
+ * the cipher text, so the hot path has no hex or String conversions and reuses a Cipher per thread. The String
+ * methods only hex encode the stored value. The master password is a CharSequence, wrap a char[] with
+ * CharBuffer.wrap to avoid turning it into a String.
+ *
  * Created by vagrant on 9/13/16.
  */
 @Component
 public class PasswordEncryptor {
 
-    public String encryptPassword(String salt, String masterPassword, String passwordToEncrypt) {
-        Assert.notNull(salt);
-        Assert.notNull(masterPassword);
+    private static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA1";
+
+    private static final int KEY_DERIVATION_ITERATIONS = 1024;
+
+    private static final int KEY_LENGTH = 256;
+
+    private static final String CIPHER_ALGORITHM = "AES/CBC/PKCS5Padding";
+
+    private static final int IV_LENGTH = 16;
+
+    private static final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(PasswordEncryptor::createCipher);
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    @Autowired
+    private DerivedKeyCache derivedKeyCache;
+
+    public String encryptPassword(byte[] salt, String masterPassword, String passwordToEncrypt) {
+        Assert.notNull(passwordToEncrypt);
+        return new String(Hex.encode(this.encrypt(salt, masterPassword, Utf8.encode(passwordToEncrypt))));
+    }
+
+    public String decryptPassword(byte[] salt, String masterPassword, String passwordToDecrypt) {
+        Assert.notNull(passwordToDecrypt);
+        return Utf8.decode(this.decrypt(salt, masterPassword, Hex.decode(passwordToDecrypt)));
+    }
+
+    /**
+     * @return iv followed by the cipher text
+     */
+    public byte[] encrypt(final byte[] salt, final CharSequence masterPassword, final byte[] plainText) {
+        Assert.notNull(plainText);
+
+        final Cipher cipher = this.initCipher(Cipher.ENCRYPT_MODE, salt, masterPassword, this.generateIv());
+        final byte[] ivAndEncrypted = new byte[IV_LENGTH + cipher.getOutputSize(plainText.length)];
+        System.arraycopy(cipher.getIV(), 0, ivAndEncrypted, 0, IV_LENGTH);
+
+        try {
+            cipher.doFinal(plainText, 0, plainText.length, ivAndEncrypted, IV_LENGTH);
+            return ivAndEncrypted;
+
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to encrypt password", e);
+        }
+    }
+
+    /**
+     * @param ivAndEncrypted iv followed by the cipher text, as returned by encrypt
+     */
+    public byte[] decrypt(final byte[] salt, final CharSequence masterPassword, final byte[] ivAndEncrypted) {
+        Assert.notNull(ivAndEncrypted);
+        Assert.isTrue(ivAndEncrypted.length > IV_LENGTH, "Encrypted password is too short");
+
+        final Cipher cipher = this.initCipher(Cipher.DECRYPT_MODE, salt, masterPassword, new IvParameterSpec(ivAndEncrypted, 0, IV_LENGTH));
 
-        TextEncryptor encryptor = Encryptors.text(masterPassword, salt);
-        return encryptor.encrypt(passwordToEncrypt);
+        try {
+            return cipher.doFinal(ivAndEncrypted, IV_LENGTH, ivAndEncrypted.length - IV_LENGTH);
+
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to decrypt password", e);
+        }
+    }
+
+    /**
+     * Writes the iv followed by the cipher text of the remaining plain text into the output buffer.
+     *
+     * @return number of bytes written
+     */
+    public int encrypt(final byte[] salt, final CharSequence masterPassword, final ByteBuffer plainText, final ByteBuffer output) {
+        Assert.notNull(plainText);
+        Assert.notNull(output);
+
+        final Cipher cipher = this.initCipher(Cipher.ENCRYPT_MODE, salt, masterPassword, this.generateIv());
+        Assert.isTrue(output.remaining() >= IV_LENGTH + cipher.getOutputSize(plainText.remaining()), "Output buffer is too small");
+
+        try {
+            output.put(cipher.getIV());
+            return IV_LENGTH + cipher.doFinal(plainText, output);
+
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to encrypt password", e);
+        }
     }
 
-    public String decryptPassword(String salt, String masterPassword, String passwordToDecrypt) {
+    /**
+     * Reads the iv followed by the cipher text from the input buffer and writes the plain text into the output buffer.
+     *
+     * @return number of bytes written
+     */
+    public int decrypt(final byte[] salt, final CharSequence masterPassword, final ByteBuffer ivAndEncrypted, final ByteBuffer output) {
+        Assert.notNull(ivAndEncrypted);
+        Assert.notNull(output);
+        Assert.isTrue(ivAndEncrypted.remaining() > IV_LENGTH, "Encrypted password is too short");
+
+        final byte[] iv = new byte[IV_LENGTH];
+        ivAndEncrypted.get(iv);
+        final Cipher cipher = this.initCipher(Cipher.DECRYPT_MODE, salt, masterPassword, new IvParameterSpec(iv));
+
+        try {
+            return cipher.doFinal(ivAndEncrypted, output);
+
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to decrypt password", e);
+        }
+    }
+
+    private IvParameterSpec generateIv() {
+        final byte[] iv = new byte[IV_LENGTH];
+        this.secureRandom.nextBytes(iv);
+        return new IvParameterSpec(iv);
+    }
+
+    private Cipher initCipher(final int mode, final byte[] salt, final CharSequence masterPassword, final IvParameterSpec iv) {
         Assert.notNull(salt);
         Assert.notNull(masterPassword);
 
-        TextEncryptor decryptor = Encryptors.text(masterPassword, salt);
-        return decryptor.decrypt(passwordToDecrypt);
+        final SecretKey key = this.derivedKeyCache.get(salt, masterPassword, () -> deriveKey(salt, masterPassword));
+        final Cipher cipher = ciphers.get();
+
+        try {
+            cipher.init(mode, key, iv);
+            return cipher;
+
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to initialize cipher", e);
+        }
+    }
+
+    private static byte[] deriveKey(final byte[] salt, final CharSequence masterPassword) {
+        final char[] password = new char[masterPassword.length()];
+        CharBuffer.wrap(password).append(masterPassword);
+        final PBEKeySpec keySpec = new PBEKeySpec(password, salt, KEY_DERIVATION_ITERATIONS, KEY_LENGTH);
+
+        try {
+            return SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM).generateSecret(keySpec).getEncoded();
+
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to derive key from master password", e);
+        } finally {
+            keySpec.clearPassword();
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    private static Cipher createCipher() {
+
+        try {
+            return Cipher.getInstance(CIPHER_ALGORITHM);
+
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to create cipher " + CIPHER_ALGORITHM, e);
+        }
     }
 }
@@ -0,0 +1,185 @@
+package io.eion.security.passkeeper.service.util;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+import sun.misc.Cleaner;
+import sun.nio.ch.DirectBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Reads secure account files by parsing the JSON as a stream, so the file content is never copied into an
+ * intermediate String. A single account can be looked up without materializing the other accounts in the file.
+ * Files up to 1 MB are read into a heap buffer, larger ones are memory mapped and unmapped as soon as they are
+ * parsed, so a mapping doesn't pin the file or hold address space until the buffer gets garbage collected.
+ * <p>
+ * Reference on memory mapped files:
+ * https://docs.oracle.com/javase/8/docs/api/java/nio/MappedByteBuffer.html
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class SecureAccountFileReader {
+
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+
+    private final Gson gson;
+
+
+    public SecureAccountFileReader(@Autowired final Gson gson) {
+        this.gson = gson;
+    }
+
+    public Map<String, SecureAccount> readSecureAccounts(final File secureAccountFile) throws IOException {
+        Assert.notNull(secureAccountFile);
+
+        final Map<String, SecureAccount> secureAccounts = new HashMap<>();
+
+        if (!secureAccountFile.exists()) {
+            return secureAccounts;
+        }
+
+        try (FileChannel channel = FileChannel.open(secureAccountFile.toPath(), StandardOpenOption.READ);
+             JsonReader reader = this.openReader(channel)) {
+
+            if (reader != null && this.beginAccounts(reader)) {
+                while (reader.hasNext()) {
+                    final String accountAlias = reader.nextName();
+                    secureAccounts.put(accountAlias, this.gson.fromJson(reader, SecureAccount.class));
+                }
+            }
+        }
+
+        return secureAccounts;
+    }
+
+    /**
+     * Scans the file up to the account with the given alias, skipping over every other account without
+     * binding it.
+     */
+    public Optional<SecureAccount> findSecureAccount(final File secureAccountFile, final String accountAlias) throws IOException {
+        Assert.notNull(secureAccountFile);
+        Assert.notNull(accountAlias);
+
+        if (!secureAccountFile.exists()) {
+            return Optional.empty();
+        }
+
+        try (FileChannel channel = FileChannel.open(secureAccountFile.toPath(), StandardOpenOption.READ);
+             JsonReader reader = this.openReader(channel)) {
+
+            if (reader != null && this.beginAccounts(reader)) {
+                while (reader.hasNext()) {
+                    if (accountAlias.equals(reader.nextName())) {
+                        return Optional.ofNullable(this.gson.fromJson(reader, SecureAccount.class));
+                    }
+
+                    reader.skipValue();
+                }
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * @return a reader over the content of the file, null if the file is empty
+     */
+    private JsonReader openReader(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+
+        if (size == 0) {
+            return null;
+        }
+
+        final ByteBuffer buffer;
+
+        if (size <= MAP_THRESHOLD) {
+            buffer = ByteBuffer.allocate((int) size);
+
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read until the buffer is full or the file got shorter in between
+            }
+
+            buffer.flip();
+        } else {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        return new JsonReader(new InputStreamReader(new ByteBufferInputStream(buffer), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return false if the file holds null instead of accounts
+     */
+    private boolean beginAccounts(final JsonReader reader) throws IOException {
+
+        if (reader.peek() == JsonToken.NULL) {
+            return false;
+        }
+
+        reader.beginObject();
+        return true;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+
+            final int read = Math.min(length, this.buffer.remaining());
+            this.buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+
+        /**
+         * Unmaps a mapped buffer right away instead of when it gets garbage collected.
+         */
+        @Override
+        public void close() {
+
+            if (this.buffer instanceof DirectBuffer) {
+                final Cleaner cleaner = ((DirectBuffer) this.buffer).cleaner();
+
+                if (cleaner != null) {
+                    cleaner.clean();
+                }
+            }
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package io.eion.security.passkeeper.web;
 
+import io.eion.security.passkeeper.service.exception.InvalidMasterPasswordException;
 import io.eion.security.passkeeper.service.exception.SecureAccountException;
 import io.eion.security.passkeeper.service.exception.SecureAccountNotFoundException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 
+import java.util.concurrent.RejectedExecutionException;
+
 /**
  * Created by vagrant on 9/19/16.
  */
@@ -16,13 +20,36 @@ public class GlobalExceptionResolver {
     @ExceptionHandler(SecureAccountException.class)
     public ResponseEntity secureAccountException(final SecureAccountException secureAccountException) {
 
+        // the service wraps what the KeystoreManager throws
+        if (secureAccountException.contains(InvalidMasterPasswordException.class)) {
+            return this.invalidMasterPasswordException(secureAccountException);
+        }
+
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(secureAccountException.getMessage());
     }
 
+    /**
+     * 401 so only a wrong master password counts as an authentication failure with the RateLimitInterceptor.
+     */
+    @ExceptionHandler(InvalidMasterPasswordException.class)
+    public ResponseEntity invalidMasterPasswordException(final SecureAccountException exception) {
+
+        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(exception.getMessage());
+    }
+
     @ExceptionHandler(SecureAccountNotFoundException.class)
     public ResponseEntity secureAccountNotFoundException(final SecureAccountNotFoundException exception) {
 
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(exception.getMessage());
     }
 
+    /**
+     * The service executor is saturated, the client should back off and retry.
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity rejectedExecutionException(final RejectedExecutionException exception) {
+
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").body(exception.getMessage());
+    }
+
 }
@@ -1,45 +1,52 @@
 package io.eion.security.passkeeper.web;
 
-import io.eion.security.passkeeper.service.SecureAccountService;
+import io.eion.security.passkeeper.service.AsyncSecureAccountService;
 import io.eion.security.passkeeper.service.bean.SecureAccount;
 import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.bean.SecureAccountResult;
+import io.eion.security.passkeeper.web.bean.SecureAccountEntry;
 import io.eion.security.passkeeper.web.bean.SecureAccountResponse;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
+ * Every endpoint hands the call to the AsyncSecureAccountService and returns a DeferredResult, so the request
+ * thread is released while the KeyStore and accounts are read or written. A saturated service executor is
+ * answered with 503 by the GlobalExceptionResolver.
+ * <p>
  * Created by vagrant on 9/14/16.
  */
 @RestController
 @RequestMapping("/secure/users")
 public class SecureAccountController {
 
-    private static final Logger logger = LoggerFactory.getLogger(SecureAccountController.class);
-
     static final String MASTER_PASSWORD_HEADER_KEY = "x-pk-master-password";
 
     @Autowired
-    private SecureAccountService secureAccountService;
+    private AsyncSecureAccountService secureAccountService;
 
 
     @RequestMapping(value = "/{username}", method = RequestMethod.HEAD)
-    public ResponseEntity<Void> authenticateUser(@PathVariable final String username,
-                                                 @RequestHeader(MASTER_PASSWORD_HEADER_KEY) String masterPassword) {
+    public DeferredResult<ResponseEntity<Void>> authenticateUser(@PathVariable final String username,
+                                                                 @RequestHeader(MASTER_PASSWORD_HEADER_KEY) String masterPassword) {
 
-        final boolean authenticated = this.secureAccountService.authenticateUser(username, masterPassword);
-        return authenticated ? ResponseEntity.accepted().build() : ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        return toDeferredResult(this.secureAccountService.authenticateUser(username, masterPassword),
+                authenticated -> authenticated ? ResponseEntity.accepted().build() : ResponseEntity.status(HttpStatus.UNAUTHORIZED).build());
     }
 
     /**
@@ -49,26 +56,22 @@ public class SecureAccountController {
      * @return
      */
     @RequestMapping(value = "", method = RequestMethod.POST)
-    public ResponseEntity<SecureAccountResponse> createUser(@RequestParam("username") final String username,
-                                                            @RequestHeader(MASTER_PASSWORD_HEADER_KEY) String masterPassword) {
-
-        logger.debug("Create user: {}", username);
-
-        final SecureAccount defaultSecureAccount = this.secureAccountService.createUser(username, masterPassword);
-
-        final String message = username + " is created successfully with a default account alias.";
-        final SecureAccountResponse secureAccountResponse = new SecureAccountResponse(message, defaultSecureAccount);
-        return ResponseEntity.ok(secureAccountResponse);
+    public DeferredResult<ResponseEntity<SecureAccountResponse>> createUser(@RequestParam("username") final String username,
+                                                                            @RequestHeader(MASTER_PASSWORD_HEADER_KEY) String masterPassword) {
+
+        return toDeferredResult(this.secureAccountService.createUser(username, masterPassword), defaultSecureAccount -> {
+            final String message = username + " is created successfully with a default account alias.";
+            final SecureAccountResponse secureAccountResponse = new SecureAccountResponse(message, defaultSecureAccount);
+            return ResponseEntity.ok(secureAccountResponse);
+        });
     }
 
     @RequestMapping(value = "/{username}/markDelete", method = RequestMethod.DELETE)
-    public ResponseEntity<String> markDeleteUser(@PathVariable("username") final String username,
-                                                 @RequestHeader(MASTER_PASSWORD_HEADER_KEY) String masterPassword) {
-
-        logger.debug("Mark delete user: {}", username);
+    public DeferredResult<ResponseEntity<String>> markDeleteUser(@PathVariable("username") final String username,
+                                                                 @RequestHeader(MASTER_PASSWORD_HEADER_KEY) String masterPassword) {
 
-        this.secureAccountService.markDeleteUser(username, masterPassword);
-        return ResponseEntity.ok("User has been marked as deleted. You need to confirm this by calling DELETE /{username}.");
+        return toDeferredResult(this.secureAccountService.markDeleteUser(username, masterPassword),
+                done -> ResponseEntity.ok("User has been marked as deleted. You need to confirm this by calling DELETE /{username}."));
     }
 
     /**
@@ -79,22 +82,20 @@ public class SecureAccountController {
      * @return
      */
     @RequestMapping(value = "/{username}", method = RequestMethod.DELETE)
-    public ResponseEntity<String> deleteUser(@PathVariable("username") final String username,
-                                             @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword) {
+    public DeferredResult<ResponseEntity<String>> deleteUser(@PathVariable("username") final String username,
+                                                             @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword) {
 
-        logger.debug("Delete user: {}", username);
-
-        this.secureAccountService.deleteUser(username, masterPassword);
-        return ResponseEntity.ok("User has been deleted successfully.");
+        return toDeferredResult(this.secureAccountService.deleteUser(username, masterPassword),
+                done -> ResponseEntity.ok("User has been deleted successfully."));
     }
 
 
     @RequestMapping(value = "/{username}/accounts", method = RequestMethod.POST)
-    public ResponseEntity<SecureAccountResponse> createSecureAccount(@PathVariable final String username,
-                                                                     @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword,
-                                                                     @RequestParam("accountAlias") final String accountAlias,
-                                                                     @RequestParam("accountUsername") final String accountUsername,
-                                                                     @RequestParam("password") final String passwordToEncrypt) {
+    public DeferredResult<ResponseEntity<SecureAccountResponse>> createSecureAccount(@PathVariable final String username,
+                                                                                     @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword,
+                                                                                     @RequestParam("accountAlias") final String accountAlias,
+                                                                                     @RequestParam("accountUsername") final String accountUsername,
+                                                                                     @RequestParam("password") final String passwordToEncrypt) {
 
         final SecureAccountRequest request = SecureAccountRequest.builder()
                 .username(username)
@@ -102,12 +103,9 @@ public class SecureAccountController {
                 .accountUsername(accountUsername)
                 .accountAlias(accountAlias)
                 .password(passwordToEncrypt).build();
-        logger.debug("Create secure account: {}", request);
-
-        final SecureAccount secureAccount = this.secureAccountService.createSecureAccount(request);
 
-        final SecureAccountResponse secureAccountResponse = new SecureAccountResponse("Secure account is created.", secureAccount);
-        return ResponseEntity.ok(secureAccountResponse);
+        return toDeferredResult(this.secureAccountService.createSecureAccount(request),
+                secureAccount -> ResponseEntity.ok(new SecureAccountResponse("Secure account is created.", secureAccount)));
     }
 
 
@@ -120,45 +118,88 @@ public class SecureAccountController {
      * @return
      */
     @RequestMapping(value = "/{username}/accounts/{accountAlias:.+}", method = RequestMethod.GET)
-    public ResponseEntity<?> getSecureAccount(@PathVariable final String username,
-                                              @PathVariable final String accountAlias,
-                                              @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword) {
+    public DeferredResult<ResponseEntity<?>> getSecureAccount(@PathVariable final String username,
+                                                              @PathVariable final String accountAlias,
+                                                              @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword) {
 
         final SecureAccountRequest request = SecureAccountRequest.builder()
                 .username(username)
                 .masterPassword(masterPassword)
                 .accountAlias(accountAlias).build();
-        logger.debug("Get secure account: {}", request);
 
-        final Optional<SecureAccount> secureAccount = this.secureAccountService.getSecureAccount(request);
+        return toDeferredResult(this.secureAccountService.getSecureAccount(request), secureAccount -> {
+            if (secureAccount.isPresent()) {
+                return ResponseEntity.ok(secureAccount.get());
+            }
 
-        if (secureAccount.isPresent()) {
-            return ResponseEntity.ok(secureAccount.get());
-        }
-
-        return new ResponseEntity<>("Secure account is not found: " + accountAlias, HttpStatus.NOT_FOUND);
+            return new ResponseEntity<>("Secure account is not found: " + accountAlias, HttpStatus.NOT_FOUND);
+        });
     }
 
     @RequestMapping(value = "/{username}/accounts", method = RequestMethod.GET)
-    public ResponseEntity<?> getSecureAccountAliases(@PathVariable final String username,
-                                                     @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword) {
+    public DeferredResult<ResponseEntity<List<String>>> getSecureAccountAliases(@PathVariable final String username,
+                                                                                @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword) {
 
-        logger.debug("Get secure account aliases: {}", username);
+        final SecureAccountRequest request = SecureAccountRequest.builder()
+                .username(username)
+                .masterPassword(masterPassword).build();
+
+        return toDeferredResult(this.secureAccountService.getSecureAccountAliases(request), ResponseEntity::ok);
+    }
+
+    /**
+     * Gets several SecureAccounts of the user in one call, e.g. to sync the whole vault.
+     *
+     * @param username
+     * @param accountAliases account aliases to get, every account of the user is returned if omitted
+     * @param masterPassword
+     * @return accounts that are found in the order of the aliases
+     */
+    @RequestMapping(value = "/{username}/batch/accounts", method = RequestMethod.GET)
+    public DeferredResult<ResponseEntity<List<SecureAccount>>> getSecureAccounts(@PathVariable final String username,
+                                                                                 @RequestParam(value = "aliases", required = false) final List<String> accountAliases,
+                                                                                 @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword) {
 
         final SecureAccountRequest request = SecureAccountRequest.builder()
                 .username(username)
                 .masterPassword(masterPassword).build();
-        final List<String> secureAccountAliases = this.secureAccountService.getSecureAccountAliases(request);
 
-        return ResponseEntity.ok(secureAccountAliases);
+        return toDeferredResult(this.secureAccountService.getSecureAccounts(request, accountAliases), ResponseEntity::ok);
+    }
+
+    /**
+     * Creates or updates several SecureAccounts of the user in one call, e.g. to import a vault. The KeyStore and
+     * the accounts are persisted once for the whole batch.
+     *
+     * @param username
+     * @param masterPassword
+     * @param secureAccountEntries
+     * @return result of every entry
+     */
+    @RequestMapping(value = "/{username}/batch/accounts", method = RequestMethod.POST)
+    public DeferredResult<ResponseEntity<List<SecureAccountResult>>> updateSecureAccounts(@PathVariable final String username,
+                                                                                          @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword,
+                                                                                          @RequestBody final List<SecureAccountEntry> secureAccountEntries) {
+
+        final SecureAccountRequest request = SecureAccountRequest.builder()
+                .username(username)
+                .masterPassword(masterPassword).build();
+        final List<SecureAccountRequest> entryRequests = secureAccountEntries.stream()
+                .map(entry -> SecureAccountRequest.builder()
+                        .accountAlias(entry.getAccountAlias())
+                        .accountUsername(entry.getAccountUsername())
+                        .password(entry.getPassword()).build())
+                .collect(Collectors.toList());
+
+        return toDeferredResult(this.secureAccountService.updateSecureAccounts(request, entryRequests), ResponseEntity::ok);
     }
 
     @RequestMapping(value = "/{username}/accounts/{accountAlias}", method = RequestMethod.POST)
-    public ResponseEntity<SecureAccount> updateSecureAccount(@PathVariable final String username,
-                                                             @PathVariable final String accountAlias,
-                                                             @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword,
-                                                             @RequestParam("accountUsername") final String accountUsername,
-                                                             @RequestParam("password") final String passwordToUpdate) {
+    public DeferredResult<ResponseEntity<SecureAccount>> updateSecureAccount(@PathVariable final String username,
+                                                                             @PathVariable final String accountAlias,
+                                                                             @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword,
+                                                                             @RequestParam("accountUsername") final String accountUsername,
+                                                                             @RequestParam("password") final String passwordToUpdate) {
 
         final SecureAccountRequest request = SecureAccountRequest.builder()
                 .username(username)
@@ -166,10 +207,8 @@ public class SecureAccountController {
                 .accountAlias(accountAlias)
                 .accountUsername(accountUsername)
                 .password(passwordToUpdate).build();
-        logger.debug("Update secure account: {}", request);
 
-        final SecureAccount secureAccount = this.secureAccountService.updateSecureAccount(request);
-        return ResponseEntity.ok(secureAccount);
+        return toDeferredResult(this.secureAccountService.updateSecureAccount(request), ResponseEntity::ok);
     }
 
     /**
@@ -181,22 +220,48 @@ public class SecureAccountController {
      * @return
      */
     @RequestMapping(value = "/{username}/accounts/{accountAlias}", method = RequestMethod.DELETE)
-    public ResponseEntity<?> deleteSecureAccount(@PathVariable final String username,
-                                                 @PathVariable final String accountAlias,
-                                                 @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword) {
+    public DeferredResult<ResponseEntity<?>> deleteSecureAccount(@PathVariable final String username,
+                                                                 @PathVariable final String accountAlias,
+                                                                 @RequestHeader(MASTER_PASSWORD_HEADER_KEY) final String masterPassword) {
 
         final SecureAccountRequest request = SecureAccountRequest.builder()
                 .username(username)
                 .masterPassword(masterPassword)
                 .accountAlias(accountAlias).build();
-        logger.debug("Delete secure account: {}", request);
 
-        final Optional<SecureAccount> secureAccount = this.secureAccountService.deleteSecureAccount(request);
+        return toDeferredResult(this.secureAccountService.deleteSecureAccount(request), secureAccount -> {
+            if (secureAccount.isPresent()) {
+                return ResponseEntity.ok("Secure account has been deleted: " + accountAlias);
+            } else {
+                return new ResponseEntity<>("Secure account is not found: " + accountAlias, HttpStatus.NOT_FOUND);
+            }
+        });
+    }
 
-        if (secureAccount.isPresent()) {
-            return ResponseEntity.ok("Secure account has been deleted: " + accountAlias);
-        } else {
-            return new ResponseEntity<>("Secure account is not found: " + accountAlias, HttpStatus.NOT_FOUND);
-        }
+    /**
+     * Completes the DeferredResult with the response built from the result of the future, or with the exception
+     * thrown by the service or while building the response so it is handled by the GlobalExceptionResolver like a
+     * synchronous call, instead of leaving the request to time out.
+     */
+    private static <T, R extends ResponseEntity<?>> DeferredResult<R> toDeferredResult(final CompletableFuture<T> future,
+                                                                                      final Function<T, R> response) {
+
+        final DeferredResult<R> deferredResult = new DeferredResult<>();
+
+        future.whenComplete((result, throwable) -> {
+            if (throwable == null) {
+                try {
+                    deferredResult.setResult(response.apply(result));
+                } catch (RuntimeException e) {
+                    deferredResult.setErrorResult(e);
+                }
+            } else if (throwable instanceof CompletionException && throwable.getCause() != null) {
+                deferredResult.setErrorResult(throwable.getCause());
+            } else {
+                deferredResult.setErrorResult(throwable);
+            }
+        });
+
+        return deferredResult;
     }
 }
@@ -0,0 +1,29 @@
+package io.eion.security.passkeeper.web.bean;
+
+import lombok.Value;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * A single account in the body of a batch write.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Value
+public class SecureAccountEntry {
+
+    private final String accountAlias;
+
+    private final String accountUsername;
+
+    private final String password;
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+                .append("accountAlias", accountAlias)
+                .append("accountUsername", accountUsername)
+                .append("password", "<masked>")
+                .toString();
+    }
+}
@@ -0,0 +1,148 @@
+package io.eion.security.passkeeper.web.metrics;
+
+import io.eion.security.passkeeper.service.metrics.StageTimers;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.endpoint.mvc.AbstractMvcEndpoint;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Serves the stage timers as summaries and every public metric as a counter or a gauge in the Prometheus text
+ * exposition format at /prometheus on the management port, e.g.
+ * <pre>
+ * passkeeper_stage_seconds{operation="getSecureAccount",stage="keystore_load",quantile="0.99"} 0.004194303
+ * passkeeper_stage_seconds_count{operation="getSecureAccount",stage="keystore_load"} 1024
+ * passkeeper_keystore_cache_hits 1000
+ * </pre>
+ * Public metrics don't tell whether they only ever grow, the ones named like the totals the services count,
+ * e.g. keystore.cache.hits or storage.sync.fsyncs, and Spring Boot's counter.* and gc.* metrics are exported
+ * as counters so rate() can be used on them, every other one, e.g. a size or a ratio, as a gauge.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class PrometheusEndpoint extends AbstractMvcEndpoint {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String PREFIX = "passkeeper_";
+
+    private static final String STAGE_METRIC = PREFIX + "stage_seconds";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * Last part of the names of the public metrics that count events since startup.
+     */
+    private static final Set<String> COUNTER_NAMES = new HashSet<>(Arrays.asList(
+            "hits", "misses", "hashes", "failures", "loads", "publishes", "writes", "requests", "fsyncs", "groups",
+            "negatives", "false-positives", "migrated", "recorded", "dropped", "written", "acquisitions", "contentions",
+            "wait", "allowed", "rejected", "lockouts", "completed", "marked", "expired", "purged", "queued", "registered",
+            "flushes", "failed"));
+
+    private static final String[] COUNTER_PREFIXES = {"counter.", "gc."};
+
+    @Autowired
+    private StageTimers stageTimers;
+
+    @Autowired
+    private Collection<PublicMetrics> publicMetrics;
+
+
+    public PrometheusEndpoint() {
+        super("/prometheus", false);
+    }
+
+    @RequestMapping(method = RequestMethod.GET, produces = CONTENT_TYPE)
+    @ResponseBody
+    public String scrape() {
+        final StringBuilder builder = new StringBuilder(16384);
+        this.writeStages(builder);
+        this.writeMetrics(builder);
+
+        return builder.toString();
+    }
+
+    private void writeStages(final StringBuilder builder) {
+
+        builder.append("# HELP ").append(STAGE_METRIC).append(" Duration of the stages of the service operations.\n");
+        builder.append("# TYPE ").append(STAGE_METRIC).append(" summary\n");
+
+        this.stageTimers.getHistograms().forEach((operation, stages) -> stages.forEach((stage, histogram) -> {
+            final String labels = "operation=\"" + operation + "\",stage=\"" + sanitize(stage) + "\"";
+            final long[] values = histogram.getValuesAt(QUANTILES);
+
+            for (int i = 0; i < QUANTILES.length; i++) {
+                builder.append(STAGE_METRIC).append('{').append(labels).append(",quantile=\"").append(QUANTILES[i]).append("\"} ")
+                        .append(values[i] / NANOS_PER_SECOND).append('\n');
+            }
+
+            builder.append(STAGE_METRIC).append("_sum{").append(labels).append("} ").append(histogram.getSum() / NANOS_PER_SECOND).append('\n');
+            builder.append(STAGE_METRIC).append("_count{").append(labels).append("} ").append(histogram.getCount()).append('\n');
+        }));
+    }
+
+    /**
+     * Public metrics are named with dots, e.g. keystore.cache.hits, they become passkeeper_keystore_cache_hits.
+     */
+    private void writeMetrics(final StringBuilder builder) {
+
+        final Map<String, Metric<?>> metrics = new TreeMap<>();
+
+        for (PublicMetrics publicMetrics : this.publicMetrics) {
+            // the stage timers are written as summaries above
+            if (publicMetrics == this.stageTimers) {
+                continue;
+            }
+
+            for (Metric<?> metric : publicMetrics.metrics()) {
+                metrics.put(PREFIX + sanitize(metric.getName()), metric);
+            }
+        }
+
+        for (Map.Entry<String, Metric<?>> metric : metrics.entrySet()) {
+            final String type = isCounter(metric.getValue().getName()) ? "counter" : "gauge";
+
+            builder.append("# TYPE ").append(metric.getKey()).append(' ').append(type).append('\n');
+            builder.append(metric.getKey()).append(' ').append(metric.getValue().getValue().doubleValue()).append('\n');
+        }
+    }
+
+    static boolean isCounter(final String name) {
+
+        for (String prefix : COUNTER_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+
+        return COUNTER_NAMES.contains(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * Replaces every character that isn't allowed in a Prometheus metric name with an underscore.
+     */
+    static String sanitize(final String name) {
+        final StringBuilder sanitized = new StringBuilder(name.length());
+
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            sanitized.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' ? c : '_');
+        }
+
+        return sanitized.toString();
+    }
+}
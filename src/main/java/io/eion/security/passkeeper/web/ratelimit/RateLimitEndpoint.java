@@ -0,0 +1,52 @@
+package io.eion.security.passkeeper.web.ratelimit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint /ratelimit listing the counters of the rate limiter and the usernames and addresses that are
+ * locked out, with the seconds left on their lockout.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class RateLimitEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    /**
+     * Locked out keys listed per kind, the rest only shows in the count.
+     */
+    private static final int MAX_LOCKED = 100;
+
+    @Autowired
+    private RateLimitInterceptor rateLimitInterceptor;
+
+
+    public RateLimitEndpoint() {
+        super("ratelimit");
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        final Map<String, Object> state = new LinkedHashMap<>();
+        state.put("enabled", this.rateLimitInterceptor.isEnabled());
+        state.put("user", describe(this.rateLimitInterceptor.getUserBuckets()));
+        state.put("address", describe(this.rateLimitInterceptor.getAddressBuckets()));
+
+        return state;
+    }
+
+    private static Map<String, Object> describe(final TokenBuckets buckets) {
+        final Map<String, Object> state = new LinkedHashMap<>();
+        state.put("tracked", buckets.getTracked());
+        state.put("allowed", buckets.getAllowed());
+        state.put("rejected", buckets.getRejected());
+        state.put("lockouts", buckets.getLockouts());
+        state.put("locked", buckets.getLocked(MAX_LOCKED));
+
+        return state;
+    }
+}
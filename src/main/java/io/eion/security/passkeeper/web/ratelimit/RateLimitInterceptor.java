@@ -0,0 +1,202 @@
+package io.eion.security.passkeeper.web.ratelimit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rejects requests with 429 before they reach the SecureAccountController once the client address or the
+ * username in the request runs out of tokens or is locked out, so a client hammering the service with wrong
+ * master passwords is turned away before any KeyStore load or key derivation.
+ * <p>
+ * A response of 401, which is what a wrong master password gets, counts as a failure of both the username and
+ * the address, any 2xx response resets their failures. Other client errors, e.g. 400 for an account that already
+ * exists, are left alone. The controller completes its requests asynchronously,
+ * tokens are taken on the initial dispatch and the outcome is recorded once the response is complete.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@Component
+public class RateLimitInterceptor extends HandlerInterceptorAdapter implements PublicMetrics {
+
+    static final String USERNAME = "username";
+
+    @Value("${security.ratelimit.enabled}")
+    private boolean enabled;
+
+    /**
+     * Requests per second.
+     */
+    @Value("${security.ratelimit.user.rate}")
+    private double userRate;
+
+    @Value("${security.ratelimit.user.burst}")
+    private int userBurst;
+
+    /**
+     * Requests per second.
+     */
+    @Value("${security.ratelimit.address.rate}")
+    private double addressRate;
+
+    @Value("${security.ratelimit.address.burst}")
+    private int addressBurst;
+
+    @Value("${security.ratelimit.lockout.failures}")
+    private int lockoutFailures;
+
+    /**
+     * In seconds.
+     */
+    @Value("${security.ratelimit.lockout.base}")
+    private long lockoutBase;
+
+    /**
+     * In seconds.
+     */
+    @Value("${security.ratelimit.lockout.max}")
+    private long lockoutMax;
+
+    /**
+     * In milliseconds.
+     */
+    @Value("${security.ratelimit.sweep.interval}")
+    private long sweepInterval;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    private TokenBuckets userBuckets;
+
+    private TokenBuckets addressBuckets;
+
+
+    @PostConstruct
+    public void initialize() {
+        this.userBuckets = this.createBuckets("user", this.userRate, this.userBurst);
+        this.addressBuckets = this.createBuckets("address", this.addressRate, this.addressBurst);
+
+        if (this.enabled) {
+            this.taskScheduler.scheduleWithFixedDelay(this::sweep, this.sweepInterval);
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public TokenBuckets getUserBuckets() {
+        return this.userBuckets;
+    }
+
+    public TokenBuckets getAddressBuckets() {
+        return this.addressBuckets;
+    }
+
+    @Override
+    public boolean preHandle(final HttpServletRequest request, final HttpServletResponse response, final Object handler) throws Exception {
+
+        if (!this.enabled || request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+
+        long wait = this.addressBuckets.tryAcquire(request.getRemoteAddr());
+        final String username = getUsername(request);
+
+        if (wait == 0 && username != null) {
+            wait = this.userBuckets.tryAcquire(username);
+        }
+
+        if (wait == 0) {
+            return true;
+        }
+
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(TimeUnit.NANOSECONDS.toSeconds(wait) + 1));
+        return false;
+    }
+
+    @Override
+    public void afterCompletion(final HttpServletRequest request, final HttpServletResponse response, final Object handler,
+                                final Exception ex) throws Exception {
+
+        if (!this.enabled) {
+            return;
+        }
+
+        final int status = response.getStatus();
+        final String username = getUsername(request);
+
+        if (status == HttpStatus.UNAUTHORIZED.value()) {
+            this.addressBuckets.failure(request.getRemoteAddr());
+
+            if (username != null) {
+                this.userBuckets.failure(username);
+            }
+
+        } else if (status / 100 == 2) {
+            this.addressBuckets.success(request.getRemoteAddr());
+
+            if (username != null) {
+                this.userBuckets.success(username);
+            }
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+
+        for (TokenBuckets buckets : new TokenBuckets[]{this.userBuckets, this.addressBuckets}) {
+            final String prefix = "ratelimit." + buckets.getName() + ".";
+            metrics.add(new Metric<>(prefix + "allowed", buckets.getAllowed()));
+            metrics.add(new Metric<>(prefix + "rejected", buckets.getRejected()));
+            metrics.add(new Metric<>(prefix + "lockouts", buckets.getLockouts()));
+            metrics.add(new Metric<>(prefix + "tracked", buckets.getTracked()));
+        }
+
+        return metrics;
+    }
+
+    private void sweep() {
+        this.userBuckets.sweep();
+        this.addressBuckets.sweep();
+    }
+
+    private TokenBuckets createBuckets(final String name, final double rate, final int burst) {
+        return new TokenBuckets(name, rate, burst, this.lockoutFailures,
+                TimeUnit.SECONDS.toMillis(this.lockoutBase), TimeUnit.SECONDS.toMillis(this.lockoutMax));
+    }
+
+    /**
+     * The username is a path variable of every endpoint but the user creation, which takes it as a parameter.
+     */
+    @SuppressWarnings("unchecked")
+    private static String getUsername(final HttpServletRequest request) {
+
+        final Map<String, String> uriVariables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+
+        if (uriVariables != null && uriVariables.containsKey(USERNAME)) {
+            return uriVariables.get(USERNAME);
+        }
+
+        return request.getParameter(USERNAME);
+    }
+}
@@ -0,0 +1,217 @@
+package io.eion.security.passkeeper.web.ratelimit;
+
+import org.springframework.util.Assert;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket per key, e.g. per username or per client address, plus a lockout that doubles with every
+ * failure beyond a threshold.
+ * <p>
+ * A bucket is a single AtomicLong holding the time at which it would be full again, every request moves that time
+ * one token interval ahead with a CAS and is rejected when it would be more than a burst ahead of now, so
+ * acquiring a token never takes a lock. Buckets that are full, not locked and without recent failures are dropped
+ * by sweep.
+ *
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class TokenBuckets {
+
+    private final String name;
+
+    private final long tokenInterval;
+
+    private final long burstTolerance;
+
+    private final int lockoutFailures;
+
+    private final long lockoutBase;
+
+    private final long lockoutMax;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private final AtomicLong allowed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong lockouts = new AtomicLong();
+
+
+    /**
+     * @param rate            tokens per second
+     * @param burst           tokens a full bucket holds
+     * @param lockoutFailures consecutive failures after which a key is locked out, 0 disables the lockout
+     * @param lockoutBase     in milliseconds, lockout after lockoutFailures failures, doubled for every further one
+     * @param lockoutMax      in milliseconds, longest lockout, failures are forgotten after this long without one
+     */
+    public TokenBuckets(final String name, final double rate, final int burst, final int lockoutFailures,
+                        final long lockoutBase, final long lockoutMax) {
+        Assert.notNull(name);
+        Assert.isTrue(rate > 0, "Rate must be positive");
+        Assert.isTrue(burst > 0, "Burst must be positive");
+        Assert.isTrue(lockoutFailures >= 0 && lockoutBase >= 0 && lockoutMax >= lockoutBase, "Invalid lockout");
+
+        this.name = name;
+        this.tokenInterval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.burstTolerance = this.tokenInterval * burst;
+        this.lockoutFailures = lockoutFailures;
+        this.lockoutBase = TimeUnit.MILLISECONDS.toNanos(lockoutBase);
+        this.lockoutMax = TimeUnit.MILLISECONDS.toNanos(lockoutMax);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Takes a token of the key.
+     *
+     * @return 0 if a token was taken, otherwise the nanoseconds until the key may try again
+     */
+    public long tryAcquire(final String key) {
+        Assert.notNull(key);
+
+        final long now = System.nanoTime();
+        final Bucket bucket = this.getBucket(key, now);
+        final long lockedFor = bucket.lockedUntil - now;
+
+        if (lockedFor > 0) {
+            this.rejected.incrementAndGet();
+            return lockedFor;
+        }
+
+        while (true) {
+            final long fullAt = bucket.fullAt.get();
+            final long nextFullAt = Math.max(fullAt - now, 0) + now + this.tokenInterval;
+            final long wait = nextFullAt - now - this.burstTolerance;
+
+            if (wait > 0) {
+                this.rejected.incrementAndGet();
+                return wait;
+            }
+
+            if (bucket.fullAt.compareAndSet(fullAt, nextFullAt)) {
+                this.allowed.incrementAndGet();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Records a failed authentication of the key, locking it out once it failed lockoutFailures times in a row.
+     */
+    public void failure(final String key) {
+        Assert.notNull(key);
+
+        if (this.lockoutFailures == 0) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        final Bucket bucket = this.getBucket(key, now);
+        final int failures = bucket.failures.incrementAndGet();
+        bucket.lastFailure = now;
+
+        if (failures >= this.lockoutFailures) {
+            final int doublings = Math.min(failures - this.lockoutFailures, 30);
+            final long lockout = Math.min(this.lockoutBase << doublings, this.lockoutMax);
+
+            bucket.lockedUntil = now + lockout;
+            this.lockouts.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a successful authentication of the key, which resets its failures.
+     */
+    public void success(final String key) {
+        Assert.notNull(key);
+
+        final Bucket bucket = this.buckets.get(key);
+
+        if (bucket != null && bucket.failures.get() != 0) {
+            bucket.failures.set(0);
+        }
+    }
+
+    /**
+     * Drops the buckets that would be created the same way again. A request racing with the sweep may spend a
+     * token of a dropped bucket, which only ever lets a key through, never rejects it.
+     */
+    public void sweep() {
+        final long now = System.nanoTime();
+
+        this.buckets.values().removeIf(bucket -> bucket.fullAt.get() - now <= 0
+                && bucket.lockedUntil - now <= 0
+                && (bucket.failures.get() == 0 || now - bucket.lastFailure > this.lockoutMax));
+    }
+
+    public int getTracked() {
+        return this.buckets.size();
+    }
+
+    public long getAllowed() {
+        return this.allowed.get();
+    }
+
+    public long getRejected() {
+        return this.rejected.get();
+    }
+
+    public long getLockouts() {
+        return this.lockouts.get();
+    }
+
+    /**
+     * @return up to maxKeys locked out keys and the seconds until their lockout ends
+     */
+    public Map<String, Long> getLocked(final int maxKeys) {
+        final long now = System.nanoTime();
+        final Map<String, Long> locked = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Bucket> bucket : this.buckets.entrySet()) {
+            if (locked.size() >= maxKeys) {
+                break;
+            }
+
+            final long lockedFor = bucket.getValue().lockedUntil - now;
+
+            if (lockedFor > 0) {
+                locked.put(bucket.getKey(), TimeUnit.NANOSECONDS.toSeconds(lockedFor) + 1);
+            }
+        }
+
+        return locked;
+    }
+
+    private Bucket getBucket(final String key, final long now) {
+        final Bucket bucket = this.buckets.get(key);
+        return bucket != null ? bucket : this.buckets.computeIfAbsent(key, k -> new Bucket(now));
+    }
+
+    private static class Bucket {
+
+        /**
+         * System.nanoTime at which the bucket is full again, at or before now means it is full.
+         */
+        private final AtomicLong fullAt;
+
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private volatile long lastFailure;
+
+        private volatile long lockedUntil;
+
+        Bucket(final long now) {
+            this.fullAt = new AtomicLong(now);
+            this.lastFailure = now;
+            this.lockedUntil = now;
+        }
+    }
+}
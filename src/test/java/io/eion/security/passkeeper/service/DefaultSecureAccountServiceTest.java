@@ -1,5 +1,6 @@
 package io.eion.security.passkeeper.service;
 
+import io.eion.security.passkeeper.service.aspect.SynchronizedServiceAspect;
 import io.eion.security.passkeeper.service.bean.SecureAccount;
 import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
 import io.eion.security.passkeeper.service.exception.SecureAccountNotFoundException;
@@ -10,6 +11,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
@@ -32,6 +35,15 @@ public class DefaultSecureAccountServiceTest {
     @Autowired
     private DefaultSecureAccountService secureAccountService;
 
+    @Autowired
+    private SynchronizedServiceAspect synchronizedServiceAspect;
+
+    @Autowired
+    private PendingDeletions pendingDeletions;
+
+    @Autowired
+    private PurgeWorker purgeWorker;
+
     @Value("${security.keystore.location}")
     private String keystoreLocation;
 
@@ -39,10 +51,13 @@ public class DefaultSecureAccountServiceTest {
     public void testAuthenticateUser() throws Exception {
 
         this.secureAccountService.createUser(USER_NAME, MASTER_PASSWORD);
+        final long lockAcquisitions = this.getLockAcquisitions();
         final boolean shouldExist = this.secureAccountService.authenticateUser(USER_NAME, MASTER_PASSWORD);
         assertTrue(shouldExist);
+        assertEquals(lockAcquisitions, this.getLockAcquisitions());
 
         this.secureAccountService.markDeleteUser(USER_NAME, MASTER_PASSWORD);
+        assertEquals(lockAcquisitions + 1, this.getLockAcquisitions());
         this.secureAccountService.deleteUser(USER_NAME, MASTER_PASSWORD);
         final boolean shouldNotExist = this.secureAccountService.authenticateUser(USER_NAME, MASTER_PASSWORD);
         assertFalse(shouldNotExist);
@@ -91,6 +106,10 @@ public class DefaultSecureAccountServiceTest {
         final SecureAccount updatedSecureAccount = this.secureAccountService.updateSecureAccount(updateSecureAccount);
         assertEquals("updated", updatedSecureAccount.getPassword());
 
+        assertEquals(Collections.singletonList(accountAlias),
+                this.secureAccountService.deleteSecureAccounts(newSecureAccount, Arrays.asList(accountAlias, "doesnotexist")));
+        assertEquals(Collections.singletonList(DefaultSecureAccountService.DEFAULT_ACCOUNT), this.secureAccountService.getSecureAccountAliases(newSecureAccount));
+
         this.secureAccountService.markDeleteUser(USER_NAME, MASTER_PASSWORD);
         this.secureAccountService.deleteUser(USER_NAME, MASTER_PASSWORD);
 
@@ -101,4 +120,29 @@ public class DefaultSecureAccountServiceTest {
             // expected
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPurgeDeletedUser() throws Exception {
+        this.secureAccountService.createUser(USER_NAME, MASTER_PASSWORD);
+        this.secureAccountService.markDeleteUser(USER_NAME, MASTER_PASSWORD);
+        this.secureAccountService.deleteUser(USER_NAME, MASTER_PASSWORD);
+        assertTrue(this.pendingDeletions.isConfirmed(USER_NAME));
+
+        assertTrue(this.purgeWorker.purge(USER_NAME));
+        assertFalse(this.pendingDeletions.isConfirmed(USER_NAME));
+        assertFalse(this.purgeWorker.purge(USER_NAME));
+
+        this.secureAccountService.createUser(USER_NAME, MASTER_PASSWORD);
+        assertTrue(this.secureAccountService.authenticateUser(USER_NAME, MASTER_PASSWORD));
+
+        this.secureAccountService.markDeleteUser(USER_NAME, MASTER_PASSWORD);
+        this.secureAccountService.deleteUser(USER_NAME, MASTER_PASSWORD);
+    }
+
+    private long getLockAcquisitions() {
+        return this.synchronizedServiceAspect.metrics().stream()
+                .filter(metric -> metric.getName().equals("lock.acquisitions"))
+                .mapToLong(metric -> metric.getValue().longValue())
+                .findFirst().orElse(0);
+    }
+}
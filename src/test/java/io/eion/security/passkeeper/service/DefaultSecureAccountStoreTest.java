@@ -0,0 +1,269 @@
+package io.eion.security.passkeeper.service;
+
+import com.google.gson.Gson;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.metrics.StageTimers;
+import io.eion.security.passkeeper.service.storage.DurableFileWriter;
+import io.eion.security.passkeeper.service.storage.UserFileLayout;
+import io.eion.security.passkeeper.service.util.SecureAccountFileReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class DefaultSecureAccountStoreTest {
+
+    @Rule
+    public TemporaryFolder keystoreLocation = new TemporaryFolder();
+
+    private final Gson gson = new Gson();
+
+    private final AtomicInteger writes = new AtomicInteger();
+
+    @Test
+    public void testWriteBehindCoalescesMutations() throws Exception {
+
+        final DefaultSecureAccountStore store = this.createStore(60000, new SecureAccountFileReader(this.gson));
+        store.storeSecureAccount(this.createSecureAccount("joe", "gmail", "encrypted-1"));
+        store.storeSecureAccount(this.createSecureAccount("joe", "github", "encrypted-2"));
+        store.storeSecureAccount(this.createSecureAccount("joe", "gmail", "encrypted-3"));
+        store.deleteSecureAccountPassword(this.createRequest("joe", "github"));
+
+        assertEquals(0, this.writes.get());
+        assertFalse(this.getAccountFile("joe").exists());
+
+        store.flush();
+        assertEquals(1, this.writes.get());
+
+        // nothing is pending after the flush
+        store.flush();
+        assertEquals(1, this.writes.get());
+
+        final Map<String, SecureAccount> accounts = this.createStore(60000, new SecureAccountFileReader(this.gson)).getSecureAccounts("joe");
+        assertEquals(Collections.singleton("gmail"), accounts.keySet());
+        assertEquals("encrypted-3", accounts.get("gmail").getEncryptedPassword());
+    }
+
+    @Test
+    public void testPendingMutationsAreFlushedOnShutdown() throws Exception {
+
+        assertNotNull(DefaultSecureAccountStore.class.getMethod("flush").getAnnotation(PreDestroy.class));
+
+        final DefaultSecureAccountStore store = this.createStore(60000, new SecureAccountFileReader(this.gson));
+        store.storeSecureAccount(this.createSecureAccount("joe", "gmail", "encrypted-1"));
+        store.storeSecureAccount(this.createSecureAccount("jane", "dropbox", "encrypted-2"));
+        store.flush();
+
+        final DefaultSecureAccountStore restarted = this.createStore(60000, new SecureAccountFileReader(this.gson));
+        assertEquals("encrypted-1", restarted.getSecureAccount(this.createRequest("joe", "gmail")).get().getEncryptedPassword());
+        assertEquals("encrypted-2", restarted.getSecureAccount(this.createRequest("jane", "dropbox")).get().getEncryptedPassword());
+    }
+
+    @Test
+    public void testIdleIndexesAreEvicted() throws Exception {
+
+        final DefaultSecureAccountStore store = this.createStore(60000, new SecureAccountFileReader(this.gson));
+        ReflectionTestUtils.setField(store, "idleTimeout", 0);
+        store.storeSecureAccounts("joe", Collections.singletonList(this.createSecureAccount("joe", "gmail", "encrypted-1")));
+        store.storeSecureAccount(this.createSecureAccount("jane", "dropbox", "encrypted-2"));
+        Thread.sleep(10);
+
+        ReflectionTestUtils.invokeMethod(store, "evictIdleIndexes");
+
+        // jane's index has a pending mutation and is kept until it is flushed
+        assertEquals(Collections.singleton("jane"), this.getIndexes(store).keySet());
+
+        // joe's accounts are read from the file again
+        Files.write(this.getAccountFile("joe").toPath(), this.gson.toJson(Collections.singletonMap("github",
+                this.createSecureAccount("joe", "github", "encrypted-3"))).getBytes(StandardCharsets.UTF_8));
+        assertEquals(Collections.singleton("github"), store.getSecureAccounts("joe").keySet());
+
+        store.flush();
+        Thread.sleep(10);
+        ReflectionTestUtils.invokeMethod(store, "evictIdleIndexes");
+        assertTrue(this.getIndexes(store).isEmpty());
+    }
+
+    @Test
+    public void testMutationRetriesOnEvictedIndex() throws Exception {
+
+        final DefaultSecureAccountStore store = this.createStore(60000, new SecureAccountFileReader(this.gson));
+        ReflectionTestUtils.setField(store, "idleTimeout", 0);
+        store.storeSecureAccounts("joe", Collections.singletonList(this.createSecureAccount("joe", "gmail", "encrypted-1")));
+
+        final Object index = this.getIndexes(store).get("joe");
+        final AtomicReference<Thread> worker = new AtomicReference<>();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final Future<?> mutation;
+
+            // the mutation looks the index up and waits for it while it is evicted
+            synchronized (index) {
+                mutation = executor.submit(() -> {
+                    worker.set(Thread.currentThread());
+                    store.storeSecureAccount(this.createSecureAccount("joe", "github", "encrypted-2"));
+                    return null;
+                });
+
+                this.awaitBlocked(worker);
+                Thread.sleep(10);
+                ReflectionTestUtils.invokeMethod(store, "evictIdleIndexes");
+            }
+
+            mutation.get(5, TimeUnit.SECONDS);
+
+        } finally {
+            executor.shutdown();
+        }
+
+        final Object reloaded = this.getIndexes(store).get("joe");
+        assertNotSame(index, reloaded);
+        assertEquals(Arrays.asList("github", "gmail"), this.sorted(store.getSecureAccounts("joe")));
+
+        store.flush();
+        assertEquals(Arrays.asList("github", "gmail"),
+                this.sorted(this.createStore(60000, new SecureAccountFileReader(this.gson)).getSecureAccounts("joe")));
+    }
+
+    @Test
+    public void testDeletionDuringLoadIsNotUndone() throws Exception {
+
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final SecureAccountFileReader blockingReader = new SecureAccountFileReader(this.gson) {
+
+            @Override
+            public Map<String, SecureAccount> readSecureAccounts(final File secureAccountFile) throws IOException {
+                final Map<String, SecureAccount> secureAccounts = super.readSecureAccounts(secureAccountFile);
+                reading.countDown();
+
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                return secureAccounts;
+            }
+        };
+
+        this.createStore(0, new SecureAccountFileReader(this.gson))
+                .storeSecureAccount(this.createSecureAccount("joe", "gmail", "encrypted-1"));
+
+        final DefaultSecureAccountStore store = this.createStore(0, blockingReader);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            // a reader loads the accounts of the user while the user is deleted
+            final Future<Map<String, SecureAccount>> read = executor.submit(() -> store.getSecureAccounts("joe"));
+            assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+            final Future<?> deletion = executor.submit(() -> {
+                store.deleteSecureAccountStore("joe");
+                return null;
+            });
+
+            Thread.sleep(50);
+            resume.countDown();
+            assertEquals(Collections.singleton("gmail"), read.get(5, TimeUnit.SECONDS).keySet());
+            deletion.get(5, TimeUnit.SECONDS);
+
+        } finally {
+            executor.shutdown();
+        }
+
+        // the user created again with the same name starts without accounts
+        assertFalse(this.getAccountFile("joe").exists());
+        assertTrue(store.getSecureAccounts("joe").isEmpty());
+    }
+
+    private void awaitBlocked(final AtomicReference<Thread> worker) throws Exception {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+
+        while ((worker.get() == null || worker.get().getState() != Thread.State.BLOCKED) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(Thread.State.BLOCKED, worker.get().getState());
+    }
+
+    private DefaultSecureAccountStore createStore(final long flushDelay, final SecureAccountFileReader secureAccountFileReader) {
+        final DefaultSecureAccountStore store = new DefaultSecureAccountStore();
+        ReflectionTestUtils.setField(store, "userFileLayout", new UserFileLayout(this.keystoreLocation.getRoot(), UserFileLayout.Layout.FLAT));
+        ReflectionTestUtils.setField(store, "durableFileWriter", new DurableFileWriter(DurableFileWriter.SyncMode.NONE, 0) {
+
+            @Override
+            public void write(final File file, final Content content) throws Exception {
+                DefaultSecureAccountStoreTest.this.writes.incrementAndGet();
+                super.write(file, content);
+            }
+        });
+        ReflectionTestUtils.setField(store, "flushDelay", flushDelay);
+        ReflectionTestUtils.setField(store, "idleTimeout", 600);
+        ReflectionTestUtils.setField(store, "indexEnabled", true);
+        ReflectionTestUtils.setField(store, "gson", this.gson);
+        ReflectionTestUtils.setField(store, "secureAccountFileReader", secureAccountFileReader);
+        ReflectionTestUtils.setField(store, "stageTimers", new StageTimers());
+
+        return store;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, ?> getIndexes(final DefaultSecureAccountStore store) {
+        return (Map<String, ?>) ReflectionTestUtils.getField(store, "indexes");
+    }
+
+    private List<String> sorted(final Map<String, SecureAccount> accounts) {
+        final List<String> aliases = new ArrayList<>(accounts.keySet());
+        Collections.sort(aliases);
+
+        return aliases;
+    }
+
+    private File getAccountFile(final String username) {
+        return new UserFileLayout(this.keystoreLocation.getRoot(), UserFileLayout.Layout.FLAT).getFile(username, DefaultSecureAccountStore.ACCOUNT_EXT);
+    }
+
+    private SecureAccount createSecureAccount(final String username, final String accountAlias, final String encryptedPassword) {
+        return SecureAccount.builder()
+                .username(username)
+                .accountAlias(accountAlias)
+                .accountUsername("dummy@gmail.com")
+                .encryptedPassword(encryptedPassword).build();
+    }
+
+    private SecureAccountRequest createRequest(final String username, final String accountAlias) {
+        return SecureAccountRequest.builder()
+                .username(username)
+                .accountAlias(accountAlias).build();
+    }
+}
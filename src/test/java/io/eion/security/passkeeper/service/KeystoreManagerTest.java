@@ -0,0 +1,108 @@
+package io.eion.security.passkeeper.service;
+
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.cache.KeyStoreCache;
+import io.eion.security.passkeeper.service.metrics.StageTimers;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class KeystoreManagerTest {
+
+    private static final String USER_NAME = KeystoreManagerTest.class.getSimpleName();
+
+    private static final String MASTER_PASSWORD = "masterPassword";
+
+    private final InMemoryKeystoreManager keystoreManager = new InMemoryKeystoreManager();
+
+    private final SecureAccountRequest request = SecureAccountRequest.builder()
+            .username(USER_NAME)
+            .masterPassword(MASTER_PASSWORD).build();
+
+    @Before
+    public void prepare() {
+        final KeyStoreCache keyStoreCache = new KeyStoreCache();
+        ReflectionTestUtils.setField(keyStoreCache, "maxSize", 10);
+        ReflectionTestUtils.setField(keyStoreCache, "ttl", 60);
+
+        ReflectionTestUtils.setField(this.keystoreManager, "keyStoreCache", keyStoreCache);
+        ReflectionTestUtils.setField(this.keystoreManager, "stageTimers", new StageTimers());
+    }
+
+    @Test
+    public void testReadBeforeSaveDoesNotCacheStaleKeyStore() throws Exception {
+
+        this.keystoreManager.createKeyStore(this.request);
+        this.keystoreManager.evictKeyStore(USER_NAME);
+
+        // a writer saves a new key after the reader has read the file, but before the reader caches what it read
+        this.keystoreManager.afterRead = () -> {
+            final SecureAccountRequest accountRequest = SecureAccountRequest.builder()
+                    .username(USER_NAME)
+                    .masterPassword(MASTER_PASSWORD)
+                    .accountAlias("gmail").build();
+            final KeyStore writerKeyStore = this.keystoreManager.getKeyStore(this.request);
+            this.keystoreManager.createSecretKey(writerKeyStore, accountRequest);
+            this.keystoreManager.saveKeyStore(this.request, writerKeyStore);
+        };
+
+        this.keystoreManager.getKeyStore(this.request);
+
+        // the next writer would save whatever the cache hands out
+        assertTrue(this.keystoreManager.getKeyStore(this.request).containsAlias("gmail"));
+    }
+
+    private interface Hook {
+
+        void run() throws Exception;
+    }
+
+    private static class InMemoryKeystoreManager extends AbstractKeystoreManager {
+
+        private final Map<String, byte[]> keyStores = new ConcurrentHashMap<>();
+
+        private Hook afterRead;
+
+        @Override
+        protected boolean keyStoreExists(final String username) {
+            return this.keyStores.containsKey(username);
+        }
+
+        @Override
+        protected InputStream readKeyStore(final String username) throws Exception {
+            final byte[] keyStore = this.keyStores.get(username);
+            final Hook hook = this.afterRead;
+
+            if (hook != null) {
+                this.afterRead = null;
+                hook.run();
+            }
+
+            return new ByteArrayInputStream(keyStore);
+        }
+
+        @Override
+        protected void writeKeyStore(final String username, final KeyStore keyStore, final char[] masterPassword) throws Exception {
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            keyStore.store(stream, masterPassword);
+            this.keyStores.put(username, stream.toByteArray());
+        }
+
+        @Override
+        protected boolean removeKeyStore(final String username) {
+            return this.keyStores.remove(username) != null;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package io.eion.security.passkeeper.service;
+
+import com.google.gson.Gson;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.storage.DurableFileWriter;
+import io.eion.security.passkeeper.service.storage.UserFileLayout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class LogStructuredSecureAccountStoreTest {
+
+    private static final String USER_NAME = LogStructuredSecureAccountStoreTest.class.getSimpleName();
+
+    @Rule
+    public TemporaryFolder keystoreLocation = new TemporaryFolder();
+
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    private final Gson gson = new Gson();
+
+    @Before
+    public void prepare() {
+        this.taskScheduler = new ThreadPoolTaskScheduler();
+        this.taskScheduler.initialize();
+    }
+
+    @After
+    public void after() {
+        this.taskScheduler.shutdown();
+    }
+
+    @Test
+    public void testRebuildStateFromLog() throws Exception {
+
+        final LogStructuredSecureAccountStore store = this.createStore();
+        store.storeSecureAccount(this.createSecureAccount("gmail", "encrypted-1"));
+        store.storeSecureAccount(this.createSecureAccount("gmail", "encrypted-2"));
+        store.storeSecureAccount(this.createSecureAccount("github", "encrypted-3"));
+        store.deleteSecureAccountPassword(this.createRequest("github"));
+        store.storeSecureAccounts(USER_NAME, Arrays.asList(this.createSecureAccount("dropbox", "encrypted-4"), this.createSecureAccount("slack", "encrypted-5")));
+
+        final LogStructuredSecureAccountStore reloadedStore = this.createStore();
+        final Optional<SecureAccount> gmail = reloadedStore.getSecureAccount(this.createRequest("gmail"));
+        assertTrue(gmail.isPresent());
+        assertEquals("encrypted-2", gmail.get().getEncryptedPassword());
+        assertFalse(reloadedStore.getSecureAccount(this.createRequest("github")).isPresent());
+        assertEquals(3, reloadedStore.getSecureAccounts(USER_NAME).size());
+        assertEquals("encrypted-5", reloadedStore.getSecureAccounts(USER_NAME).get("slack").getEncryptedPassword());
+
+        reloadedStore.deleteSecureAccountPasswords(USER_NAME, Arrays.asList("gmail", "slack"));
+        assertEquals(Collections.singleton("dropbox"), this.createStore().getSecureAccounts(USER_NAME).keySet());
+    }
+
+    @Test
+    public void testMigrateLegacyAccountFile() throws Exception {
+
+        final File legacyAccountFile = new File(this.keystoreLocation.getRoot(), USER_NAME + DefaultSecureAccountStore.ACCOUNT_EXT);
+        final String legacyJSON = this.gson.toJson(Collections.singletonMap("default", this.createSecureAccount("default", "encrypted")));
+        Files.write(legacyAccountFile.toPath(), legacyJSON.getBytes(StandardCharsets.UTF_8));
+
+        final LogStructuredSecureAccountStore store = this.createStore();
+        final Optional<SecureAccount> secureAccount = store.getSecureAccount(this.createRequest("default"));
+        assertTrue(secureAccount.isPresent());
+        assertEquals("encrypted", secureAccount.get().getEncryptedPassword());
+
+        assertFalse(legacyAccountFile.exists());
+        assertTrue(this.getAccountLogFile().exists());
+    }
+
+    @Test
+    public void testConcurrentFirstAccess() throws Exception {
+
+        final File legacyAccountFile = new File(this.keystoreLocation.getRoot(), USER_NAME + DefaultSecureAccountStore.ACCOUNT_EXT);
+        final String legacyJSON = this.gson.toJson(Collections.singletonMap("default", this.createSecureAccount("default", "encrypted")));
+        Files.write(legacyAccountFile.toPath(), legacyJSON.getBytes(StandardCharsets.UTF_8));
+
+        // every thread touches the user for the first time, half of them by appending
+        final LogStructuredSecureAccountStore store = this.createStore();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+        final List<String> storedAliases = new ArrayList<>();
+
+        for (int i = 0; i < 16; i++) {
+            final String accountAlias = "alias" + i;
+            final boolean append = i % 2 == 0;
+
+            if (append) {
+                storedAliases.add(accountAlias);
+            }
+
+            futures.add(executor.submit(() -> {
+                start.await();
+
+                if (append) {
+                    store.storeSecureAccount(this.createSecureAccount(accountAlias, "encrypted"));
+                } else {
+                    store.getSecureAccounts(USER_NAME);
+                }
+
+                return null;
+            }));
+        }
+
+        start.countDown();
+
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+
+        executor.shutdown();
+
+        final Map<String, SecureAccount> reloaded = this.createStore().getSecureAccounts(USER_NAME);
+        assertEquals(storedAliases.size() + 1, reloaded.size());
+        assertTrue(reloaded.containsKey("default"));
+        assertTrue(reloaded.keySet().containsAll(storedAliases));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+
+        final LogStructuredSecureAccountStore store = this.createStore();
+
+        for (int i = 0; i < 10; i++) {
+            store.storeSecureAccount(this.createSecureAccount("default", "encrypted-" + i));
+        }
+
+        store.compact(USER_NAME);
+        assertEquals(1, Files.readAllLines(this.getAccountLogFile().toPath()).size());
+        assertEquals("encrypted-9", store.getSecureAccount(this.createRequest("default")).get().getEncryptedPassword());
+
+        store.deleteSecureAccountStore(USER_NAME);
+        assertFalse(this.getAccountLogFile().exists());
+    }
+
+    private LogStructuredSecureAccountStore createStore() {
+        final LogStructuredSecureAccountStore store = new LogStructuredSecureAccountStore();
+        ReflectionTestUtils.setField(store, "userFileLayout", this.createLayout());
+        ReflectionTestUtils.setField(store, "compactionThreshold", 0.5);
+        ReflectionTestUtils.setField(store, "compactionMinRecords", 1000);
+        ReflectionTestUtils.setField(store, "idleTimeout", 600);
+        ReflectionTestUtils.setField(store, "gson", this.gson);
+        ReflectionTestUtils.setField(store, "taskScheduler", this.taskScheduler);
+        ReflectionTestUtils.setField(store, "durableFileWriter", new DurableFileWriter(DurableFileWriter.SyncMode.NONE, 0));
+
+        return store;
+    }
+
+    private UserFileLayout createLayout() {
+        return new UserFileLayout(this.keystoreLocation.getRoot(), UserFileLayout.Layout.FANOUT);
+    }
+
+    private File getAccountLogFile() {
+        return this.createLayout().getFile(USER_NAME, LogStructuredSecureAccountStore.ACCOUNT_LOG_EXT);
+    }
+
+    private SecureAccount createSecureAccount(final String accountAlias, final String encryptedPassword) {
+        return SecureAccount.builder()
+                .username(USER_NAME)
+                .accountAlias(accountAlias)
+                .accountUsername("dummy@gmail.com")
+                .encryptedPassword(encryptedPassword).build();
+    }
+
+    private SecureAccountRequest createRequest(final String accountAlias) {
+        return SecureAccountRequest.builder()
+                .username(USER_NAME)
+                .accountAlias(accountAlias).build();
+    }
+}
@@ -0,0 +1,57 @@
+package io.eion.security.passkeeper.service;
+
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class MasterRegistrationQueueTest {
+
+    private static final String USER_NAME = MasterRegistrationQueueTest.class.getSimpleName();
+
+    @Autowired
+    private SecureAccountService secureAccountService;
+
+    @Autowired
+    private MasterRegistrationQueue masterRegistrationQueue;
+
+    @Autowired
+    private MasterRegistry masterRegistry;
+
+    @After
+    public void after() {
+        this.secureAccountService.markDeleteUser(USER_NAME, "updated");
+        this.secureAccountService.deleteUser(USER_NAME, "updated");
+    }
+
+    @Test
+    public void testRegistrationIsUpsert() {
+
+        this.secureAccountService.createUser(USER_NAME, "password");
+        this.secureAccountService.markDeleteUser(USER_NAME, "password");
+        this.secureAccountService.deleteUser(USER_NAME, "password");
+        this.secureAccountService.createUser(USER_NAME, "updated");
+
+        while (this.masterRegistrationQueue.flush() > 0) {
+            // drains the registrations of this and the other tests
+        }
+
+        final Optional<SecureAccount> registration = this.masterRegistry.findRegistration(USER_NAME);
+
+        assertTrue(registration.isPresent());
+        assertEquals("updated", registration.get().getPassword());
+    }
+}
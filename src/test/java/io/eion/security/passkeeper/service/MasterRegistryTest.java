@@ -0,0 +1,62 @@
+package io.eion.security.passkeeper.service;
+
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class MasterRegistryTest {
+
+    private static final String USER_NAME = MasterRegistryTest.class.getSimpleName();
+
+    @Autowired
+    private SecureAccountService secureAccountService;
+
+    @Autowired
+    private MasterRegistry masterRegistry;
+
+    @Value("${security.master.username}")
+    private String masterUsername;
+
+    @Value("${security.master.password}")
+    private String masterPassword;
+
+    @Test
+    public void testMigrateSingleMaster() {
+
+        this.secureAccountService.createUser(this.masterUsername, this.masterPassword);
+        this.secureAccountService.updateSecureAccounts(this.masterRegistry.getShardRequest(this.masterUsername), Collections.singletonList(
+                SecureAccountRequest.builder()
+                        .accountAlias(USER_NAME)
+                        .accountUsername(USER_NAME)
+                        .password("password").build()));
+
+        this.masterRegistry.migrate();
+
+        final Optional<SecureAccount> registration = this.masterRegistry.findRegistration(USER_NAME);
+        assertTrue(registration.isPresent());
+        assertEquals("password", registration.get().getPassword());
+        assertFalse(this.secureAccountService.authenticateUser(this.masterUsername, this.masterPassword));
+
+        this.secureAccountService.deleteSecureAccount(SecureAccountRequest.builder()
+                .username(this.masterRegistry.getShard(USER_NAME))
+                .masterPassword(this.masterPassword)
+                .accountAlias(USER_NAME).build());
+    }
+}
@@ -0,0 +1,157 @@
+package io.eion.security.passkeeper.service;
+
+import com.google.gson.Gson;
+import io.eion.security.passkeeper.service.storage.DurableFileWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class PendingDeletionsTest {
+
+    @Rule
+    public TemporaryFolder keystoreLocation = new TemporaryFolder();
+
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    @Before
+    public void prepare() {
+        this.taskScheduler = new ThreadPoolTaskScheduler();
+        this.taskScheduler.initialize();
+    }
+
+    @After
+    public void after() {
+        this.taskScheduler.shutdown();
+    }
+
+    @Test
+    public void testReplayAcrossRestart() throws Exception {
+
+        final PendingDeletions pendingDeletions = this.createPendingDeletions(600);
+        assertTrue(pendingDeletions.mark("marked"));
+        assertTrue(pendingDeletions.mark("confirmed"));
+        assertTrue(pendingDeletions.mark("purged"));
+        assertTrue(pendingDeletions.confirm("confirmed"));
+        assertTrue(pendingDeletions.confirm("purged"));
+        pendingDeletions.purged("purged");
+
+        final PendingDeletions restarted = this.createPendingDeletions(600);
+        assertTrue(restarted.isMarked("marked"));
+        assertFalse(restarted.isConfirmed("marked"));
+        assertFalse(restarted.isMarked("confirmed"));
+        assertTrue(restarted.isConfirmed("confirmed"));
+        assertFalse(restarted.isMarked("purged"));
+        assertFalse(restarted.isConfirmed("purged"));
+        assertEquals(Collections.singletonList("confirmed"), restarted.getConfirmed(10));
+    }
+
+    @Test
+    public void testExpiredMarksAreDroppedOnReplay() throws Exception {
+
+        final PendingDeletions pendingDeletions = this.createPendingDeletions(0);
+        assertTrue(pendingDeletions.mark("expired"));
+
+        assertFalse(this.createPendingDeletions(0).isMarked("expired"));
+    }
+
+    @Test
+    public void testCompactionAcrossRestart() throws Exception {
+
+        final PendingDeletions pendingDeletions = this.createPendingDeletions(600);
+
+        // three records a user, enough to compact the log more than once
+        for (int i = 0; i < 1000; i++) {
+            final String username = "user" + i;
+            assertTrue(pendingDeletions.mark(username));
+            assertTrue(pendingDeletions.confirm(username));
+            pendingDeletions.purged(username);
+        }
+
+        assertTrue(pendingDeletions.mark("marked"));
+        assertTrue(pendingDeletions.mark("confirmed"));
+        assertTrue(pendingDeletions.confirm("confirmed"));
+
+        final File logFile = new File(this.keystoreLocation.getRoot(), PendingDeletions.PENDING_DELETIONS_FILE);
+        assertTrue(Files.readAllLines(logFile.toPath()).size() <= 1000 + 2);
+
+        final PendingDeletions restarted = this.createPendingDeletions(600);
+        assertTrue(restarted.isMarked("marked"));
+        assertTrue(restarted.isConfirmed("confirmed"));
+        assertEquals(Collections.singletonList("confirmed"), restarted.getConfirmed(10));
+        assertFalse(restarted.isConfirmed("user999"));
+
+        // replay rewrites the log with what is pending only
+        assertEquals(2, Files.readAllLines(logFile.toPath()).size());
+    }
+
+    @Test
+    public void testConfirmedUsersInOrderOfConfirmation() throws Exception {
+
+        final PendingDeletions pendingDeletions = this.createPendingDeletions(600);
+
+        for (String username : Arrays.asList("c", "a", "b")) {
+            assertTrue(pendingDeletions.mark(username));
+        }
+
+        for (String username : Arrays.asList("b", "c", "a")) {
+            assertTrue(pendingDeletions.confirm(username));
+        }
+
+        assertEquals(Arrays.asList("b", "c"), pendingDeletions.getConfirmed(2));
+        assertEquals(Arrays.asList("b", "c", "a"), this.createPendingDeletions(600).getConfirmed(10));
+    }
+
+    @Test
+    public void testIsConfirmedDoesNotWaitForChanges() throws Exception {
+
+        final PendingDeletions pendingDeletions = this.createPendingDeletions(600);
+        assertTrue(pendingDeletions.mark("confirmed"));
+        assertTrue(pendingDeletions.confirm("confirmed"));
+
+        // a change that holds the monitor, e.g. while appending to the log
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            synchronized (pendingDeletions) {
+                assertTrue(executor.submit(() -> pendingDeletions.isConfirmed("confirmed")).get(5, TimeUnit.SECONDS));
+                assertFalse(executor.submit(() -> pendingDeletions.isMarked("confirmed")).get(5, TimeUnit.SECONDS));
+            }
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private PendingDeletions createPendingDeletions(final int deleteDelay) throws Exception {
+        final PendingDeletions pendingDeletions = new PendingDeletions();
+        ReflectionTestUtils.setField(pendingDeletions, "keystoreLocation", this.keystoreLocation.getRoot().getPath());
+        ReflectionTestUtils.setField(pendingDeletions, "deleteDelay", deleteDelay);
+        ReflectionTestUtils.setField(pendingDeletions, "resolution", 1000L);
+        ReflectionTestUtils.setField(pendingDeletions, "wheelSize", 64);
+        ReflectionTestUtils.setField(pendingDeletions, "gson", new Gson());
+        ReflectionTestUtils.setField(pendingDeletions, "taskScheduler", this.taskScheduler);
+        ReflectionTestUtils.setField(pendingDeletions, "durableFileWriter", new DurableFileWriter(DurableFileWriter.SyncMode.ALWAYS, 0));
+        pendingDeletions.initialize();
+
+        return pendingDeletions;
+    }
+}
@@ -0,0 +1,166 @@
+package io.eion.security.passkeeper.service;
+
+import com.google.gson.Gson;
+import io.eion.security.passkeeper.service.auth.UserVerifiers;
+import io.eion.security.passkeeper.service.cache.SecureAccountSnapshots;
+import io.eion.security.passkeeper.service.storage.DurableFileWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class PurgeWorkerTest {
+
+    @Rule
+    public TemporaryFolder keystoreLocation = new TemporaryFolder();
+
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    private PendingDeletions pendingDeletions;
+
+    private UserVerifiers userVerifiers;
+
+    /**
+     * Calls of the stores in order, e.g. "deleteSecureAccountStore user0".
+     */
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void prepare() throws Exception {
+        this.taskScheduler = new ThreadPoolTaskScheduler();
+        this.taskScheduler.initialize();
+
+        this.pendingDeletions = new PendingDeletions();
+        ReflectionTestUtils.setField(this.pendingDeletions, "keystoreLocation", this.keystoreLocation.getRoot().getPath());
+        ReflectionTestUtils.setField(this.pendingDeletions, "deleteDelay", 600);
+        ReflectionTestUtils.setField(this.pendingDeletions, "resolution", 1000L);
+        ReflectionTestUtils.setField(this.pendingDeletions, "wheelSize", 64);
+        ReflectionTestUtils.setField(this.pendingDeletions, "gson", new Gson());
+        ReflectionTestUtils.setField(this.pendingDeletions, "taskScheduler", this.taskScheduler);
+        ReflectionTestUtils.setField(this.pendingDeletions, "durableFileWriter", new DurableFileWriter(DurableFileWriter.SyncMode.NONE, 0));
+        this.pendingDeletions.initialize();
+
+        this.userVerifiers = new UserVerifiers();
+        ReflectionTestUtils.setField(this.userVerifiers, "keystoreLocation", this.keystoreLocation.getRoot().getPath());
+        ReflectionTestUtils.setField(this.userVerifiers, "enabled", true);
+        ReflectionTestUtils.setField(this.userVerifiers, "iterations", 1000);
+        ReflectionTestUtils.setField(this.userVerifiers, "gson", new Gson());
+        ReflectionTestUtils.setField(this.userVerifiers, "durableFileWriter", new DurableFileWriter(DurableFileWriter.SyncMode.NONE, 0));
+        this.userVerifiers.initialize();
+    }
+
+    @After
+    public void after() {
+        this.taskScheduler.shutdown();
+    }
+
+    @Test
+    public void testPurgeBatchIsBoundedAndPaced() throws Exception {
+
+        this.confirm("user0", "user1", "user2", "user3", "user4");
+        final PurgeWorker purgeWorker = this.createPurgeWorker(3, 20, 60000);
+
+        final long start = System.nanoTime();
+        purgeWorker.purgeBatch();
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 3 users at 20 users a second take 3 slots of 50 milliseconds
+        assertTrue("Batch took " + elapsed + " ms", elapsed >= 140);
+        assertEquals(Arrays.asList("user3", "user4"), this.pendingDeletions.getConfirmed(10));
+        assertEquals(Arrays.asList(
+                "deleteSecureAccountStore user0", "purgeKeyStore user0",
+                "deleteSecureAccountStore user1", "purgeKeyStore user1",
+                "deleteSecureAccountStore user2", "purgeKeyStore user2"), this.calls);
+    }
+
+    @Test
+    public void testWorkerPurgesOnItsOwnThread() throws Exception {
+
+        this.confirm("user0", "user1", "user2");
+        final PurgeWorker purgeWorker = this.createPurgeWorker(2, 1000, 10);
+        purgeWorker.initialize();
+
+        try {
+            final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+
+            while (!this.pendingDeletions.getConfirmed(10).isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertTrue(this.pendingDeletions.getConfirmed(10).isEmpty());
+            assertFalse(this.pendingDeletions.isConfirmed("user2"));
+
+        } finally {
+            purgeWorker.close();
+        }
+    }
+
+    @Test
+    public void testPurgeRemovesVerifier() throws Exception {
+
+        // enrolled again by an authentication that loaded the KeyStore before the deletion
+        this.confirm("user0");
+        this.userVerifiers.enroll("user0", "secret");
+
+        assertTrue(this.createPurgeWorker(10, 1000, 60000).purge("user0"));
+        assertEquals(Optional.empty(), this.userVerifiers.verify("user0", "secret"));
+    }
+
+    @Test
+    public void testPurgeSkipsUsersThatAreNotConfirmed() throws Exception {
+
+        assertTrue(this.pendingDeletions.mark("marked"));
+        final PurgeWorker purgeWorker = this.createPurgeWorker(10, 1000, 60000);
+
+        assertFalse(purgeWorker.purge("marked"));
+        assertFalse(purgeWorker.purge("unknown"));
+        assertTrue(this.calls.isEmpty());
+    }
+
+    private void confirm(final String... usernames) {
+
+        for (String username : usernames) {
+            assertTrue(this.pendingDeletions.mark(username));
+            assertTrue(this.pendingDeletions.confirm(username));
+        }
+    }
+
+    private PurgeWorker createPurgeWorker(final int batchSize, final int purgeRate, final long purgeInterval) {
+        final PurgeWorker purgeWorker = new PurgeWorker();
+        ReflectionTestUtils.setField(purgeWorker, "batchSize", batchSize);
+        ReflectionTestUtils.setField(purgeWorker, "purgeRate", purgeRate);
+        ReflectionTestUtils.setField(purgeWorker, "purgeInterval", purgeInterval);
+        ReflectionTestUtils.setField(purgeWorker, "pendingDeletions", this.pendingDeletions);
+        ReflectionTestUtils.setField(purgeWorker, "keystoreManager", this.recordCalls(KeystoreManager.class, true));
+        ReflectionTestUtils.setField(purgeWorker, "secureAccountStore", this.recordCalls(SecureAccountStore.class, null));
+        ReflectionTestUtils.setField(purgeWorker, "secureAccountSnapshots", new SecureAccountSnapshots());
+        ReflectionTestUtils.setField(purgeWorker, "userVerifiers", this.userVerifiers);
+
+        return purgeWorker;
+    }
+
+    private <T> T recordCalls(final Class<T> type, final Object result) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            this.calls.add(method.getName() + " " + args[0]);
+            return result;
+        }));
+    }
+}
@@ -0,0 +1,106 @@
+package io.eion.security.passkeeper.service;
+
+import com.google.gson.Gson;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import io.eion.security.passkeeper.service.storage.UserFileLayout;
+import io.eion.security.passkeeper.service.storage.VaultFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class SingleFileSecureAccountStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void testUsernamesSharingAPrefixAreKeptApart() throws Exception {
+
+        try (VaultFile vaultFile = new VaultFile(this.folder.newFile("test.vault"), false, 0.5)) {
+            final SingleFileSecureAccountStore store = this.createStore(vaultFile);
+            store.storeSecureAccount(this.createSecureAccount("joe", "gmail", "encrypted-1"));
+            store.storeSecureAccount(this.createSecureAccount("joe/x", "gmail", "encrypted-2"));
+            store.storeSecureAccount(this.createSecureAccount("joe", "x/gmail", "encrypted-3"));
+
+            assertEquals(new HashSet<>(Arrays.asList("gmail", "x/gmail")), store.getSecureAccounts("joe").keySet());
+            assertEquals(Collections.singleton("gmail"), store.getSecureAccounts("joe/x").keySet());
+
+            store.deleteSecureAccountStore("joe");
+            assertTrue(store.getSecureAccounts("joe").isEmpty());
+            assertEquals("encrypted-2", store.getSecureAccount(this.createRequest("joe/x", "gmail")).get().getEncryptedPassword());
+        }
+    }
+
+    @Test
+    public void testMigrateAccountLogs() throws Exception {
+
+        final File keystoreLocation = this.folder.newFolder("keystores");
+        final UserFileLayout layout = new UserFileLayout(keystoreLocation, UserFileLayout.Layout.FANOUT);
+        final File vault = new File(this.folder.getRoot(), "migrated.vault");
+
+        // joe's accounts are kept in an account log, jane's still in a JSON account file
+        layout.getFile("joe", DefaultKeystoreManager.KEYSTORE_EXT).getParentFile().mkdirs();
+        Files.write(layout.getFile("joe", DefaultKeystoreManager.KEYSTORE_EXT).toPath(), new byte[]{1, 2, 3});
+        Files.write(layout.getFile("joe", LogStructuredSecureAccountStore.ACCOUNT_LOG_EXT).toPath(), Arrays.asList(
+                "{\"op\":\"PUT\",\"alias\":\"gmail\",\"account\":" + this.gson.toJson(this.createSecureAccount("joe", "gmail", "encrypted-1")) + "}",
+                "{\"op\":\"PUT\",\"alias\":\"github\",\"account\":" + this.gson.toJson(this.createSecureAccount("joe", "github", "encrypted-2")) + "}",
+                "{\"op\":\"DELETE\",\"alias\":\"github\"}"), StandardCharsets.UTF_8);
+
+        layout.getFile("jane", DefaultKeystoreManager.KEYSTORE_EXT).getParentFile().mkdirs();
+        Files.write(layout.getFile("jane", DefaultKeystoreManager.KEYSTORE_EXT).toPath(), new byte[]{4, 5, 6});
+        Files.write(layout.getFile("jane", DefaultSecureAccountStore.ACCOUNT_EXT).toPath(), this.gson.toJson(
+                Collections.singletonMap("dropbox", this.createSecureAccount("jane", "dropbox", "encrypted-3"))).getBytes(StandardCharsets.UTF_8));
+
+        VaultMigrationTool.main(new String[]{keystoreLocation.getPath(), vault.getPath()});
+
+        try (VaultFile vaultFile = new VaultFile(vault, false, 0.5)) {
+            final SingleFileSecureAccountStore store = this.createStore(vaultFile);
+            final Map<String, SecureAccount> joe = store.getSecureAccounts("joe");
+            assertEquals(Collections.singleton("gmail"), joe.keySet());
+            assertEquals("encrypted-1", joe.get("gmail").getEncryptedPassword());
+            assertEquals("encrypted-3", store.getSecureAccounts("jane").get("dropbox").getEncryptedPassword());
+            assertFalse(store.getSecureAccount(this.createRequest("joe", "github")).isPresent());
+        }
+    }
+
+    private SingleFileSecureAccountStore createStore(final VaultFile vaultFile) {
+        final SingleFileSecureAccountStore store = new SingleFileSecureAccountStore();
+        ReflectionTestUtils.setField(store, "vaultFile", vaultFile);
+        ReflectionTestUtils.setField(store, "gson", this.gson);
+
+        return store;
+    }
+
+    private SecureAccount createSecureAccount(final String username, final String accountAlias, final String encryptedPassword) {
+        return SecureAccount.builder()
+                .username(username)
+                .accountAlias(accountAlias)
+                .accountUsername("dummy@gmail.com")
+                .encryptedPassword(encryptedPassword).build();
+    }
+
+    private SecureAccountRequest createRequest(final String username, final String accountAlias) {
+        return SecureAccountRequest.builder()
+                .username(username)
+                .accountAlias(accountAlias).build();
+    }
+}
@@ -0,0 +1,52 @@
+package io.eion.security.passkeeper.service.audit;
+
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import org.junit.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class AuditEventTest {
+
+    @Test
+    public void testSecretsAreRedacted() throws Exception {
+
+        final SecureAccountRequest request = SecureAccountRequest.builder()
+                .username("joe")
+                .masterPassword("masterPassword")
+                .accountAlias("mail")
+                .password("password").build();
+
+        final AuditEvent event = AuditEvent.builder("updateSecureAccount", "joe")
+                .field("request", request)
+                .field("key", new SecretKeySpec(new byte[16], "AES"))
+                .field("bytes", "password".getBytes())
+                .field("accountAlias", "mail").build();
+
+        assertEquals(AuditEvent.REDACTED, event.getField("request"));
+        assertEquals(AuditEvent.REDACTED, event.getField("key"));
+        assertEquals(AuditEvent.REDACTED, event.getField("bytes"));
+        assertEquals("mail", event.getField("accountAlias"));
+        assertFalse(event.render().contains("password"));
+    }
+
+    @Test
+    public void testRender() throws Exception {
+
+        final AuditEvent event = AuditEvent.builder("authenticateUser", "jo\"e\n")
+                .outcome(AuditEvent.Outcome.FAILURE)
+                .durationNanos(2500)
+                .field("attempts", 3).build();
+
+        final String line = event.render();
+        assertTrue(line, line.startsWith("{\"time\":\""));
+        assertTrue(line, line.endsWith(",\"operation\":\"authenticateUser\",\"username\":\"jo\\\"e\\u000a\","
+                + "\"outcome\":\"FAILURE\",\"micros\":2,\"attempts\":3}"));
+    }
+}
@@ -0,0 +1,79 @@
+package io.eion.security.passkeeper.service.auth;
+
+import com.google.gson.Gson;
+import io.eion.security.passkeeper.service.storage.DurableFileWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class UserVerifiersTest {
+
+    @Rule
+    public TemporaryFolder keystoreLocation = new TemporaryFolder();
+
+    @Test
+    public void testVerifyAfterRestart() throws Exception {
+
+        final UserVerifiers userVerifiers = this.createUserVerifiers();
+        assertEquals(Optional.empty(), userVerifiers.verify("joe", "secret"));
+
+        userVerifiers.enroll("joe", "secret");
+        userVerifiers.enroll("jane", "secret");
+        userVerifiers.remove("jane");
+        assertEquals(Optional.of(true), userVerifiers.verify("joe", "secret"));
+        assertEquals(Optional.of(false), userVerifiers.verify("joe", "wrong"));
+
+        final UserVerifiers restarted = this.createUserVerifiers();
+        assertEquals(Optional.of(false), restarted.verify("joe", "wrong"));
+        assertEquals(Optional.of(true), restarted.verify("joe", "secret"));
+        assertEquals(Optional.of(true), restarted.verify("joe", "secret"));
+        assertEquals(Optional.empty(), restarted.verify("jane", "secret"));
+    }
+
+    @Test
+    public void testEnrollOfDeletedUserIsSkipped() throws Exception {
+
+        final UserVerifiers userVerifiers = this.createUserVerifiers();
+        assertFalse(userVerifiers.enroll("joe", "secret", () -> false));
+        assertEquals(Optional.empty(), userVerifiers.verify("joe", "secret"));
+        assertEquals(Optional.empty(), this.createUserVerifiers().verify("joe", "secret"));
+    }
+
+    @Test
+    public void testIncompleteRecordIsRejected() throws Exception {
+
+        this.createUserVerifiers().enroll("joe", "secret");
+
+        final File logFile = new File(this.keystoreLocation.getRoot(), UserVerifiers.USER_VERIFIERS_FILE);
+        Files.write(logFile.toPath(), "{\"op\":\"PUT\",\"username\":\"jane\",\"salt\":\"00\",\"hash\":\"00\"}\n"
+                .getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        final UserVerifiers restarted = this.createUserVerifiers();
+        assertEquals(Optional.of(true), restarted.verify("joe", "secret"));
+        assertEquals(Optional.empty(), restarted.verify("jane", "secret"));
+    }
+
+    private UserVerifiers createUserVerifiers() throws Exception {
+        final UserVerifiers userVerifiers = new UserVerifiers();
+        ReflectionTestUtils.setField(userVerifiers, "keystoreLocation", this.keystoreLocation.getRoot().getAbsolutePath());
+        ReflectionTestUtils.setField(userVerifiers, "enabled", true);
+        ReflectionTestUtils.setField(userVerifiers, "iterations", 1000);
+        ReflectionTestUtils.setField(userVerifiers, "gson", new Gson());
+        ReflectionTestUtils.setField(userVerifiers, "durableFileWriter", new DurableFileWriter(DurableFileWriter.SyncMode.NONE, 0));
+        userVerifiers.initialize();
+        return userVerifiers;
+    }
+}
@@ -0,0 +1,113 @@
+package io.eion.security.passkeeper.service.cache;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.KeyStore;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class KeyStoreCacheTest {
+
+    private static final String USER_NAME = KeyStoreCacheTest.class.getSimpleName();
+
+    private static final String MASTER_PASSWORD = "masterPassword";
+
+    @Test
+    public void testChangesToHandedOutKeyStoreAreNotCached() throws Exception {
+
+        final KeyStoreCache keyStoreCache = this.createKeyStoreCache();
+
+        final KeyStore keyStore = KeyStore.getInstance("JCEKS");
+        keyStore.load(null, MASTER_PASSWORD.toCharArray());
+        keyStoreCache.put(USER_NAME, MASTER_PASSWORD, keyStore, keyStoreCache.getGeneration(USER_NAME));
+
+        // a writer adding an entry it then fails to save
+        final KeyStore writerKeyStore = keyStoreCache.get(USER_NAME, MASTER_PASSWORD).get();
+        writerKeyStore.setEntry("alias", new KeyStore.SecretKeyEntry(KeyGenerator.getInstance("AES").generateKey()),
+                new KeyStore.PasswordProtection(MASTER_PASSWORD.toCharArray()));
+
+        final KeyStore readerKeyStore = keyStoreCache.get(USER_NAME, MASTER_PASSWORD).get();
+        assertNotSame(writerKeyStore, readerKeyStore);
+        assertFalse(readerKeyStore.containsAlias("alias"));
+
+        keyStoreCache.put(USER_NAME, MASTER_PASSWORD, writerKeyStore, keyStoreCache.invalidate(USER_NAME));
+        assertTrue(keyStoreCache.get(USER_NAME, MASTER_PASSWORD).get().containsAlias("alias"));
+        assertFalse(keyStoreCache.get(USER_NAME, "wrongPassword").isPresent());
+    }
+
+    @Test
+    public void testSecretKeysAreUnsealedOnce() throws Exception {
+
+        final KeyStoreCache keyStoreCache = this.createKeyStoreCache();
+        final SecretKey secretKey = KeyGenerator.getInstance("AES").generateKey();
+        final KeyStore keyStore = KeyStore.getInstance("JCEKS");
+        keyStore.load(null, null);
+        keyStore.setEntry("Gmail", new KeyStore.SecretKeyEntry(secretKey), this.protection());
+        keyStoreCache.put(USER_NAME, MASTER_PASSWORD, keyStore, keyStoreCache.getGeneration(USER_NAME));
+
+        final KeyStore.SecretKeyEntry first = (KeyStore.SecretKeyEntry) keyStoreCache.get(USER_NAME, MASTER_PASSWORD).get()
+                .getEntry("gmail", this.protection());
+        final KeyStore.SecretKeyEntry second = (KeyStore.SecretKeyEntry) keyStoreCache.get(USER_NAME, MASTER_PASSWORD).get()
+                .getEntry("GMAIL", this.protection());
+
+        assertArrayEquals(secretKey.getEncoded(), first.getSecretKey().getEncoded());
+        assertSame(first.getSecretKey(), second.getSecretKey());
+        assertNull(keyStoreCache.get(USER_NAME, MASTER_PASSWORD).get().getEntry("github", this.protection()));
+    }
+
+    @Test
+    public void testStoreWritesChangesOfHandedOutKeyStore() throws Exception {
+
+        final KeyStoreCache keyStoreCache = this.createKeyStoreCache();
+        final KeyStore keyStore = KeyStore.getInstance("JCEKS");
+        keyStore.load(null, null);
+        keyStore.setEntry("gmail", new KeyStore.SecretKeyEntry(KeyGenerator.getInstance("AES").generateKey()), this.protection());
+        keyStoreCache.put(USER_NAME, MASTER_PASSWORD, keyStore, keyStoreCache.getGeneration(USER_NAME));
+
+        final SecretKey github = KeyGenerator.getInstance("AES").generateKey();
+        final KeyStore writerKeyStore = keyStoreCache.get(USER_NAME, MASTER_PASSWORD).get();
+        writerKeyStore.deleteEntry("gmail");
+        writerKeyStore.setEntry("github", new KeyStore.SecretKeyEntry(github), this.protection());
+        assertEquals(Collections.singletonList("github"), Collections.list(writerKeyStore.aliases()));
+
+        final ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        writerKeyStore.store(stored, MASTER_PASSWORD.toCharArray());
+        keyStoreCache.put(USER_NAME, MASTER_PASSWORD, writerKeyStore, keyStoreCache.invalidate(USER_NAME));
+
+        final KeyStore loadedKeyStore = KeyStore.getInstance("JCEKS");
+        loadedKeyStore.load(new ByteArrayInputStream(stored.toByteArray()), MASTER_PASSWORD.toCharArray());
+        assertFalse(loadedKeyStore.containsAlias("gmail"));
+        assertArrayEquals(github.getEncoded(), loadedKeyStore.getKey("github", MASTER_PASSWORD.toCharArray()).getEncoded());
+
+        final KeyStore cachedKeyStore = keyStoreCache.get(USER_NAME, MASTER_PASSWORD).get();
+        assertFalse(cachedKeyStore.containsAlias("gmail"));
+        assertSame(github, cachedKeyStore.getKey("github", MASTER_PASSWORD.toCharArray()));
+    }
+
+    private KeyStoreCache createKeyStoreCache() {
+        final KeyStoreCache keyStoreCache = new KeyStoreCache();
+        ReflectionTestUtils.setField(keyStoreCache, "maxSize", 10);
+        ReflectionTestUtils.setField(keyStoreCache, "ttl", 60);
+
+        return keyStoreCache;
+    }
+
+    private KeyStore.PasswordProtection protection() {
+        return new KeyStore.PasswordProtection(MASTER_PASSWORD.toCharArray());
+    }
+}
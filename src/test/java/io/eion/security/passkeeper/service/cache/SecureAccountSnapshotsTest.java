@@ -0,0 +1,96 @@
+package io.eion.security.passkeeper.service.cache;
+
+import io.eion.security.passkeeper.service.SecureAccountStore;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import io.eion.security.passkeeper.service.bean.SecureAccountRequest;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class SecureAccountSnapshotsTest {
+
+    private static final String USER_NAME = SecureAccountSnapshotsTest.class.getSimpleName();
+
+    @Test
+    public void testInvalidationDuringLoadIsNotUndone() throws Exception {
+
+        final SecureAccountSnapshots snapshots = new SecureAccountSnapshots();
+        final AtomicInteger loads = new AtomicInteger();
+
+        // the user gets deleted while the first reader is loading its accounts
+        ReflectionTestUtils.setField(snapshots, "secureAccountStore", new AccountsStore(username -> {
+            final Map<String, SecureAccount> secureAccounts = new HashMap<>();
+
+            if (loads.incrementAndGet() == 1) {
+                secureAccounts.put("stale", SecureAccount.builder().accountAlias("stale").build());
+                snapshots.invalidate(username);
+            }
+
+            return secureAccounts;
+        }));
+
+        assertTrue(snapshots.get(USER_NAME).getSecureAccount("stale").isPresent());
+        assertEquals(Optional.empty(), snapshots.get(USER_NAME).getSecureAccount("stale"));
+        assertEquals(2, loads.get());
+    }
+
+    private interface Loader {
+
+        Map<String, SecureAccount> load(String username);
+    }
+
+    private static class AccountsStore implements SecureAccountStore {
+
+        private final Loader loader;
+
+        AccountsStore(final Loader loader) {
+            this.loader = loader;
+        }
+
+        @Override
+        public Map<String, SecureAccount> getSecureAccounts(final String username) {
+            return this.loader.load(username);
+        }
+
+        @Override
+        public void storeSecureAccount(final SecureAccount secureAccount) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void storeSecureAccounts(final String username, final Collection<SecureAccount> secureAccounts) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteSecureAccountStore(final String username) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Optional<SecureAccount> getSecureAccount(final SecureAccountRequest secureAccountRequest) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteSecureAccountPassword(final SecureAccountRequest secureAccountRequest) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteSecureAccountPasswords(final String username, final Collection<String> accountAliases) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.eion.security.passkeeper.service.concurrent;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class InstrumentedExecutorTest {
+
+    private final InstrumentedExecutor executor = new InstrumentedExecutor("test", 1, 1);
+
+    @After
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testRejectWhenSaturated() throws Exception {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        this.executor.execute(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        this.executor.execute(() -> {
+        });
+
+        try {
+            this.executor.execute(() -> {
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        assertEquals(1L, this.getMetric("executor.test.rejected"));
+        assertEquals(1, this.getMetric("executor.test.queue"));
+
+        release.countDown();
+        this.executor.shutdown();
+        assertTrue(this.executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2L, this.getMetric("executor.test.completed"));
+    }
+
+    private Object getMetric(final String name) {
+        return this.executor.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .map(Metric::getValue)
+                .findFirst().orElse(null);
+    }
+
+    private static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package io.eion.security.passkeeper.service.concurrent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class ParallelMapperTest {
+
+    private final InstrumentedExecutor executor = new InstrumentedExecutor("test", 2, 1);
+
+    @After
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testMapKeepsOrder() throws Exception {
+
+        final List<Integer> items = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            items.add(i);
+        }
+
+        final List<Integer> mapped = ParallelMapper.map(this.executor, 4, items, i -> i * 2);
+
+        assertEquals(items.size(), mapped.size());
+
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(Integer.valueOf(i * 2), mapped.get(i));
+        }
+    }
+
+    @Test
+    public void testMapFromBusyExecutorThread() throws Exception {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // every other thread is busy and the queue full, so the helpers are queued or rejected
+        this.executor.execute(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final Future<List<String>> mapped = this.executor.submit(() -> ParallelMapper.map(this.executor, 4, Arrays.asList("a", "b", "c"), String::toUpperCase));
+
+        assertEquals(Arrays.asList("A", "B", "C"), mapped.get(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void testFailureIsRethrown() throws Exception {
+
+        try {
+            ParallelMapper.map(this.executor, 4, Arrays.asList("a", null, "c"), String::toUpperCase);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+    private static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
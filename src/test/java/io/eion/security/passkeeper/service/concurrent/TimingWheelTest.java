@@ -0,0 +1,67 @@
+package io.eion.security.passkeeper.service.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class TimingWheelTest {
+
+    private final List<String> expired = new ArrayList<>();
+
+    private final TimingWheel<String> timingWheel = new TimingWheel<>(100, 4, this.expired::add);
+
+    @Test
+    public void testExpireAfterDelay() {
+
+        assertTrue(this.timingWheel.schedule("a", 200));
+        assertTrue(this.timingWheel.schedule("b", 250));
+        assertFalse(this.timingWheel.schedule("a", 100));
+        assertEquals(2, this.timingWheel.size());
+
+        this.timingWheel.tick();
+        assertTrue(this.expired.isEmpty());
+
+        this.timingWheel.tick();
+        assertEquals(Collections.singletonList("a"), this.expired);
+
+        this.timingWheel.tick();
+        assertEquals(Arrays.asList("a", "b"), this.expired);
+        assertEquals(0, this.timingWheel.size());
+    }
+
+    @Test
+    public void testExpireAfterSeveralTurns() {
+
+        this.timingWheel.schedule("a", 1000);
+
+        for (int i = 0; i < 9; i++) {
+            assertEquals(0, this.timingWheel.tick());
+        }
+
+        assertTrue(this.timingWheel.contains("a"));
+        assertEquals(1, this.timingWheel.tick());
+        assertFalse(this.timingWheel.contains("a"));
+    }
+
+    @Test
+    public void testCancel() {
+
+        this.timingWheel.schedule("a", 100);
+        assertTrue(this.timingWheel.cancel("a"));
+        assertFalse(this.timingWheel.cancel("a"));
+
+        this.timingWheel.tick();
+        assertTrue(this.expired.isEmpty());
+        assertTrue(this.timingWheel.schedule("a", 100));
+    }
+}
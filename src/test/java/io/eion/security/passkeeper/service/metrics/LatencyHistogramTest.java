@@ -0,0 +1,44 @@
+package io.eion.security.passkeeper.service.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() throws Exception {
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertArrayEquals(new long[]{0, 0}, histogram.getValuesAt(0.5, 0.99));
+
+        for (long micros = 1; micros <= 1000000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        final long[] values = histogram.getValuesAt(0.5, 0.99, 1.0);
+        assertWithin(500000000L, values[0]);
+        assertWithin(990000000L, values[1]);
+        assertWithin(1000000000L, values[2]);
+        assertEquals(1000000, histogram.getCount());
+    }
+
+    @Test
+    public void testBucketsAreContiguous() throws Exception {
+
+        for (long value = 0; value < 1 << 20; value++) {
+            final int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value <= LatencyHistogram.highestValue(index));
+            assertTrue(index == 0 || value > LatencyHistogram.highestValue(index - 1));
+        }
+    }
+
+    private static void assertWithin(final long expected, final long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 32);
+    }
+}
@@ -0,0 +1,41 @@
+package io.eion.security.passkeeper.service.metrics;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class StageTimersTest {
+
+    @Test
+    public void testOperationIsCarriedToOtherThreads() throws Exception {
+
+        final StageTimers stageTimers = new StageTimers();
+        ReflectionTestUtils.setField(stageTimers, "enabled", true);
+
+        final String previous = stageTimers.enter("getSecureAccounts");
+        final Function<String, String> decrypt;
+
+        try {
+            decrypt = stageTimers.withOperation(alias -> {
+                stageTimers.stop(StageTimers.DECRYPT, stageTimers.start());
+                return alias;
+            });
+        } finally {
+            stageTimers.exit(previous);
+        }
+
+        assertEquals("gmail", CompletableFuture.supplyAsync(() -> decrypt.apply("gmail")).get());
+
+        assertTrue(stageTimers.getHistograms().get("getSecureAccounts").containsKey(StageTimers.DECRYPT));
+        assertFalse(stageTimers.getHistograms().containsKey(StageTimers.BACKGROUND));
+    }
+}
@@ -0,0 +1,106 @@
+package io.eion.security.passkeeper.service.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class DurableFileWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFailedWriteKeepsPreviousFile() throws Exception {
+
+        final File file = new File(this.folder.getRoot(), "joe.account");
+
+        try (DurableFileWriter writer = new DurableFileWriter(DurableFileWriter.SyncMode.ALWAYS, 0)) {
+            writer.write(file, stream -> stream.write(bytes("first")));
+
+            try {
+                writer.write(file, stream -> {
+                    stream.write(bytes("partial"));
+                    throw new IllegalStateException("crash");
+                });
+                fail();
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+
+        assertEquals("first", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertArrayEquals(new String[]{"joe.account"}, this.folder.getRoot().list());
+    }
+
+    @Test
+    public void testGroupCommitSharesFsyncs() throws Exception {
+
+        final int writers = 8;
+        final int writes = 20;
+        final ExecutorService executor = Executors.newFixedThreadPool(writers);
+
+        try (DurableFileWriter writer = new DurableFileWriter(DurableFileWriter.SyncMode.GROUP, 5)) {
+            final List<Future<?>> futures = new ArrayList<>();
+
+            for (int i = 0; i < writers; i++) {
+                final int thread = i;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < writes; j++) {
+                        final String content = thread + "-" + j;
+                        writer.write(new File(this.folder.getRoot(), "user-" + thread + ".account"), stream -> stream.write(bytes(content)));
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            assertTrue(getMetric(writer, "storage.sync.fsyncs") < getMetric(writer, "storage.sync.requests"));
+            assertEquals(writers * writes, getMetric(writer, "storage.writes"));
+
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int i = 0; i < writers; i++) {
+            final File file = new File(this.folder.getRoot(), "user-" + i + ".account");
+            assertEquals(i + "-" + (writes - 1), new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static long getMetric(final DurableFileWriter writer, final String name) {
+
+        for (Metric<?> metric : writer.metrics()) {
+            if (metric.getName().equals(name)) {
+                return metric.getValue().longValue();
+            }
+        }
+
+        throw new IllegalArgumentException(name);
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,110 @@
+package io.eion.security.passkeeper.service.storage;
+
+import com.google.gson.Gson;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class JsonLinesLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final DurableFileWriter durableFileWriter = new DurableFileWriter(DurableFileWriter.SyncMode.ALWAYS, 0);
+
+    @Test
+    public void testTornTailIsTruncated() throws Exception {
+
+        final JsonLinesLog<Record> log = this.createLog();
+        log.append(new Record("first"));
+        log.append(new Record("second"));
+        Files.write(log.getFile().toPath(), "{\"name\":\"thi".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertEquals(Arrays.asList("first", "second"), replay(log));
+
+        // the next record starts on a line of its own instead of being glued to the torn one
+        log.append(new Record("third"));
+        assertEquals(Arrays.asList("first", "second", "third"), replay(log));
+    }
+
+    @Test
+    public void testUnreadableLastRecordIsTruncated() throws Exception {
+
+        final JsonLinesLog<Record> log = this.createLog();
+        log.append(new Record("first"));
+        Files.write(log.getFile().toPath(), "{\"name\":\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertEquals(Arrays.asList("first"), replay(log));
+        assertEquals(1, Files.readAllLines(log.getFile().toPath()).size());
+    }
+
+    @Test
+    public void testUnreadableRecordBeforeTailFailsReplay() throws Exception {
+
+        final JsonLinesLog<Record> log = this.createLog();
+        log.append(new Record("first"));
+        Files.write(log.getFile().toPath(), "garbage}\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        log.append(new Record("second"));
+
+        try {
+            replay(log);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertEquals(3, Files.readAllLines(log.getFile().toPath()).size());
+    }
+
+    @Test
+    public void testRewrite() throws Exception {
+
+        final JsonLinesLog<Record> log = this.createLog();
+        log.append(new Record("first"));
+        log.rewrite(Arrays.asList(new Record("second"), new Record("third")));
+
+        assertEquals(Arrays.asList("second", "third"), replay(log));
+    }
+
+    private JsonLinesLog<Record> createLog() {
+        return new JsonLinesLog<>(new File(this.folder.getRoot(), "records.log"), Record.class, new Gson(), this.durableFileWriter, true);
+    }
+
+    private static List<String> replay(final JsonLinesLog<Record> log) throws IOException {
+        final List<String> names = new ArrayList<>();
+
+        log.replay(record -> {
+            if (record.name == null) {
+                throw new IllegalArgumentException("Record has no name");
+            }
+
+            names.add(record.name);
+        });
+
+        return names;
+    }
+
+    private static class Record {
+
+        private String name;
+
+        Record(final String name) {
+            this.name = name;
+        }
+    }
+}
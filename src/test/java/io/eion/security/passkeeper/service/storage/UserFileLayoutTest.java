@@ -0,0 +1,52 @@
+package io.eion.security.passkeeper.service.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class UserFileLayoutTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFanoutDirectory() throws Exception {
+
+        final UserFileLayout layout = new UserFileLayout(this.folder.getRoot(), UserFileLayout.Layout.FANOUT);
+        final File file = layout.getFile("joe", ".jceks");
+
+        assertEquals(new File(this.folder.getRoot(), UserFileLayout.getDirectoryPath("joe")), file.getParentFile());
+        assertEquals(file.getParentFile().getParentFile().getParentFile(), this.folder.getRoot());
+        assertTrue(file.getParentFile().isDirectory());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testMigrateFlatFile() throws Exception {
+
+        final File flatFile = new File(this.folder.getRoot(), "joe.jceks");
+        Files.write(flatFile.toPath(), "keystore".getBytes(StandardCharsets.UTF_8));
+
+        final UserFileLayout flatLayout = new UserFileLayout(this.folder.getRoot(), UserFileLayout.Layout.FLAT);
+        assertEquals(flatFile, flatLayout.getFile("joe", ".jceks"));
+
+        final UserFileLayout layout = new UserFileLayout(this.folder.getRoot(), UserFileLayout.Layout.FANOUT);
+        final File file = layout.getFile("joe", ".jceks");
+
+        assertFalse(flatFile.exists());
+        assertEquals("keystore", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertEquals(file, layout.getFile("joe", ".jceks"));
+        assertEquals(1L, layout.metrics().iterator().next().getValue());
+    }
+}
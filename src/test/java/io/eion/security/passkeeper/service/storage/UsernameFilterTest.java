@@ -0,0 +1,53 @@
+package io.eion.security.passkeeper.service.storage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class UsernameFilterTest {
+
+    @Test
+    public void testAddAndRemove() throws Exception {
+
+        final int users = 10000;
+        final UsernameFilter filter = new UsernameFilter(users, 0.01);
+
+        for (int i = 0; i < users; i++) {
+            filter.add("user-" + i);
+        }
+
+        for (int i = 0; i < users; i++) {
+            assertTrue(filter.mightContain("user-" + i));
+        }
+
+        int falsePositives = 0;
+
+        for (int i = 0; i < users; i++) {
+            if (filter.mightContain("missing-" + i)) {
+                falsePositives++;
+            }
+        }
+
+        assertTrue("False positives: " + falsePositives, falsePositives < users * 0.02);
+
+        for (int i = 0; i < users; i += 2) {
+            filter.remove("user-" + i);
+        }
+
+        for (int i = 1; i < users; i += 2) {
+            assertTrue(filter.mightContain("user-" + i));
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+
+        final UsernameFilter filter = new UsernameFilter(0, 0.01);
+        assertFalse(filter.isEnabled());
+        assertTrue(filter.mightContain("joe"));
+    }
+}
@@ -0,0 +1,151 @@
+package io.eion.security.passkeeper.service.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class VaultFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndReopen() throws Exception {
+
+        final File file = this.folder.newFile("test.vault");
+
+        try (VaultFile vaultFile = new VaultFile(file, true, 0.5)) {
+            final Map<String, byte[]> puts = new HashMap<>();
+            puts.put("account/joe/gmail", bytes("gmail"));
+            puts.put("account/joe/github", bytes("github"));
+            puts.put("account/joey/gmail", bytes("other user"));
+            vaultFile.write(puts, Collections.emptyList());
+            vaultFile.put("account/joe/gmail", bytes("gmail updated"));
+            vaultFile.delete(Collections.singletonList("account/joe/github"));
+
+            assertEquals(Collections.singletonList("account/joe/gmail"), vaultFile.keys("account/joe/"));
+        }
+
+        try (VaultFile vaultFile = new VaultFile(file, true, 0.5)) {
+            assertArrayEquals(bytes("gmail updated"), vaultFile.get("account/joe/gmail").get());
+            assertFalse(vaultFile.get("account/joe/github").isPresent());
+            assertEquals(Arrays.asList("account/joe/gmail", "account/joey/gmail"), vaultFile.keys("account/"));
+        }
+    }
+
+    @Test
+    public void testDiscardTornWrite() throws Exception {
+
+        final File file = this.folder.newFile("test.vault");
+
+        try (VaultFile vaultFile = new VaultFile(file, true, 0.5)) {
+            vaultFile.put("keystore/joe", bytes("keystore"));
+        }
+
+        final long committedLength = file.length();
+
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{1, 0, 0, 0, 12, 'k', 'e', 'y'});
+        }
+
+        try (VaultFile vaultFile = new VaultFile(file, true, 0.5)) {
+            assertArrayEquals(bytes("keystore"), vaultFile.get("keystore/joe").get());
+            assertEquals(committedLength, file.length());
+        }
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+
+        final File file = this.folder.newFile("test.vault");
+
+        try (VaultFile vaultFile = new VaultFile(file, true, 0.5)) {
+            for (int i = 0; i < 100; i++) {
+                vaultFile.put("keystore/joe", bytes("keystore-" + i));
+            }
+
+            final long uncompactedLength = file.length();
+            vaultFile.compact();
+
+            assertTrue(file.length() < uncompactedLength);
+            assertArrayEquals(bytes("keystore-99"), vaultFile.get("keystore/joe").get());
+        }
+    }
+
+    @Test
+    public void testWriteAfterCompact() throws Exception {
+
+        final File file = this.folder.newFile("test.vault");
+
+        try (VaultFile vaultFile = new VaultFile(file, true, 0.5)) {
+            vaultFile.put("keystore/joe", bytes("keystore-1"));
+            vaultFile.put("keystore/joe", bytes("keystore-2"));
+            vaultFile.compact();
+
+            vaultFile.put("keystore/jane", bytes("keystore-3"));
+            assertArrayEquals(bytes("keystore-2"), vaultFile.get("keystore/joe").get());
+            assertArrayEquals(bytes("keystore-3"), vaultFile.get("keystore/jane").get());
+            assertFalse(new File(file.getPath() + ".compact").exists());
+        }
+
+        try (VaultFile vaultFile = new VaultFile(file, true, 0.5)) {
+            assertArrayEquals(bytes("keystore-2"), vaultFile.get("keystore/joe").get());
+            assertArrayEquals(bytes("keystore-3"), vaultFile.get("keystore/jane").get());
+        }
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+
+        final File file = this.folder.newFile("test.vault");
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final List<Future<?>> futures = new ArrayList<>();
+
+        try (VaultFile vaultFile = new VaultFile(file, true, 0.5)) {
+            for (int i = 0; i < 200; i++) {
+                final String key = "keystore/user" + i;
+                futures.add(executor.submit(() -> {
+                    vaultFile.put(key, bytes(key));
+                    return vaultFile.get(key).get();
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        try (VaultFile vaultFile = new VaultFile(file, true, 0.5)) {
+            assertEquals(200, vaultFile.keys("keystore/").size());
+            assertArrayEquals(bytes("keystore/user7"), vaultFile.get("keystore/user7").get());
+        }
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
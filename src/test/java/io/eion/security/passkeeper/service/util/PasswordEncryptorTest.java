@@ -0,0 +1,94 @@
+package io.eion.security.passkeeper.service.util;
+
+import io.eion.security.passkeeper.service.cache.DerivedKeyCache;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.security.crypto.codec.Utf8;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.crypto.keygen.KeyGenerators;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class PasswordEncryptorTest {
+
+    private static final String MASTER_PASSWORD = "masterPassword";
+
+    private static final String PASSWORD = "dummyPassword";
+
+    private final String encodedSalt = KeyGenerators.string().generateKey();
+
+    private final byte[] salt = Hex.decode(this.encodedSalt);
+
+    private DerivedKeyCache derivedKeyCache;
+
+    private PasswordEncryptor passwordEncryptor;
+
+    @Before
+    public void prepare() {
+        this.derivedKeyCache = new DerivedKeyCache();
+        ReflectionTestUtils.setField(this.derivedKeyCache, "maxSize", 10);
+        ReflectionTestUtils.setField(this.derivedKeyCache, "ttl", 300);
+
+        this.passwordEncryptor = new PasswordEncryptor();
+        ReflectionTestUtils.setField(this.passwordEncryptor, "derivedKeyCache", this.derivedKeyCache);
+    }
+
+    @Test
+    public void testCompatibleWithSpringEncryptors() {
+
+        final String encryptedBySpring = Encryptors.text(MASTER_PASSWORD, this.encodedSalt).encrypt(PASSWORD);
+        assertEquals(PASSWORD, this.passwordEncryptor.decryptPassword(this.salt, MASTER_PASSWORD, encryptedBySpring));
+
+        final String encrypted = this.passwordEncryptor.encryptPassword(this.salt, MASTER_PASSWORD, PASSWORD);
+        assertEquals(PASSWORD, Encryptors.text(MASTER_PASSWORD, this.encodedSalt).decrypt(encrypted));
+    }
+
+    @Test
+    public void testDerivedKeyIsCached() {
+
+        final String encrypted = this.passwordEncryptor.encryptPassword(this.salt, MASTER_PASSWORD, PASSWORD);
+        assertNotEquals(encrypted, this.passwordEncryptor.encryptPassword(this.salt, MASTER_PASSWORD, PASSWORD));
+        assertEquals(PASSWORD, this.passwordEncryptor.decryptPassword(this.salt, MASTER_PASSWORD, encrypted));
+
+        assertEquals(2L, this.getMetric("crypto.key.cache.hits"));
+        assertEquals(1L, this.getMetric("crypto.key.cache.misses"));
+
+        final byte[] ivAndEncrypted = this.passwordEncryptor.encrypt(this.salt, CharBuffer.wrap(MASTER_PASSWORD.toCharArray()), Utf8.encode(PASSWORD));
+        assertEquals(PASSWORD, this.passwordEncryptor.decryptPassword(this.salt, MASTER_PASSWORD, new String(Hex.encode(ivAndEncrypted))));
+        assertEquals(4L, this.getMetric("crypto.key.cache.hits"));
+
+        this.derivedKeyCache.clear();
+        assertEquals(PASSWORD, this.passwordEncryptor.decryptPassword(this.salt, MASTER_PASSWORD, encrypted));
+        assertEquals(2L, this.getMetric("crypto.key.cache.misses"));
+    }
+
+    @Test
+    public void testEncryptIntoBuffers() {
+
+        final ByteBuffer encrypted = ByteBuffer.allocate(64);
+        this.passwordEncryptor.encrypt(this.salt, MASTER_PASSWORD, ByteBuffer.wrap(Utf8.encode(PASSWORD)), encrypted);
+        encrypted.flip();
+
+        final ByteBuffer decrypted = ByteBuffer.allocate(64);
+        final int length = this.passwordEncryptor.decrypt(this.salt, MASTER_PASSWORD, encrypted, decrypted);
+        assertEquals(PASSWORD, new String(decrypted.array(), 0, length, StandardCharsets.UTF_8));
+    }
+
+    private Object getMetric(final String name) {
+        return this.derivedKeyCache.metrics().stream()
+                .filter(metric -> metric.getName().equals(name))
+                .map(Metric::getValue)
+                .findFirst().orElse(null);
+    }
+}
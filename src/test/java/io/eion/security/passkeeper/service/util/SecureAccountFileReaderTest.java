@@ -0,0 +1,64 @@
+package io.eion.security.passkeeper.service.util;
+
+import com.google.gson.Gson;
+import io.eion.security.passkeeper.service.bean.SecureAccount;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class SecureAccountFileReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Gson gson = new Gson();
+
+    private final SecureAccountFileReader secureAccountFileReader = new SecureAccountFileReader(this.gson);
+
+    @Test
+    public void testEmptyFile() throws Exception {
+
+        final File file = this.temporaryFolder.newFile();
+
+        assertTrue(this.secureAccountFileReader.readSecureAccounts(file).isEmpty());
+        assertFalse(this.secureAccountFileReader.findSecureAccount(file, "alias").isPresent());
+    }
+
+    @Test
+    public void testMappedFile() throws Exception {
+
+        final Map<String, SecureAccount> secureAccounts = new HashMap<>();
+
+        // well over the size files are read into a heap buffer up to
+        for (int i = 0; i < 20000; i++) {
+            secureAccounts.put("alias" + i, SecureAccount.builder()
+                    .accountAlias("alias" + i)
+                    .accountUsername("username" + i)
+                    .encryptedPassword("0123456789abcdef0123456789abcdef0123456789abcdef").build());
+        }
+
+        final File file = this.temporaryFolder.newFile();
+
+        try (Writer writer = new FileWriter(file)) {
+            this.gson.toJson(secureAccounts, writer);
+        }
+
+        assertTrue(file.length() > 1024 * 1024);
+        assertEquals(secureAccounts.size(), this.secureAccountFileReader.readSecureAccounts(file).size());
+        assertEquals("username19999", this.secureAccountFileReader.findSecureAccount(file, "alias19999").get().getAccountUsername());
+        assertTrue(file.delete());
+    }
+}
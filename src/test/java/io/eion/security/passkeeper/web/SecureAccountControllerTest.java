@@ -1,7 +1,8 @@
 package io.eion.security.passkeeper.web;
 
 import io.eion.security.passkeeper.service.DefaultKeystoreManager;
-import io.eion.security.passkeeper.service.DefaultSecureAccountStore;
+import io.eion.security.passkeeper.service.SecureAccountStore;
+import io.eion.security.passkeeper.service.storage.UserFileLayout;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -9,15 +10,19 @@ import org.junit.runner.RunWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
 import java.io.File;
 
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
@@ -45,8 +50,11 @@ public class SecureAccountControllerTest {
     @Autowired
     private SecureAccountController controller;
 
-    @Value("${security.keystore.location}")
-    private String keystoreLocation;
+    @Autowired
+    private SecureAccountStore secureAccountStore;
+
+    @Autowired
+    private UserFileLayout userFileLayout;
 
     private MockMvc mockMvc;
 
@@ -57,57 +65,62 @@ public class SecureAccountControllerTest {
                 .setControllerAdvice(new GlobalExceptionResolver())
                 .alwaysDo(print()).build();
 
-        this.mockMvc.perform(post("/secure/users").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD).param("username", USER_NAME))
+        this.perform(post("/secure/users").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD).param("username", USER_NAME))
                 .andExpect(status().isOk());
     }
 
     @After
-    public void after() {
+    public void after() throws Exception {
 
-        final File keystore = new File(this.keystoreLocation, USER_NAME + DefaultKeystoreManager.KEYSTORE_EXT);
+        final File keystore = this.userFileLayout.getFile(USER_NAME, DefaultKeystoreManager.KEYSTORE_EXT);
         logger.debug("{}", keystore.exists());
         keystore.delete();
-        final File account = new File(this.keystoreLocation, USER_NAME + DefaultSecureAccountStore.ACCOUNT_EXT);
-        logger.debug("{}", account.exists());
-        account.delete();
+        this.secureAccountStore.deleteSecureAccountStore(USER_NAME);
 
     }
 
     @Test
     public void authenticateUser() throws Exception {
 
-        this.mockMvc.perform(head("/secure/users/" + USER_NAME).header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
+        this.perform(head("/secure/users/" + USER_NAME).header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
                 .andExpect(status().isAccepted());
     }
 
+    @Test
+    public void getSecureAccount_WrongMasterPassword() throws Exception {
+
+        this.perform(get("/secure/users/" + USER_NAME + "/accounts").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, "wrong"))
+                .andExpect(status().isUnauthorized());
+    }
+
     @Test
     public void createUser_UserAlreadyExist() throws Exception {
 
-        this.mockMvc.perform(post("/secure/users").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD).param("username", USER_NAME))
+        this.perform(post("/secure/users").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD).param("username", USER_NAME))
                 .andExpect(status().isBadRequest());
     }
 
     @Test
     public void deleteUser() throws Exception {
 
-        this.mockMvc.perform(delete("/secure/users/" + USER_NAME).header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
+        this.perform(delete("/secure/users/" + USER_NAME).header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
                 .andExpect(status().isBadRequest());
 
 
-        this.mockMvc.perform(delete("/secure/users/" + USER_NAME + "/markDelete").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
+        this.perform(delete("/secure/users/" + USER_NAME + "/markDelete").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
                 .andExpect(status().isOk());
 
-        this.mockMvc.perform(delete("/secure/users/" + USER_NAME).header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
+        this.perform(delete("/secure/users/" + USER_NAME).header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
                 .andExpect(status().isOk());
 
-        this.mockMvc.perform(get("/secure/users/" + USER_NAME + "/accounst").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
+        this.perform(get("/secure/users/" + USER_NAME + "/accounst").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
                 .andExpect(status().isNotFound());
     }
 
     @Test
     public void createSecureAccount() throws Exception {
 
-        this.mockMvc.perform(post("/secure/users/" + USER_NAME + "/accounts").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD)
+        this.perform(post("/secure/users/" + USER_NAME + "/accounts").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD)
                 .param("accountAlias", "gmail")
                 .param("accountUsername", "dummy@gmail.com")
                 .param("password", "dummypass"))
@@ -118,7 +131,7 @@ public class SecureAccountControllerTest {
                 .andExpect(jsonPath("$.secureAccount.password").value("dummypass"))
                 .andExpect(jsonPath("$.secureAccount.encryptedPassword").exists());
 
-        this.mockMvc.perform(post("/secure/users/" + USER_NAME + "/accounts").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD)
+        this.perform(post("/secure/users/" + USER_NAME + "/accounts").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD)
                 .param("accountAlias", "gmail")
                 .param("accountUsername", "dummy@gmail.com")
                 .param("password", "dummypass"))
@@ -128,18 +141,66 @@ public class SecureAccountControllerTest {
     @Test
     public void getSecureAccount() throws Exception {
 
-        this.mockMvc.perform(get("/secure/users/" + USER_NAME + "/accounts/default").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
+        this.perform(get("/secure/users/" + USER_NAME + "/accounts/default").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.encryptedPassword").exists());
 
-        this.mockMvc.perform(get("/secure/users/" + USER_NAME + "/accounts/doesnotexist").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
+        this.perform(get("/secure/users/" + USER_NAME + "/accounts/doesnotexist").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    public void getSecureAccounts() throws Exception {
+
+        this.perform(post("/secure/users/" + USER_NAME + "/accounts").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD)
+                .param("accountAlias", "gmail")
+                .param("accountUsername", "dummy@gmail.com")
+                .param("password", "dummypass"))
+                .andExpect(status().isOk());
+
+        this.perform(get("/secure/users/" + USER_NAME + "/batch/accounts").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$.[0].accountAlias").value("default"))
+                .andExpect(jsonPath("$.[1].accountAlias").value("gmail"))
+                .andExpect(jsonPath("$.[1].password").value("dummypass"));
+
+        this.perform(get("/secure/users/" + USER_NAME + "/batch/accounts").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD)
+                .param("aliases", "gmail,doesnotexist"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$.[0].accountAlias").value("gmail"));
+    }
+
+    @Test
+    public void updateSecureAccounts() throws Exception {
+
+        final String entries = "[{\"accountAlias\":\"default\",\"accountUsername\":\"username\",\"password\":\"changed\"},"
+                + "{\"accountAlias\":\"gmail\",\"accountUsername\":\"dummy@gmail.com\",\"password\":\"dummypass\"},"
+                + "{\"accountAlias\":\"gmail\",\"accountUsername\":\"dummy@gmail.com\",\"password\":\"duplicate\"},"
+                + "{\"accountAlias\":\"github\",\"accountUsername\":\"dummy\"}]";
+
+        this.perform(post("/secure/users/" + USER_NAME + "/batch/accounts").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(entries))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(4))
+                .andExpect(jsonPath("$.[0].status").value("UPDATED"))
+                .andExpect(jsonPath("$.[1].status").value("CREATED"))
+                .andExpect(jsonPath("$.[2].status").value("REJECTED"))
+                .andExpect(jsonPath("$.[3].status").value("REJECTED"));
+
+        this.perform(get("/secure/users/" + USER_NAME + "/batch/accounts").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$.[0].password").value("changed"))
+                .andExpect(jsonPath("$.[1].password").value("dummypass"));
+    }
+
     @Test
     public void getSecureAccountAliases() throws Exception {
 
-        this.mockMvc.perform(get("/secure/users/" + USER_NAME + "/accounts").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
+        this.perform(get("/secure/users/" + USER_NAME + "/accounts").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.length()").value(1))
                 .andExpect(jsonPath("$.[0]").value("default"));
@@ -148,7 +209,7 @@ public class SecureAccountControllerTest {
     @Test
     public void updateSecureAccount() throws Exception {
 
-        this.mockMvc.perform(post("/secure/users/" + USER_NAME + "/accounts/default").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD)
+        this.perform(post("/secure/users/" + USER_NAME + "/accounts/default").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD)
                 .param("accountUsername", "username")
                 .param("password", "changed"))
                 .andExpect(status().isOk());
@@ -157,8 +218,18 @@ public class SecureAccountControllerTest {
     @Test
     public void deleteSecureAccount() throws Exception {
 
-        this.mockMvc.perform(delete("/secure/users/" + USER_NAME + "/accounts/default").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
+        this.perform(delete("/secure/users/" + USER_NAME + "/accounts/default").header(SecureAccountController.MASTER_PASSWORD_HEADER_KEY, MASTER_PASSWORD))
                 .andExpect(status().isOk());
     }
 
-}
\ No newline at end of file
+    /**
+     * Endpoints complete asynchronously, dispatches the async result when the request went async.
+     */
+    private ResultActions perform(final RequestBuilder requestBuilder) throws Exception {
+
+        final ResultActions resultActions = this.mockMvc.perform(requestBuilder);
+        final MvcResult mvcResult = resultActions.andReturn();
+
+        return mvcResult.getRequest().isAsyncStarted() ? this.mockMvc.perform(asyncDispatch(mvcResult)) : resultActions;
+    }
+}
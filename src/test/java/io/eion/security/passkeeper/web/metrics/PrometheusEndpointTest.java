@@ -0,0 +1,27 @@
+package io.eion.security.passkeeper.web.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class PrometheusEndpointTest {
+
+    @Test
+    public void testIsCounter() throws Exception {
+
+        assertTrue(PrometheusEndpoint.isCounter("keystore.cache.hits"));
+        assertTrue(PrometheusEndpoint.isCounter("storage.sync.fsyncs"));
+        assertTrue(PrometheusEndpoint.isCounter("master.registration.flushes.failed"));
+        assertTrue(PrometheusEndpoint.isCounter("counter.status.200.secure.users"));
+        assertTrue(PrometheusEndpoint.isCounter("gc.ps_scavenge.count"));
+
+        assertFalse(PrometheusEndpoint.isCounter("keystore.cache.size"));
+        assertFalse(PrometheusEndpoint.isCounter("crypto.key.cache.hit.rate"));
+        assertFalse(PrometheusEndpoint.isCounter("user.deletion.pending"));
+        assertFalse(PrometheusEndpoint.isCounter("executor.crypto.queue"));
+    }
+}
@@ -0,0 +1,54 @@
+package io.eion.security.passkeeper.web.ratelimit;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="joelin@digitalriver.com">Joe Lin</a>
+ */
+public class TokenBucketsTest {
+
+    @Test
+    public void testBurstThenReject() throws Exception {
+
+        final TokenBuckets buckets = new TokenBuckets("user", 1, 5, 0, 0, 0);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, buckets.tryAcquire("joe"));
+        }
+
+        final long wait = buckets.tryAcquire("joe");
+        assertTrue(wait > 0 && wait <= TimeUnit.SECONDS.toNanos(1));
+
+        assertEquals(0, buckets.tryAcquire("jane"));
+        assertEquals(6, buckets.getAllowed());
+        assertEquals(1, buckets.getRejected());
+    }
+
+    @Test
+    public void testLockoutDoubles() throws Exception {
+
+        final TokenBuckets buckets = new TokenBuckets("user", 1000, 1000, 3, 1000, 60000);
+
+        buckets.failure("joe");
+        buckets.failure("joe");
+        assertEquals(0, buckets.tryAcquire("joe"));
+
+        buckets.failure("joe");
+        final long firstLockout = buckets.tryAcquire("joe");
+        assertTrue(firstLockout > TimeUnit.MILLISECONDS.toNanos(900) && firstLockout <= TimeUnit.SECONDS.toNanos(1));
+
+        buckets.failure("joe");
+        assertTrue(buckets.tryAcquire("joe") > TimeUnit.MILLISECONDS.toNanos(1900));
+        assertEquals(1, buckets.getLocked(10).size());
+
+        buckets.success("joe");
+        buckets.failure("joe");
+        assertEquals(2, buckets.getLockouts());
+        assertTrue(buckets.tryAcquire("joe") > TimeUnit.MILLISECONDS.toNanos(1900));
+    }
+}